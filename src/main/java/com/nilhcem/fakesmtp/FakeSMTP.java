@@ -5,6 +5,7 @@ import com.nilhcem.fakesmtp.core.ArgsHandler;
 import com.nilhcem.fakesmtp.core.Configuration;
 import com.nilhcem.fakesmtp.core.exception.UncaughtExceptionHandler;
 import com.nilhcem.fakesmtp.gui.MainFrame;
+import com.nilhcem.fakesmtp.metrics.SmtpMetrics;
 import com.nilhcem.fakesmtp.server.SMTPServerHandler;
 import org.apache.commons.cli.ParseException;
 import org.jspecify.annotations.NullMarked;
@@ -71,6 +72,10 @@ public final class FakeSMTP {
 				log.info("Running on Java Runtime {}", Runtime.version());
 				log.info("Starting server...");
 				SMTPServerHandler.INSTANCE.startServer(getPort(), getBindAddress());
+				Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+					SMTPServerHandler.INSTANCE.stopServer();
+					log.info("{}", SmtpMetrics.INSTANCE.report());
+				}));
 			} catch (NumberFormatException e) {
 				log.error("Error: Invalid port number", e);
 			} catch (UnknownHostException e) {
@@ -3,7 +3,16 @@ package com.nilhcem.fakesmtp.core;
 
 import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.Logger;
+import com.nilhcem.fakesmtp.core.Configuration.Settings;
+import com.nilhcem.fakesmtp.event.OverflowPolicy;
+import com.nilhcem.fakesmtp.model.DomainMatcher;
 import com.nilhcem.fakesmtp.model.UIModel;
+import com.nilhcem.fakesmtp.server.Listener;
+import com.nilhcem.fakesmtp.server.ServerEngine;
+import com.nilhcem.fakesmtp.server.SessionThreads;
+import com.nilhcem.fakesmtp.store.Durability;
+import com.nilhcem.fakesmtp.store.MemoryMailStore.EvictionPolicy;
+import com.nilhcem.fakesmtp.store.StoreType;
 import lombok.Getter;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.CommandLineParser;
@@ -15,6 +24,7 @@ import org.apache.commons.cli.ParseException;
 import org.jspecify.annotations.Nullable;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Optional;
@@ -52,6 +62,15 @@ public enum ArgsHandler {
             .desc("SMTP port number")
             .get();
 
+	private final Option optionListen = Option.builder("l")
+            .longOpt("listen")
+            .hasArg(true)
+            .argName("[host:]port[/setting,...]")
+            .desc("Additional address and port to listen on, which can be repeated, all listeners saving emails " +
+                    "together. An IPv6 address is written between brackets, e.g. [::1]:2525. Settings: tls (STARTTLS " +
+                    "with the JVM key store), require-tls, require-auth, e.g. 587/tls,require-auth")
+            .get();
+
 	private final Option optionBackgroundStart = Option.builder("b")
             .longOpt("background")
             .hasArg(false)
@@ -64,13 +83,142 @@ public enum ArgsHandler {
             .valueSeparator(',')
             .required(false)
             .desc("Comma separated email domain(s) for which relay is accepted. If not specified, relays to any domain. " +
-                    "If specified, relays only emails matching these domain(s), dropping (not saving) others")
+                    "If specified, relays only emails matching these domain(s) or their subdomains (or only the domain, if prefixed with @), " +
+                    "rejecting the other recipients")
             .get();
 
 	private final Option optionMemoryMode = Option.builder("m")
             .longOpt("memory-mode")
             .hasArg(false)
-            .desc("Disable the persistence in order to avoid the overhead that it adds")
+            .desc("Disable the persistence in order to avoid the overhead that it adds (same as --store memory)")
+            .get();
+
+	private final Option optionBufferThreshold = Option.builder()
+            .longOpt("buffer-threshold")
+            .hasArg(true)
+            .type(Number.class)
+            .desc("Size in bytes above which an incoming email is buffered in a temporary file instead of memory " +
+                    "(default: " + Configuration.getInstance().get(Settings.EMAILS_BUFFER_THRESHOLD) + ")")
+            .get();
+
+	private final Option optionDurability = Option.builder()
+            .longOpt("durability")
+            .hasArg(true)
+            .argName("enqueue|write|fsync")
+            .desc("Enables the write-behind mode: emails are written in the background, and acknowledged once " +
+                    "queued (enqueue), written (write) or flushed to the disk (fsync)")
+            .get();
+
+	private final Option optionStore = Option.builder()
+            .longOpt("store")
+            .hasArg(true)
+            .argName("files|memory|segments")
+            .desc("How emails are persisted: one .eml file per email (files, default), only in memory (memory), " +
+                    "or appended to large segment files (segments)")
+            .get();
+
+	private final Option optionMemoryMaxCount = Option.builder()
+            .longOpt("memory-max-count")
+            .hasArg(true)
+            .type(Number.class)
+            .desc("Maximum number of emails kept in memory mode " +
+                    "(default: " + Configuration.getInstance().get(Settings.EMAILS_MEMORY_MAX_COUNT) + ")")
+            .get();
+
+	private final Option optionMemoryMaxBytes = Option.builder()
+            .longOpt("memory-max-bytes")
+            .hasArg(true)
+            .type(Number.class)
+            .desc("Maximum total size in bytes of the emails kept in memory mode " +
+                    "(default: " + Configuration.getInstance().get(Settings.EMAILS_MEMORY_MAX_BYTES) + ")")
+            .get();
+
+	private final Option optionMemoryEviction = Option.builder()
+            .longOpt("memory-eviction")
+            .hasArg(true)
+            .argName("fifo|lru")
+            .desc("Which emails are evicted first in memory mode, once a maximum is reached: the oldest ones (fifo), " +
+                    "or the least recently read ones (lru) (default: " + Configuration.getInstance().get(Settings.EMAILS_MEMORY_EVICTION) + ")")
+            .get();
+
+	private final Option optionMemoryOffHeap = Option.builder()
+            .longOpt("memory-off-heap")
+            .hasArg(false)
+            .desc("Keeps the content of emails outside the Java heap in memory mode, to reduce the garbage collection " +
+                    "pauses (the direct memory is limited by the -XX:MaxDirectMemorySize JVM option)")
+            .get();
+
+	private final Option optionEventsOverflow = Option.builder()
+            .longOpt("events-overflow")
+            .hasArg(true)
+            .argName("block|drop-oldest|drop-newest|coalesce")
+            .desc("What happens when the GUI falls behind: the SMTP sessions wait for it (block, up to a timeout), " +
+                    "or the oldest events (drop-oldest), the new events (drop-newest), or all but the latest event (coalesce) " +
+                    "are dropped (default: " + Configuration.getInstance().get(Settings.EVENTS_OVERFLOW) + ")")
+            .get();
+
+	private final Option optionSessionThreads = Option.builder()
+            .longOpt("session-threads")
+            .hasArg(true)
+            .argName("platform|virtual")
+            .desc("Whether each SMTP session runs on a platform thread (platform, default), or on a virtual thread " +
+                    "(virtual, requires Java 21 or later), to hold many idle connections")
+            .get();
+
+	private final Option optionEngine = Option.builder()
+            .longOpt("engine")
+            .hasArg(true)
+            .argName("blocking|nio")
+            .desc("Whether the SMTP server runs a thread per connection (blocking, default), " +
+                    "or a few non-blocking event loops for all the connections (nio, without STARTTLS)")
+            .get();
+
+	private final Option optionNioThreads = Option.builder()
+            .longOpt("nio-threads")
+            .hasArg(true)
+            .type(Number.class)
+            .desc("Number of event loops of the nio engine, 0 for one per processor " +
+                    "(default: " + Configuration.getInstance().get(Settings.SMTP_NIO_THREADS) + ")")
+            .get();
+
+	private final Option optionMaxSessions = Option.builder()
+            .longOpt("max-sessions")
+            .hasArg(true)
+            .type(Number.class)
+            .desc("Maximum number of concurrent SMTP sessions " +
+                    "(default: " + Configuration.getInstance().get(Settings.SMTP_MAX_SESSIONS) + ")")
+            .get();
+
+	private final Option optionBacklog = Option.builder()
+            .longOpt("backlog")
+            .hasArg(true)
+            .type(Number.class)
+            .desc("Maximum number of connections waiting to be accepted " +
+                    "(default: " + Configuration.getInstance().get(Settings.SMTP_BACKLOG) + ")")
+            .get();
+
+	private final Option optionConnectionTimeout = Option.builder()
+            .longOpt("connection-timeout")
+            .hasArg(true)
+            .type(Number.class)
+            .desc("Time in milliseconds after which an idle connection is closed " +
+                    "(default: " + Configuration.getInstance().get(Settings.SMTP_CONNECTION_TIMEOUT) + ")")
+            .get();
+
+	private final Option optionMaxMessageSize = Option.builder()
+            .longOpt("max-message-size")
+            .hasArg(true)
+            .type(Number.class)
+            .desc("Maximum size in bytes of an email, larger emails being rejected, 0 for unlimited " +
+                    "(default: " + Configuration.getInstance().get(Settings.SMTP_MAX_MESSAGE_SIZE) + ")")
+            .get();
+
+	private final Option optionMaxRecipients = Option.builder()
+            .longOpt("max-recipients")
+            .hasArg(true)
+            .type(Number.class)
+            .desc("Maximum number of recipients of an email " +
+                    "(default: " + Configuration.getInstance().get(Settings.SMTP_MAX_RECIPIENTS) + ")")
             .get();
 
 	private final Option optionBindAddress = Option.builder("a")
@@ -95,6 +243,12 @@ public enum ArgsHandler {
 	@Getter
     private Optional<Integer> port = Optional.empty();
 
+	/**
+	 * The additional listeners, as specified by the user.
+	 */
+	@Getter
+	private List<Listener> listeners = List.of();
+
 	/**
 	 * The bind address, as specified by the user, or a {@code null} string if unspecified.
 	 */
@@ -128,10 +282,36 @@ public enum ArgsHandler {
 	/**
 	 * Whether the SMTP server should disable the persistence in order to avoid the overhead that it adds.
 	 * This is particularly useful when we launch performance tests that massively send emails.
+	 * Same as selecting the {@link StoreType#MEMORY memory} store.
 	 */
 	@Getter
 	private boolean memoryModeEnabled;
 
+	/**
+	 * How emails are persisted.
+	 */
+	@Getter
+	private StoreType storeType = StoreType.FILES;
+
+	/**
+	 * When emails written in the background are acknowledged, or {@code null} if the write-behind mode is disabled.
+	 */
+	@Getter
+	@Nullable
+	private Durability durability;
+
+	/**
+	 * The kind of threads running the SMTP sessions.
+	 */
+	@Getter
+	private SessionThreads sessionThreads = SessionThreads.PLATFORM;
+
+	/**
+	 * The implementation of the SMTP server.
+	 */
+	@Getter
+	private ServerEngine engine = ServerEngine.BLOCKING;
+
 	@Getter
 	private boolean printHelp = false;
 
@@ -144,9 +324,26 @@ public enum ArgsHandler {
 				.addOption(optionAutoStart)
 				.addOption(optionPort)
 				.addOption(optionBindAddress)
+				.addOption(optionListen)
 				.addOption(optionBackgroundStart)
 				.addOption(optionRelayDomains)
 				.addOption(optionMemoryMode)
+				.addOption(optionBufferThreshold)
+				.addOption(optionDurability)
+				.addOption(optionStore)
+				.addOption(optionMemoryMaxCount)
+				.addOption(optionMemoryMaxBytes)
+				.addOption(optionMemoryEviction)
+				.addOption(optionMemoryOffHeap)
+				.addOption(optionEventsOverflow)
+				.addOption(optionSessionThreads)
+				.addOption(optionEngine)
+				.addOption(optionNioThreads)
+				.addOption(optionMaxSessions)
+				.addOption(optionBacklog)
+				.addOption(optionConnectionTimeout)
+				.addOption(optionMaxMessageSize)
+				.addOption(optionMaxRecipients)
 				.addOption(optionEmlViewer)
 				.addOption(Option.builder("h").longOpt("help").desc("Print this message")
                         .get());
@@ -174,9 +371,22 @@ public enum ArgsHandler {
 			port = Optional.of(parsedPort.intValue());
 		}
 		bindAddress = cmd.getOptionValue(optionBindAddress);
+		String[] listenValues = cmd.getOptionValues(optionListen);
+		if (listenValues == null) {
+			listeners = List.of();
+		} else {
+			List<Listener> parsedListeners = new ArrayList<>();
+			for (String listenValue : listenValues) {
+				try {
+					parsedListeners.add(Listener.parse(listenValue));
+				} catch (IllegalArgumentException e) {
+					throw new ParseException("Invalid listener: " + listenValue);
+				}
+			}
+			listeners = List.copyOf(parsedListeners);
+		}
 		startServerAtLaunch = cmd.hasOption(optionAutoStart);
 		backgroundStart = cmd.hasOption(optionBackgroundStart);
-		memoryModeEnabled = cmd.hasOption(optionMemoryMode);
 		emlViewer = cmd.getOptionValue(optionEmlViewer);
 		printHelp = cmd.hasOption("h");
 
@@ -185,18 +395,155 @@ public enum ArgsHandler {
 					optionAutoStart.getLongOpt(), optionBackgroundStart.getLongOpt());
 		}
 
+		Number parsedBufferThreshold = cmd.getParsedOptionValue(optionBufferThreshold);
+		if (parsedBufferThreshold != null) {
+			Configuration.getInstance().set(Settings.EMAILS_BUFFER_THRESHOLD, String.valueOf(parsedBufferThreshold.intValue()));
+		}
+
+		String durabilityValue = cmd.getOptionValue(optionDurability);
+		if (durabilityValue == null) {
+			durability = null;
+		} else {
+			try {
+				durability = Durability.valueOf(durabilityValue.trim().toUpperCase(Locale.ROOT));
+			} catch (IllegalArgumentException e) {
+				throw new ParseException("Invalid durability: " + durabilityValue);
+			}
+		}
+
+		String storeValue = cmd.getOptionValue(optionStore);
+		if (cmd.hasOption(optionMemoryMode)) {
+			if (storeValue != null) {
+				log.warn("Option '--{}' is ignored as option '--{}' was specified.",
+						optionStore.getLongOpt(), optionMemoryMode.getLongOpt());
+			}
+			storeType = StoreType.MEMORY;
+		} else if (storeValue == null) {
+			storeType = StoreType.FILES;
+		} else {
+			try {
+				storeType = StoreType.valueOf(storeValue.trim().toUpperCase(Locale.ROOT));
+			} catch (IllegalArgumentException e) {
+				throw new ParseException("Invalid store: " + storeValue);
+			}
+		}
+		memoryModeEnabled = storeType == StoreType.MEMORY;
+
 		// Change SMTP server log level to info if memory mode was enabled to improve performance
 		if (memoryModeEnabled) {
 			((Logger) LoggerFactory.getLogger(org.subethamail.smtp.server.Session.class)).setLevel(Level.INFO);
 		}
 
+		Number parsedMemoryMaxCount = cmd.getParsedOptionValue(optionMemoryMaxCount);
+		if (parsedMemoryMaxCount != null) {
+			if (parsedMemoryMaxCount.intValue() <= 0) {
+				throw new ParseException("Invalid maximum number of emails: " + parsedMemoryMaxCount);
+			}
+			Configuration.getInstance().set(Settings.EMAILS_MEMORY_MAX_COUNT, String.valueOf(parsedMemoryMaxCount.intValue()));
+		}
+		Number parsedMemoryMaxBytes = cmd.getParsedOptionValue(optionMemoryMaxBytes);
+		if (parsedMemoryMaxBytes != null) {
+			if (parsedMemoryMaxBytes.longValue() <= 0) {
+				throw new ParseException("Invalid maximum size of emails: " + parsedMemoryMaxBytes);
+			}
+			Configuration.getInstance().set(Settings.EMAILS_MEMORY_MAX_BYTES, String.valueOf(parsedMemoryMaxBytes.longValue()));
+		}
+		String evictionValue = cmd.getOptionValue(optionMemoryEviction);
+		if (evictionValue != null) {
+			try {
+				EvictionPolicy.valueOf(evictionValue.trim().toUpperCase(Locale.ROOT));
+			} catch (IllegalArgumentException e) {
+				throw new ParseException("Invalid eviction policy: " + evictionValue);
+			}
+			Configuration.getInstance().set(Settings.EMAILS_MEMORY_EVICTION, evictionValue.trim());
+		}
+
+		if (cmd.hasOption(optionMemoryOffHeap)) {
+			Configuration.getInstance().set(Settings.EMAILS_MEMORY_OFF_HEAP, "true");
+		}
+
+		String eventsOverflowValue = cmd.getOptionValue(optionEventsOverflow);
+		if (eventsOverflowValue != null) {
+			try {
+				OverflowPolicy.parse(eventsOverflowValue);
+			} catch (IllegalArgumentException e) {
+				throw new ParseException("Invalid events overflow policy: " + eventsOverflowValue);
+			}
+			Configuration.getInstance().set(Settings.EVENTS_OVERFLOW, eventsOverflowValue.trim());
+		}
+
+		String sessionThreadsValue = cmd.getOptionValue(optionSessionThreads);
+		if (sessionThreadsValue == null) {
+			sessionThreads = SessionThreads.PLATFORM;
+		} else {
+			try {
+				sessionThreads = SessionThreads.parse(sessionThreadsValue);
+			} catch (IllegalArgumentException e) {
+				throw new ParseException("Invalid session threads: " + sessionThreadsValue);
+			}
+		}
+		String engineValue = cmd.getOptionValue(optionEngine);
+		if (engineValue == null) {
+			engine = ServerEngine.BLOCKING;
+		} else {
+			try {
+				engine = ServerEngine.parse(engineValue);
+			} catch (IllegalArgumentException e) {
+				throw new ParseException("Invalid engine: " + engineValue);
+			}
+		}
+		Number parsedNioThreads = cmd.getParsedOptionValue(optionNioThreads);
+		if (parsedNioThreads != null) {
+			if (parsedNioThreads.intValue() < 0) {
+				throw new ParseException("Invalid number of event loops: " + parsedNioThreads);
+			}
+			Configuration.getInstance().set(Settings.SMTP_NIO_THREADS, String.valueOf(parsedNioThreads.intValue()));
+		}
+		Number parsedMaxSessions = cmd.getParsedOptionValue(optionMaxSessions);
+		if (parsedMaxSessions != null) {
+			if (parsedMaxSessions.intValue() <= 0) {
+				throw new ParseException("Invalid maximum number of sessions: " + parsedMaxSessions);
+			}
+			Configuration.getInstance().set(Settings.SMTP_MAX_SESSIONS, String.valueOf(parsedMaxSessions.intValue()));
+		}
+		Number parsedBacklog = cmd.getParsedOptionValue(optionBacklog);
+		if (parsedBacklog != null) {
+			if (parsedBacklog.intValue() <= 0) {
+				throw new ParseException("Invalid backlog: " + parsedBacklog);
+			}
+			Configuration.getInstance().set(Settings.SMTP_BACKLOG, String.valueOf(parsedBacklog.intValue()));
+		}
+		Number parsedConnectionTimeout = cmd.getParsedOptionValue(optionConnectionTimeout);
+		if (parsedConnectionTimeout != null) {
+			if (parsedConnectionTimeout.intValue() <= 0) {
+				throw new ParseException("Invalid connection timeout: " + parsedConnectionTimeout);
+			}
+			Configuration.getInstance().set(Settings.SMTP_CONNECTION_TIMEOUT, String.valueOf(parsedConnectionTimeout.intValue()));
+		}
+		Number parsedMaxMessageSize = cmd.getParsedOptionValue(optionMaxMessageSize);
+		if (parsedMaxMessageSize != null) {
+			// Not narrowed to an int, which is the type of the maximum size of SubEtha
+			long maxMessageSize = parsedMaxMessageSize.longValue();
+			if (maxMessageSize < 0 || maxMessageSize > Integer.MAX_VALUE) {
+				throw new ParseException("Invalid maximum message size: " + parsedMaxMessageSize);
+			}
+			Configuration.getInstance().set(Settings.SMTP_MAX_MESSAGE_SIZE, String.valueOf(maxMessageSize));
+		}
+		Number parsedMaxRecipients = cmd.getParsedOptionValue(optionMaxRecipients);
+		if (parsedMaxRecipients != null) {
+			if (parsedMaxRecipients.intValue() <= 0) {
+				throw new ParseException("Invalid maximum number of recipients: " + parsedMaxRecipients);
+			}
+			Configuration.getInstance().set(Settings.SMTP_MAX_RECIPIENTS, String.valueOf(parsedMaxRecipients.intValue()));
+		}
+
 		String[] relaydomains = cmd.getOptionValues(optionRelayDomains);
 		if (relaydomains != null) {
 			List<String> values = Stream.of(relaydomains)
 					.map(String::trim)
 					.filter(s -> !s.isBlank())
 					.toList();
-			UIModel.INSTANCE.setRelayDomains(values);
+			UIModel.INSTANCE.setRelayDomains(new DomainMatcher(values));
 		}
 
 		// Host binding for GUI
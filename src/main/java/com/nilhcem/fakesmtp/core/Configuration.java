@@ -36,7 +36,24 @@ public class Configuration {
 
 	public static class Settings {
 		public static final String SMTP_DEFAULT_PORT = "smtp.default.port";
+		public static final String SMTP_MAX_SESSIONS = "smtp.max.sessions";
+		public static final String SMTP_BACKLOG = "smtp.backlog";
+		public static final String SMTP_CONNECTION_TIMEOUT = "smtp.connection.timeout";
+		public static final String SMTP_MAX_MESSAGE_SIZE = "smtp.max.message.size";
+		public static final String SMTP_MAX_RECIPIENTS = "smtp.max.recipients";
+		public static final String SMTP_NIO_THREADS = "smtp.nio.threads";
 		public static final String EMAILS_DEFAULT_DIR = "emails.default.dir";
+		public static final String EMAILS_BUFFER_THRESHOLD = "emails.buffer.threshold";
+		public static final String EMAILS_WRITER_QUEUE_SIZE = "emails.writer.queue.size";
+		public static final String EMAILS_SEGMENT_SIZE = "emails.segment.size";
+		public static final String EMAILS_MEMORY_MAX_COUNT = "emails.memory.max.count";
+		public static final String EMAILS_MEMORY_MAX_BYTES = "emails.memory.max.bytes";
+		public static final String EMAILS_MEMORY_EVICTION = "emails.memory.eviction";
+		public static final String EMAILS_MEMORY_OFF_HEAP = "emails.memory.off.heap";
+		public static final String EVENTS_BUS_SIZE = "events.bus.size";
+		public static final String EVENTS_OVERFLOW = "events.overflow";
+		public static final String EVENTS_BLOCK_TIMEOUT = "events.block.timeout";
+		public static final String LOGS_MAX_LINES = "logs.max.lines";
 	}
 
 	/**
@@ -80,6 +97,36 @@ public class Configuration {
 		return "";
 	}
 
+	/**
+	 * Returns the value of a specific entry as an integer.
+	 *
+	 * @param key a string representing the key from a key/value couple.
+	 * @param defaultValue the value returned when the key is not found or is not a valid integer.
+	 * @return the value of the key, or the default value.
+	 */
+	public int getInt(String key, int defaultValue) {
+		try {
+			return Integer.parseInt(get(key).trim());
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * Returns the value of a specific entry as a long.
+	 *
+	 * @param key a string representing the key from a key/value couple.
+	 * @param defaultValue the value returned when the key is not found or is not a valid long.
+	 * @return the value of the key, or the default value.
+	 */
+	public long getLong(String key, long defaultValue) {
+		try {
+			return Long.parseLong(get(key).trim());
+		} catch (NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
 	/**
 	 * Sets the value of a specific entry.
 	 *
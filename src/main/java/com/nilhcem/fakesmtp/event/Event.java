@@ -0,0 +1,89 @@
+package com.nilhcem.fakesmtp.event;
+
+import com.nilhcem.fakesmtp.model.EmailModel;
+import lombok.Getter;
+import org.jspecify.annotations.Nullable;
+
+/**
+ * A slot of the {@link EventBus}.
+ * <p>
+ * Slots are allocated once, when the bus is created, and filled again each time the ring wraps around.
+ * Each subscription also has its own event, where the slots are copied before being handled:
+ * an event must not be kept by the handlers once they return.
+ * </p>
+ */
+public final class Event {
+
+	/**
+	 * The kinds of events.
+	 */
+	public enum Type {
+		/**
+		 * An email was received, see {@link #getEmail()}.
+		 */
+		MAIL_RECEIVED,
+		/**
+		 * The user cleared the received emails, up to {@link #getId()}. Never dropped.
+		 */
+		CLEARED,
+		/**
+		 * An email was evicted from the memory store, see {@link #getId()}. Never dropped, but may be handled before
+		 * the email itself.
+		 */
+		EVICTED,
+		/**
+		 * An SMTP log was written, see {@link #getMessage()} and {@link #getArguments()}.
+		 */
+		LOG
+	}
+
+	@Getter
+	private Type type = Type.CLEARED;
+	/**
+	 * When the event occurred, in milliseconds since the epoch.
+	 */
+	@Getter
+	private long timestamp;
+	@Getter
+	@Nullable
+	private EmailModel email;
+	/**
+	 * The log message, or its pattern if the event has arguments.
+	 */
+	@Getter
+	@Nullable
+	private String message;
+	/**
+	 * The arguments of the log message pattern, formatted by the handlers which display them.
+	 */
+	@Getter
+	private @Nullable Object @Nullable [] arguments;
+	/**
+	 * The identifier of the last cleared email (the emails with a greater identifier were received after the clear),
+	 * or of the evicted email.
+	 */
+	@Getter
+	private long id;
+
+	Event() {
+	}
+
+	void copyFrom(Event other) {
+		this.type = other.type;
+		this.timestamp = other.timestamp;
+		this.email = other.email;
+		this.message = other.message;
+		this.arguments = other.arguments;
+		this.id = other.id;
+	}
+
+	void set(Type type, long timestamp, @Nullable EmailModel email, @Nullable String message,
+			@Nullable Object @Nullable [] arguments, long id) {
+		this.type = type;
+		this.timestamp = timestamp;
+		this.email = email;
+		this.message = message;
+		this.arguments = arguments;
+		this.id = id;
+	}
+}
@@ -0,0 +1,596 @@
+package com.nilhcem.fakesmtp.event;
+
+import com.nilhcem.fakesmtp.core.Configuration;
+import com.nilhcem.fakesmtp.core.Configuration.Settings;
+import com.nilhcem.fakesmtp.event.Event.Type;
+import com.nilhcem.fakesmtp.model.EmailModel;
+import org.jspecify.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends the events of the application (received and evicted emails, clears and SMTP logs) to the subscribed handlers.
+ * <p>
+ * The events are written in a ring of preallocated {@link Event} slots, so publishing an event allocates nothing
+ * and never takes a lock: a publisher claims the next sequence number, takes its slot, fills it and marks it
+ * as published.<br>
+ * Each subscription has its own thread and its own cursor in the ring: a slow handler doesn't delay the other ones,
+ * and all the events available when a handler wakes up are handled as a single batch.
+ * </p>
+ * <p>
+ * What happens when a subscription falls so far behind that the ring is full depends on its {@link OverflowPolicy}.
+ * Publishers only wait for the subscriptions with the {@link OverflowPolicy#BLOCK} policy, and never longer than
+ * the timeout of the bus, and the SMTP logs never wait. Each subscription counts the events it missed.
+ * </p>
+ * <p>
+ * The clears and the evicted emails are never dropped, whatever the policy: they aren't written in the ring,
+ * but kept by each subscription until its thread handles them, after the events of the ring published before.
+ * An evicted email may still be handled before the email itself, if both are published meanwhile.
+ * </p>
+ */
+public final class EventBus {
+
+	private static final Logger log = LoggerFactory.getLogger(EventBus.class);
+
+	private static final int DEFAULT_CAPACITY = 4096;
+	private static final long DEFAULT_BLOCK_TIMEOUT_MILLIS = 100;
+	/**
+	 * Maximum time a waiting subscription sleeps, in case a wake-up was missed.
+	 */
+	private static final long MAX_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+	private static final long FULL_RING_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(10);
+	private static final long DROP_REPORT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+	/**
+	 * Round of a slot which is being written.
+	 */
+	private static final int WRITING = -2;
+	/**
+	 * Identifier of the last cleared email, as long as nothing was cleared.
+	 */
+	private static final long NOT_CLEARED = Long.MIN_VALUE;
+
+	@Nullable
+	private static volatile EventBus instance;
+	@Nullable
+	private static volatile EventBus logInstance;
+
+	private final Event[] slots;
+	private final int mask;
+	private final int shift;
+	private final long blockTimeoutNanos;
+	/**
+	 * Round of the last event published in each slot ({@code sequence / capacity}), set once the slot is filled.
+	 */
+	private final AtomicIntegerArray published;
+	private final AtomicLong claimed = new AtomicLong(-1);
+	/**
+	 * Copied on each change, so publishers iterate over them without allocating.
+	 */
+	private volatile Subscription[] subscriptions = new Subscription[0];
+	private volatile Subscription[] gatingSubscriptions = new Subscription[0];
+	/**
+	 * Lowest sequence handled by all the gating subscriptions, last time it was computed.
+	 */
+	private volatile long gatingSequence = -1;
+
+	/**
+	 * Creates an event bus, whose publishers wait at most 100 ms for the blocking subscriptions.
+	 *
+	 * @param capacity the number of slots of the ring, which must be a power of 2.
+	 */
+	public EventBus(int capacity) {
+		this(capacity, DEFAULT_BLOCK_TIMEOUT_MILLIS);
+	}
+
+	/**
+	 * Creates an event bus.
+	 *
+	 * @param capacity the number of slots of the ring, which must be a power of 2.
+	 * @param blockTimeoutMillis how long publishers wait for the {@link OverflowPolicy#BLOCK blocking} subscriptions
+	 *                           when the ring is full, before dropping the event.
+	 */
+	public EventBus(int capacity, long blockTimeoutMillis) {
+		if (capacity <= 0 || Integer.bitCount(capacity) != 1) {
+			throw new IllegalArgumentException("Capacity must be a power of 2: " + capacity);
+		}
+		slots = new Event[capacity];
+		for (int i = 0; i < capacity; i++) {
+			slots[i] = new Event();
+		}
+		mask = capacity - 1;
+		shift = Integer.numberOfTrailingZeros(capacity);
+		blockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, blockTimeoutMillis));
+		published = new AtomicIntegerArray(capacity);
+		for (int i = 0; i < capacity; i++) {
+			published.set(i, -1);
+		}
+	}
+
+	/**
+	 * Returns the event bus of the application, creating it the first time.
+	 * <p>
+	 * Its capacity and blocking timeout are defined by the {@code events.bus.size} and {@code events.block.timeout} settings.
+	 * </p>
+	 *
+	 * @return the event bus of the received emails and the clears.
+	 */
+	public static EventBus getInstance() {
+		EventBus bus = instance;
+		if (bus == null) {
+			synchronized (EventBus.class) {
+				bus = instance;
+				if (bus == null) {
+					bus = create();
+					instance = bus;
+				}
+			}
+		}
+		return bus;
+	}
+
+	/**
+	 * Returns the event bus of the SMTP logs, creating it the first time.
+	 * <p>
+	 * The logs have their own ring, with the same capacity as the {@link #getInstance() main bus}:
+	 * a burst of logs never overwrites the received emails and the clears.
+	 * </p>
+	 *
+	 * @return the event bus of the SMTP logs.
+	 */
+	public static EventBus getLogInstance() {
+		EventBus bus = logInstance;
+		if (bus == null) {
+			synchronized (EventBus.class) {
+				bus = logInstance;
+				if (bus == null) {
+					bus = create();
+					logInstance = bus;
+				}
+			}
+		}
+		return bus;
+	}
+
+	private static EventBus create() {
+		Configuration configuration = Configuration.getInstance();
+		int capacity = configuration.getInt(Settings.EVENTS_BUS_SIZE, DEFAULT_CAPACITY);
+		return new EventBus(Integer.highestOneBit(Math.max(capacity, 2)),
+				configuration.getLong(Settings.EVENTS_BLOCK_TIMEOUT, DEFAULT_BLOCK_TIMEOUT_MILLIS));
+	}
+
+	/**
+	 * Publishes a received email.
+	 *
+	 * @param email the received email.
+	 */
+	public void publishMail(EmailModel email) {
+		publish(Type.MAIL_RECEIVED, System.currentTimeMillis(), email, null, null, 0, true);
+	}
+
+	/**
+	 * Publishes that the user cleared the received emails.
+	 * <p>
+	 * Never dropped: if a subscription didn't handle the previous clear yet, it only handles the latest one.
+	 * </p>
+	 *
+	 * @param lastId the identifier of the last cleared email, the emails received meanwhile being kept.
+	 */
+	public void publishCleared(long lastId) {
+		for (Subscription subscription : subscriptions) {
+			subscription.clearedUpTo.accumulateAndGet(lastId, Math::max);
+			subscription.wakeUp();
+		}
+	}
+
+	/**
+	 * Publishes that an email was evicted from the memory store.
+	 * <p>
+	 * Never dropped, the evicted emails being queued by each subscription until it handles them.
+	 * </p>
+	 *
+	 * @param id the identifier of the evicted email.
+	 */
+	public void publishEvicted(long id) {
+		for (Subscription subscription : subscriptions) {
+			subscription.evicted.add(id);
+			subscription.wakeUp();
+		}
+	}
+
+	/**
+	 * Publishes an SMTP log.
+	 *
+	 * @param timestamp when the log was written, in milliseconds since the epoch.
+	 * @param message the formatted log message.
+	 */
+	public void publishLog(long timestamp, String message) {
+		publish(Type.LOG, timestamp, null, message, null, 0, true);
+	}
+
+	/**
+	 * Publishes an SMTP log if there is room for it, without waiting for any subscription.
+	 * <p>
+	 * The message isn't formatted by the publisher: the arguments are kept as is, and must not be modified afterward.
+	 * If the ring is full, the log is dropped and counted as missed by all the subscriptions.
+	 * </p>
+	 *
+	 * @param timestamp when the log was written, in milliseconds since the epoch.
+	 * @param pattern the log message pattern, with {@code {}} placeholders.
+	 * @param arguments the arguments of the pattern, or {@code null} if it has none.
+	 */
+	public void offerLog(long timestamp, String pattern, @Nullable Object @Nullable [] arguments) {
+		publish(Type.LOG, timestamp, null, pattern, arguments, 0, false);
+	}
+
+	/**
+	 * Subscribes a handler, with the overflow policy defined by the {@code events.overflow} setting.
+	 *
+	 * @param name the name of the subscription, used to name its thread.
+	 * @param handler the event handler.
+	 * @return the subscription, to close once the events are not needed anymore.
+	 * @see #subscribe(String, OverflowPolicy, EventHandler)
+	 */
+	public Subscription subscribe(String name, EventHandler handler) {
+		String policy = Configuration.getInstance().get(Settings.EVENTS_OVERFLOW);
+		return subscribe(name, policy.isBlank() ? OverflowPolicy.DROP_OLDEST : OverflowPolicy.parse(policy), handler);
+	}
+
+	/**
+	 * Subscribes a handler, which will receive the events published from now on, in its own thread.
+	 *
+	 * @param name the name of the subscription, used to name its thread.
+	 * @param policy what happens when the subscription falls behind.
+	 * @param handler the event handler.
+	 * @return the subscription, to close once the events are not needed anymore.
+	 */
+	public synchronized Subscription subscribe(String name, OverflowPolicy policy, EventHandler handler) {
+		Subscription subscription = new Subscription(name, policy, handler, claimed.get());
+		subscriptions = append(subscriptions, subscription);
+		if (policy.isGating()) {
+			gatingSubscriptions = append(gatingSubscriptions, subscription);
+		}
+		subscription.thread.start();
+		return subscription;
+	}
+
+	private synchronized void unsubscribe(Subscription subscription) {
+		subscriptions = remove(subscriptions, subscription);
+		gatingSubscriptions = remove(gatingSubscriptions, subscription);
+	}
+
+	private static Subscription[] append(Subscription[] array, Subscription subscription) {
+		Subscription[] result = Arrays.copyOf(array, array.length + 1);
+		result[array.length] = subscription;
+		return result;
+	}
+
+	private static Subscription[] remove(Subscription[] array, Subscription subscription) {
+		return Arrays.stream(array)
+				.filter(s -> s != subscription)
+				.toArray(Subscription[]::new);
+	}
+
+	private void publish(Type type, long timestamp, @Nullable EmailModel email, @Nullable String message,
+			@Nullable Object @Nullable [] arguments, long id, boolean mayWait) {
+		long sequence = claim(mayWait);
+		if (sequence < 0) {
+			// No room for the event: all the subscriptions miss it
+			for (Subscription subscription : subscriptions) {
+				subscription.dropped.increment();
+			}
+			return;
+		}
+		if (!acquire(sequence)) {
+			// Overwritten before being published: the subscriptions count it as missed when they skip it
+			return;
+		}
+
+		int index = (int) sequence & mask;
+		slots[index].set(type, timestamp, email, message, arguments, id);
+		// Volatile write, ordered with the read of the waiting flags below, so no wake-up is missed
+		published.set(index, (int) (sequence >>> shift));
+
+		for (Subscription subscription : subscriptions) {
+			subscription.wakeUp();
+		}
+	}
+
+	/**
+	 * Takes the slot of a claimed sequence, before filling it.
+	 * <p>
+	 * Without gating subscription, the ring may wrap around while the previous publisher of the slot is still
+	 * filling it: the slot is taken once that publisher is done, so two publishers never fill it together.
+	 * The subscriptions which may be reading the slot notice it is overwritten.
+	 * </p>
+	 *
+	 * @return {@code false} if a later sequence already took the slot, so this event is dropped.
+	 */
+	private boolean acquire(long sequence) {
+		int index = (int) sequence & mask;
+		int round = (int) (sequence >>> shift);
+		while (true) {
+			int current = published.get(index);
+			if (current == WRITING) {
+				Thread.onSpinWait();
+			} else if (current >= round) {
+				return false;
+			} else if (published.compareAndSet(index, current, WRITING)) {
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Claims the next sequence, if its slot was handled by all the gating subscriptions.
+	 *
+	 * @param mayWait whether to wait for the blocking subscriptions, up to the timeout of the bus.
+	 * @return the claimed sequence, or {@code -1} if the event must be dropped.
+	 */
+	private long claim(boolean mayWait) {
+		long deadline = 0;
+		while (true) {
+			long current = claimed.get();
+			long next = current + 1;
+			long wrapPoint = next - slots.length;
+			if (wrapPoint > gatingSequence) {
+				long gating = minGatingSequence();
+				// Without gating subscriptions, the minimum is unbounded: the ring simply wraps around,
+				// the slots still being filled being waited for by acquire()
+				gatingSequence = Math.min(gating, current);
+				if (wrapPoint > gating) {
+					if (!mayWait || !isBlockedBy(wrapPoint)) {
+						if (minGatingSequence() >= wrapPoint) {
+							// The subscriptions freed the slot since the minimum was computed
+							continue;
+						}
+						return -1;
+					}
+					long now = System.nanoTime();
+					if (deadline == 0) {
+						deadline = now + blockTimeoutNanos;
+					} else if (now - deadline >= 0) {
+						return -1;
+					}
+					LockSupport.parkNanos(FULL_RING_PARK_NANOS);
+					continue;
+				}
+			}
+			if (claimed.compareAndSet(current, next)) {
+				return next;
+			}
+		}
+	}
+
+	private long minGatingSequence() {
+		long min = Long.MAX_VALUE;
+		for (Subscription subscription : gatingSubscriptions) {
+			min = Math.min(min, subscription.sequence);
+		}
+		return min;
+	}
+
+	/**
+	 * @return whether a subscription which didn't handle the given sequence yet has the {@link OverflowPolicy#BLOCK} policy.
+	 */
+	private boolean isBlockedBy(long wrapPoint) {
+		if (blockTimeoutNanos == 0) {
+			return false;
+		}
+		for (Subscription subscription : gatingSubscriptions) {
+			if (subscription.policy == OverflowPolicy.BLOCK && subscription.sequence < wrapPoint) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean isPublished(long sequence) {
+		return published.get((int) sequence & mask) == (int) (sequence >>> shift);
+	}
+
+	/**
+	 * A handler subscribed to the bus, with its thread and its cursor.
+	 */
+	public final class Subscription implements AutoCloseable {
+
+		private final String name;
+		private final OverflowPolicy policy;
+		private final EventHandler handler;
+		private final Thread thread;
+		/**
+		 * The slots are copied in this event before being handled, and checked afterward: if a slot was overwritten
+		 * meanwhile, the copy is discarded.
+		 */
+		private final Event event = new Event();
+		private final LongAdder dropped = new LongAdder();
+		/**
+		 * The last clear and the evicted emails, published out of the ring.
+		 */
+		private final AtomicLong clearedUpTo = new AtomicLong(NOT_CLEARED);
+		private final Queue<Long> evicted = new ConcurrentLinkedQueue<>();
+		private long handledClear = NOT_CLEARED;
+		/**
+		 * Sequence of the last handled event.
+		 */
+		private volatile long sequence;
+		private volatile boolean waiting;
+		private volatile boolean closed;
+
+		private Subscription(String name, OverflowPolicy policy, EventHandler handler, long sequence) {
+			this.name = name;
+			this.policy = policy;
+			this.handler = handler;
+			this.sequence = sequence;
+			this.thread = new Thread(this::run, "fakesmtp-events-" + name);
+			thread.setDaemon(true);
+		}
+
+		/**
+		 * @return the overflow policy of this subscription.
+		 */
+		public OverflowPolicy getPolicy() {
+			return policy;
+		}
+
+		/**
+		 * @return the number of events published but not handled yet by this subscription.
+		 */
+		public long getLag() {
+			return Math.max(0, claimed.get() - sequence);
+		}
+
+		/**
+		 * @return the number of events this subscription missed, because it was too far behind.
+		 */
+		public long getDropped() {
+			return dropped.sum();
+		}
+
+		/**
+		 * Stops handling events, and frees the slots this subscription didn't handle yet.
+		 */
+		@Override
+		public void close() {
+			closed = true;
+			unsubscribe(this);
+			LockSupport.unpark(thread);
+		}
+
+		private void run() {
+			long next = sequence + 1;
+			long reportedDrops = 0;
+			long lastReport = System.nanoTime();
+			while (!closed) {
+				if (!policy.isGating()) {
+					// Skip the events which were overwritten
+					long oldest = claimed.get() - slots.length + 1;
+					if (next < oldest) {
+						dropped.add(oldest - next);
+						next = oldest;
+					}
+				}
+
+				// Read before the ring, so the events published before the clear are handled before it
+				long cleared = clearedUpTo.get();
+				long available = next;
+				long end = next + slots.length;
+				while (available < end && isPublished(available)) {
+					available++;
+				}
+				boolean inRing = available > next;
+				if (inRing) {
+					next = handle(next, available);
+					sequence = next - 1;
+				}
+				if (!handleControlEvents(cleared) && !inRing) {
+					await(next);
+					continue;
+				}
+
+				long drops = dropped.sum();
+				if (drops > reportedDrops && System.nanoTime() - lastReport >= DROP_REPORT_INTERVAL_NANOS) {
+					log.warn("Events subscription '{}' is falling behind: {} events dropped so far", name, drops);
+					reportedDrops = drops;
+					lastReport = System.nanoTime();
+				}
+			}
+		}
+
+		/**
+		 * Handles a batch of events, only the last log of the batch with the {@link OverflowPolicy#COALESCE} policy.
+		 *
+		 * @return the sequence following the last handled event.
+		 */
+		private long handle(long from, long to) {
+			long lastLog = policy == OverflowPolicy.COALESCE ? lastLog(from, to) : -1;
+			for (long s = from; s < to; s++) {
+				event.copyFrom(slots[(int) s & mask]);
+				// The copy must be complete before checking the slot wasn't overwritten meanwhile
+				VarHandle.loadLoadFence();
+				if (!isPublished(s)) {
+					return s;
+				}
+				if (s < lastLog && event.getType() == Type.LOG) {
+					dropped.increment();
+					continue;
+				}
+				try {
+					handler.onEvent(event, s == to - 1);
+				} catch (RuntimeException e) {
+					log.error("Error while handling event #{}", s, e);
+				}
+			}
+			return to;
+		}
+
+		/**
+		 * Handles the clear and the evicted emails published out of the ring, if any, each set of them as a batch.
+		 *
+		 * @param cleared the identifier of the last cleared email, read before the events of the ring.
+		 * @return whether anything was handled.
+		 */
+		private boolean handleControlEvents(long cleared) {
+			Long id = evicted.poll();
+			if (cleared == handledClear && id == null) {
+				return false;
+			}
+			if (cleared != handledClear) {
+				handledClear = cleared;
+				event.set(Type.CLEARED, System.currentTimeMillis(), null, null, null, cleared);
+				handleControlEvent(id == null);
+			}
+			while (id != null) {
+				Long nextId = evicted.poll();
+				event.set(Type.EVICTED, System.currentTimeMillis(), null, null, null, id);
+				handleControlEvent(nextId == null);
+				id = nextId;
+			}
+			return true;
+		}
+
+		private void handleControlEvent(boolean endOfBatch) {
+			try {
+				handler.onEvent(event, endOfBatch);
+			} catch (RuntimeException e) {
+				log.error("Error while handling {} event", event.getType(), e);
+			}
+		}
+
+		/**
+		 * @return the sequence of the last log of a batch, or {@code -1} if it has none. The slots aren't copied,
+		 * so it may be wrong if the slots are overwritten meanwhile: only the checked copies are skipped.
+		 */
+		private long lastLog(long from, long to) {
+			for (long s = to - 1; s >= from; s--) {
+				if (slots[(int) s & mask].getType() == Type.LOG) {
+					return s;
+				}
+			}
+			return -1;
+		}
+
+		private void await(long next) {
+			waiting = true;
+			if (!isPublished(next) && clearedUpTo.get() == handledClear && evicted.isEmpty() && !closed) {
+				LockSupport.parkNanos(this, MAX_PARK_NANOS);
+			}
+			waiting = false;
+		}
+
+		private void wakeUp() {
+			if (waiting) {
+				LockSupport.unpark(thread);
+			}
+		}
+	}
+}
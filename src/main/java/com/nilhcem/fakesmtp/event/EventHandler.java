@@ -0,0 +1,20 @@
+package com.nilhcem.fakesmtp.event;
+
+/**
+ * Handles the events of an {@link EventBus}, in the order they were published.
+ */
+@FunctionalInterface
+public interface EventHandler {
+
+	/**
+	 * Handles an event.
+	 * <p>
+	 * Called by the thread of the subscription, never concurrently. Must not publish in the same bus.
+	 * </p>
+	 *
+	 * @param event the event, which must not be kept once this method returns.
+	 * @param endOfBatch whether this is the last of the events which were available together, so handlers
+	 *                   can wait for it to refresh their view once for the whole batch.
+	 */
+	void onEvent(Event event, boolean endOfBatch);
+}
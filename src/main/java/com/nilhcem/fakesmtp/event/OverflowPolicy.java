@@ -0,0 +1,55 @@
+package com.nilhcem.fakesmtp.event;
+
+import java.util.Locale;
+
+/**
+ * What happens when a subscription of the {@link EventBus} falls so far behind that the ring is full.
+ * <p>
+ * Except with {@link #BLOCK}, publishers never wait for the subscriptions: a frozen view never slows down
+ * the SMTP sessions.
+ * </p>
+ */
+public enum OverflowPolicy {
+	/**
+	 * Publishers wait for the subscription to free a slot, up to a timeout, then drop the new event.
+	 */
+	BLOCK(true),
+	/**
+	 * The oldest events are overwritten, and the subscription skips them.
+	 */
+	DROP_OLDEST(false),
+	/**
+	 * The new events are dropped until the subscription frees a slot.
+	 */
+	DROP_NEWEST(true),
+	/**
+	 * The subscription only handles the latest of the SMTP logs available at once, skipping the older ones,
+	 * the other events being all handled. Otherwise, the oldest events are overwritten like with {@link #DROP_OLDEST}.
+	 * Meant for views which only display the latest log.
+	 */
+	COALESCE(false);
+
+	private final boolean gating;
+
+	OverflowPolicy(boolean gating) {
+		this.gating = gating;
+	}
+
+	/**
+	 * @return whether the slots must be kept until the subscription handled them, instead of being overwritten.
+	 */
+	boolean isGating() {
+		return gating;
+	}
+
+	/**
+	 * Parses a policy name, such as {@code drop-oldest}.
+	 *
+	 * @param value the name of the policy, case-insensitive, with hyphens or underscores.
+	 * @return the policy.
+	 * @throws IllegalArgumentException if the name isn't a policy.
+	 */
+	public static OverflowPolicy parse(String value) {
+		return valueOf(value.trim().replace('-', '_').toUpperCase(Locale.ROOT));
+	}
+}
@@ -0,0 +1,7 @@
+/**
+ * Provides the event bus through which the received emails, the clears and the SMTP logs are sent to the GUI.
+ */
+@NullMarked
+package com.nilhcem.fakesmtp.event;
+
+import org.jspecify.annotations.NullMarked;
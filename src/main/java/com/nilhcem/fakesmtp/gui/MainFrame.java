@@ -107,9 +107,8 @@ public final class MainFrame {
 			log.error("Could not save configuration", ex);
 		}
 		// Check for SMTP server running and stop it
-		if (SMTPServerHandler.INSTANCE.getSmtpServer() != null
-				&& SMTPServerHandler.INSTANCE.getSmtpServer().isRunning()) {
-			SMTPServerHandler.INSTANCE.getSmtpServer().stop();
+		if (SMTPServerHandler.INSTANCE.isRunning()) {
+			SMTPServerHandler.INSTANCE.stopServer();
 		}
 
 		mainFrame.dispose();
@@ -2,17 +2,16 @@ package com.nilhcem.fakesmtp.gui;
 
 import com.nilhcem.fakesmtp.core.ArgsHandler;
 import com.nilhcem.fakesmtp.core.I18n;
+import com.nilhcem.fakesmtp.event.EventBus;
 import com.nilhcem.fakesmtp.gui.info.ClearAllButton;
 import com.nilhcem.fakesmtp.gui.info.NbReceivedLabel;
 import com.nilhcem.fakesmtp.gui.info.PortTextField;
 import com.nilhcem.fakesmtp.gui.info.SaveMsgField;
 import com.nilhcem.fakesmtp.gui.info.StartServerButton;
-import com.nilhcem.fakesmtp.gui.reactive.ConsumerSubscriber;
 import com.nilhcem.fakesmtp.gui.tab.LastMailPane;
 import com.nilhcem.fakesmtp.gui.tab.LogsPane;
 import com.nilhcem.fakesmtp.gui.tab.MailsListPane;
-import com.nilhcem.fakesmtp.server.MailSaver;
-import com.nilhcem.fakesmtp.server.SMTPServerHandler;
+import com.nilhcem.fakesmtp.store.MailStore.Capability;
 import lombok.Getter;
 import net.miginfocom.swing.MigLayout;
 
@@ -99,8 +98,9 @@ public final class MainPanel {
 	 *   <li>Open the directory chooser when clicking on the menu/the save message field;</li>
 	 *   <li>Enable/Disable the port field when the server starts;</li>
 	 *   <li>Set the new directory, once a folder is selected;<li>
-	 *   <li>Notify components when a message is received;</li>
-	 *   <li>Notify components when the user wants to clear them all.</li>
+	 *   <li>Notify components when a message is received, through the {@link EventBus};</li>
+	 *   <li>Notify components when the user wants to clear them all, through the {@link EventBus};</li>
+	 *   <li>Display the SMTP logs, received through the {@link EventBus}.</li>
 	 * </ul>
 	 * </p>
 	 *
@@ -120,20 +120,11 @@ public final class MainPanel {
 		// Once we chose a directory
 		dirChooser.addObserver(saveMsgTextField);
 
-		// When a message is received
-		MailSaver mailSaver = SMTPServerHandler.INSTANCE.getMailSaver();
-		mailSaver.getEmailPublisher().subscribe(new ConsumerSubscriber<>(emailModel -> {
-			nbReceivedLabel.onNewMail(emailModel);
-			mailsListPane.onNewMail(emailModel);
-			lastMailPane.onNewMail(emailModel);
-			clearAll.onNewMail(emailModel);
-		}));
-
-		// When we click on "clear all"
-		clearAll.addObserver(nbReceivedLabel);
-		clearAll.addObserver(mailsListPane);
-		clearAll.addObserver(logsPane);
-		clearAll.addObserver(lastMailPane);
+		// When a message is received, when we click on "clear all", or when an SMTP log is written
+		// (the components are refreshed at most once per frame, the logs having their own bus)
+		UpdateCoalescer coalescer = new UpdateCoalescer(nbReceivedLabel, mailsListPane, lastMailPane, logsPane, clearAll);
+		EventBus.getInstance().subscribe("gui", coalescer);
+		EventBus.getLogInstance().subscribe("gui-logs", coalescer);
 	}
 
 	/**
@@ -181,7 +172,7 @@ public final class MainPanel {
 			startServerBtn.toggleButton();
 		}
 
-		if (args.isMemoryModeEnabled()) {
+		if (!args.getStoreType().has(Capability.PERSISTENT)) {
 			saveMsgTextField.get().setEnabled(false);
 		}
 	}
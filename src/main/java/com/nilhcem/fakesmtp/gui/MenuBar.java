@@ -4,6 +4,7 @@ import com.nilhcem.fakesmtp.core.ArgsHandler;
 import com.nilhcem.fakesmtp.core.I18n;
 import com.nilhcem.fakesmtp.gui.listeners.AboutActionListener;
 import com.nilhcem.fakesmtp.gui.listeners.ExitActionListener;
+import com.nilhcem.fakesmtp.store.MailStore.Capability;
 
 import javax.swing.JMenu;
 import javax.swing.JMenuBar;
@@ -78,7 +79,7 @@ public final class MenuBar extends Observable {
 
 		JMenuItem mailsLocation = new JMenuItem(i18n.get("menubar.messages.location"));
 		mailsLocation.setMnemonic(i18n.get("menubar.mnemo.msglocation").charAt(0));
-		if (ArgsHandler.INSTANCE.isMemoryModeEnabled()) {
+		if (!ArgsHandler.INSTANCE.getStoreType().has(Capability.PERSISTENT)) {
 			mailsLocation.setEnabled(false);
 		} else {
 			mailsLocation.addActionListener(e -> {
@@ -0,0 +1,163 @@
+package com.nilhcem.fakesmtp.gui;
+
+import com.nilhcem.fakesmtp.event.Event;
+import com.nilhcem.fakesmtp.event.EventHandler;
+import com.nilhcem.fakesmtp.gui.info.ClearAllButton;
+import com.nilhcem.fakesmtp.gui.info.NbReceivedLabel;
+import com.nilhcem.fakesmtp.gui.tab.LastMailPane;
+import com.nilhcem.fakesmtp.gui.tab.LogLine;
+import com.nilhcem.fakesmtp.gui.tab.LogsPane;
+import com.nilhcem.fakesmtp.gui.tab.MailsListPane;
+import com.nilhcem.fakesmtp.model.EmailModel;
+
+import javax.swing.Timer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Collects the events of the bus, and applies them to the components of the main panel at most once per frame.
+ * <p>
+ * The events are prepared in the threads of the subscriptions to the buses of the emails and of the logs
+ * (rows and dates formatting),
+ * then applied in a single pass of the event dispatch thread: each component is refreshed once for all the
+ * emails and logs received during the frame, however many they are, so the GUI stays responsive at any rate.
+ * </p>
+ */
+final class UpdateCoalescer implements EventHandler {
+
+	private static final int FRAME_MILLIS = 16;
+
+	private final NbReceivedLabel nbReceivedLabel;
+	private final MailsListPane mailsListPane;
+	private final LastMailPane lastMailPane;
+	private final LogsPane logsPane;
+	private final ClearAllButton clearAll;
+
+	private final Object lock = new Object();
+	/**
+	 * The updates collected since the last frame, guarded by the lock.
+	 */
+	private Updates pending = new Updates();
+	/**
+	 * The identifier of the last cleared email, guarded by the lock: the evicted emails aren't published in order,
+	 * so those already cleared may come after the clear.
+	 */
+	private long clearedUpTo = Long.MIN_VALUE;
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+	private final Timer timer;
+
+	UpdateCoalescer(NbReceivedLabel nbReceivedLabel, MailsListPane mailsListPane, LastMailPane lastMailPane,
+			LogsPane logsPane, ClearAllButton clearAll) {
+		this.nbReceivedLabel = nbReceivedLabel;
+		this.mailsListPane = mailsListPane;
+		this.lastMailPane = lastMailPane;
+		this.logsPane = logsPane;
+		this.clearAll = clearAll;
+
+		timer = new Timer(FRAME_MILLIS, e -> flush());
+		timer.setRepeats(false);
+	}
+
+	/**
+	 * Prepares an event, in the thread of the subscription, and schedules the next frame at the end of a batch.
+	 */
+	@Override
+	public void onEvent(Event event, boolean endOfBatch) {
+		switch (event.getType()) {
+			case MAIL_RECEIVED -> {
+				EmailModel email = event.getEmail();
+				MailsListPane.Row row = mailsListPane.prepareRow(email);
+				synchronized (lock) {
+					pending.rows.add(row);
+					pending.lastEmail = email;
+				}
+			}
+			case CLEARED -> {
+				// What was received before is cleared anyway, only the emails received while clearing are kept
+				long lastId = event.getId();
+				synchronized (lock) {
+					clearedUpTo = Math.max(clearedUpTo, lastId);
+					Updates updates = new Updates();
+					updates.cleared = true;
+					updates.clearedUpTo = pending.cleared ? Math.max(pending.clearedUpTo, lastId) : lastId;
+					for (MailsListPane.Row row : pending.rows) {
+						if (row.email().id() > lastId) {
+							updates.rows.add(row);
+							updates.lastEmail = row.email();
+						}
+					}
+					for (long id : pending.evicted) {
+						if (id > lastId) {
+							updates.evicted.add(id);
+						}
+					}
+					pending = updates;
+				}
+			}
+			case EVICTED -> {
+				synchronized (lock) {
+					if (event.getId() > clearedUpTo) {
+						pending.evicted.add(event.getId());
+					}
+				}
+			}
+			case LOG -> {
+				// Formatted by the logs pane, only if displayed
+				LogLine line = new LogLine(event.getTimestamp(), event.getMessage(), event.getArguments());
+				synchronized (lock) {
+					pending.logs.add(line);
+				}
+			}
+		}
+		if (endOfBatch && scheduled.compareAndSet(false, true)) {
+			timer.restart();
+		}
+	}
+
+	/**
+	 * Applies the pending updates, in the event dispatch thread.
+	 */
+	private void flush() {
+		scheduled.set(false);
+		Updates updates;
+		synchronized (lock) {
+			updates = pending;
+			pending = new Updates();
+		}
+
+		if (updates.cleared) {
+			int remaining = mailsListPane.onCleared(updates.clearedUpTo);
+			nbReceivedLabel.onCleared(remaining);
+			logsPane.onCleared();
+			lastMailPane.onCleared(updates.clearedUpTo);
+			clearAll.onCleared(remaining);
+		}
+		if (updates.lastEmail != null) {
+			nbReceivedLabel.onNewMails(updates.rows.size());
+			mailsListPane.addRows(updates.rows);
+			lastMailPane.onNewMail(updates.lastEmail);
+			clearAll.onNewMail(updates.lastEmail);
+		}
+		mailsListPane.removeEvicted(updates.evicted);
+		logsPane.appendLogs(updates.logs);
+	}
+
+	/**
+	 * The updates collected during a frame.
+	 */
+	private static final class Updates {
+		private boolean cleared;
+		/**
+		 * The identifier of the last cleared email, if cleared.
+		 */
+		private long clearedUpTo;
+		private final List<MailsListPane.Row> rows = new ArrayList<>();
+		/**
+		 * The emails evicted from the memory store, removed once the rows are added.
+		 */
+		private final List<Long> evicted = new ArrayList<>();
+		private EmailModel lastEmail;
+		private final List<LogLine> logs = new ArrayList<>();
+	}
+}
@@ -2,11 +2,12 @@ package com.nilhcem.fakesmtp.gui.info;
 
 import com.nilhcem.fakesmtp.core.Configuration;
 import com.nilhcem.fakesmtp.core.I18n;
+import com.nilhcem.fakesmtp.event.EventBus;
 import com.nilhcem.fakesmtp.model.EmailModel;
+import com.nilhcem.fakesmtp.server.MailSaver;
 import com.nilhcem.fakesmtp.server.SMTPServerHandler;
 
 import javax.swing.*;
-import java.util.Observable;
 
 /**
  * Button to clear all the information from the main panel.
@@ -18,7 +19,7 @@ import java.util.Observable;
  * @author Nilhcem
  * @since 1.0
  */
-public final class ClearAllButton extends Observable {
+public final class ClearAllButton {
 
 	private final I18n i18n = I18n.INSTANCE;
 	private final JButton button = new JButton(i18n.get("clearall.button"));
@@ -41,15 +42,12 @@ public final class ClearAllButton extends Observable {
 				return;
 			}
 
-			synchronized (SMTPServerHandler.INSTANCE.getMailSaver().getLock()) {
-				// Note: Should delete emails before calling observers, since observers will clean the model.
-				if (answer == JOptionPane.YES_OPTION) {
-					SMTPServerHandler.INSTANCE.getMailSaver().deleteEmails();
-				}
-				setChanged();
-				notifyObservers();
-				button.setEnabled(false);
-			}
+			// Note: Should delete emails before publishing the event, since the components will clean the model.
+			// Emails received meanwhile are not blocked: they are simply kept, by the store and by the components.
+			MailSaver saver = SMTPServerHandler.INSTANCE.getMailSaver();
+			long lastId = answer == JOptionPane.YES_OPTION ? saver.deleteEmails() : saver.lastSavedId();
+			EventBus.getInstance().publishCleared(lastId);
+			button.setEnabled(false);
 		});
 		button.setEnabled(false);
 	}
@@ -69,4 +67,13 @@ public final class ClearAllButton extends Observable {
 		}
 	}
 
+	/**
+	 * Enables the button again if emails were received while clearing.
+	 *
+	 * @param remaining the number of emails which were kept.
+	 */
+	public void onCleared(int remaining) {
+		button.setEnabled(remaining > 0);
+	}
+
 }
@@ -1,16 +1,12 @@
 package com.nilhcem.fakesmtp.gui.info;
 
 import com.apple.eawt.Application;
-import com.nilhcem.fakesmtp.model.EmailModel;
 import com.nilhcem.fakesmtp.model.UIModel;
-import com.nilhcem.fakesmtp.server.MailSaver;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.swing.*;
 import java.awt.*;
-import java.util.Observable;
-import java.util.Observer;
 
 /**
  * Label class to display the number of received emails.
@@ -18,7 +14,7 @@ import java.util.Observer;
  * @author Nilhcem
  * @since 1.0
  */
-public final class NbReceivedLabel implements Observer {
+public final class NbReceivedLabel {
 
 	private static final Logger LOGGER = LoggerFactory.getLogger(NbReceivedLabel.class);
 
@@ -42,31 +38,31 @@ public final class NbReceivedLabel implements Observer {
 	}
 
 	/**
-	 * Actions which will be done when the component will be notified by an Observable object.
-	 * <ul>
-	 *   <li>If the observable element is a {@link MailSaver} object, the method will increment
-	 *   the number of received messages and update the {@link UIModel};</li>
-	 *   <li>If the observable element is a {@link ClearAllButton}, the method will reinitialize
-	 *   the number of received messages and update the {@link UIModel};</li>
-	 *   <li>When running on OS X the method will also update the Dock Icon with the number of
-	 *   received messages.</li>
-	 * </ul>
+	 * Reinitializes the number of received messages and updates the {@link UIModel}, when the user clears everything.
+	 * <p>
+	 * When running on OS X the method will also update the Dock Icon.
+	 * </p>
 	 *
-	 * @param o the observable element which will notify this class.
-	 * @param arg optional parameters (not used).
+	 * @param remaining the number of emails received while clearing, which are kept.
 	 */
-	@Override
-	public void update(Observable o, Object arg) {
-		if (o instanceof ClearAllButton) {
-			UIModel.INSTANCE.setNbMessageReceived(0);
-			updateDockIconBadge("");
-			nbReceived.setText("0");
-		}
+	public void onCleared(int remaining) {
+		String countMsgStr = Integer.toString(remaining);
+		UIModel.INSTANCE.setNbMessageReceived(remaining);
+		updateDockIconBadge(remaining == 0 ? "" : countMsgStr);
+		nbReceived.setText(countMsgStr);
 	}
 
-	public void onNewMail(EmailModel email) {
+	/**
+	 * Increments the number of received messages and updates the {@link UIModel}.
+	 * <p>
+	 * When running on OS X the method will also update the Dock Icon with the number of received messages.
+	 * </p>
+	 *
+	 * @param count the number of emails received since the last update.
+	 */
+	public void onNewMails(int count) {
 		UIModel model = UIModel.INSTANCE;
-		int countMsg = model.getNbMessageReceived() + 1;
+		int countMsg = model.getNbMessageReceived() + count;
 		String countMsgStr = Integer.toString(countMsg);
 
 		model.setNbMessageReceived(countMsg);
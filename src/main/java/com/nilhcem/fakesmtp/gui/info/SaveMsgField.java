@@ -4,6 +4,7 @@ import com.nilhcem.fakesmtp.core.ArgsHandler;
 import com.nilhcem.fakesmtp.core.I18n;
 import com.nilhcem.fakesmtp.gui.DirChooser;
 import com.nilhcem.fakesmtp.model.UIModel;
+import com.nilhcem.fakesmtp.store.MailStore.Capability;
 
 import javax.swing.*;
 import java.awt.*;
@@ -37,7 +38,7 @@ public final class SaveMsgField extends Observable implements Observer {
 		saveMsgField.setEditable(false);
 		saveMsgField.setBackground(bg);
 
-		if (!ArgsHandler.INSTANCE.isMemoryModeEnabled()) {
+		if (ArgsHandler.INSTANCE.getStoreType().has(Capability.PERSISTENT)) {
 			// Add a MouseListener
 			saveMsgField.addMouseListener(new MouseAdapter() {
 				@Override
@@ -1,12 +1,9 @@
 package com.nilhcem.fakesmtp.gui.tab;
 
-import com.nilhcem.fakesmtp.gui.info.ClearAllButton;
 import com.nilhcem.fakesmtp.model.EmailModel;
-import com.nilhcem.fakesmtp.server.MailSaver;
 
 import javax.swing.*;
-import java.util.Observable;
-import java.util.Observer;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Scrolled text area where will be displayed the last received email.
@@ -14,10 +11,18 @@ import java.util.Observer;
  * @author Nilhcem
  * @since 1.0
  */
-public final class LastMailPane implements Observer {
+public final class LastMailPane {
 
 	private final JScrollPane lastMailPane = new JScrollPane();
 	private final JTextArea lastMailArea = new JTextArea();
+	/**
+	 * Incremented each time the displayed email changes, only accessed from the event dispatch thread.
+	 */
+	private long displayed;
+	/**
+	 * The identifier of the displayed email, or {@code 0} if none is displayed.
+	 */
+	private long displayedId;
 
 	/**
 	 * Creates the text area and disables the possibility to edit it.
@@ -37,27 +42,40 @@ public final class LastMailPane implements Observer {
 	}
 
 	/**
-	 * Updates the content of the text area.
+	 * Removes the displayed email, when the user clears everything, unless it was received while clearing.
 	 * <p>
-	 * This method will be called by an observable element.
-     * </p>
-	 * <ul>
-	 *   <li>If the observable is a {@link MailSaver} object, the text area will contain the content of the last received email;</li>
-	 *   <li>If the observable is a {@link ClearAllButton} object, the text area will be cleared.</li>
-	 * </ul>
+	 * Must be called from the event dispatch thread.
+	 * </p>
 	 *
-	 * @param o the observable element which will notify this class.
-	 * @param data optional parameters (an {@code EmailModel} object, for the case of a {@code MailSaver} observable).
+	 * @param lastId the identifier of the last cleared email.
 	 */
-	@Override
-	public synchronized void update(Observable o, Object data) {
-		if (o instanceof ClearAllButton) {
-			lastMailArea.setText("");
+	public void onCleared(long lastId) {
+		if (displayedId > lastId) {
+			return;
 		}
+		displayed++;
+		displayedId = 0;
+		lastMailArea.setText("");
 	}
 
+	/**
+	 * Displays the content of the last received email.
+	 * <p>
+	 * The content is loaded in the background, then displayed unless another email was received meanwhile.
+	 * Must be called from the event dispatch thread.
+	 * </p>
+	 *
+	 * @param email the received email.
+	 */
 	public void onNewMail(EmailModel email) {
-		lastMailArea.setText(email.emailContent());
+		long requested = ++displayed;
+		displayedId = email.id();
+		CompletableFuture.supplyAsync(email::emailContent)
+				.thenAccept(content -> SwingUtilities.invokeLater(() -> {
+					if (requested == displayed) {
+						lastMailArea.setText(content);
+					}
+				}));
 	}
 
 }
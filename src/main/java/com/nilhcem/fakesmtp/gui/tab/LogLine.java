@@ -0,0 +1,21 @@
+package com.nilhcem.fakesmtp.gui.tab;
+
+import org.jspecify.annotations.Nullable;
+import org.slf4j.helpers.MessageFormatter;
+
+/**
+ * An SMTP log, as written by the SMTP session: its message is only formatted when it is displayed.
+ *
+ * @param timestamp when the log was written, in milliseconds since the epoch.
+ * @param pattern the log message pattern, with {@code {}} placeholders.
+ * @param arguments the arguments of the pattern, or {@code null} if it has none.
+ */
+public record LogLine(long timestamp, String pattern, @Nullable Object @Nullable [] arguments) {
+
+	/**
+	 * @return the log message, with its arguments.
+	 */
+	String message() {
+		return arguments == null ? pattern : MessageFormatter.arrayFormat(pattern, arguments).getMessage();
+	}
+}
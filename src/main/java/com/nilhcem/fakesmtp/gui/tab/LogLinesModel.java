@@ -0,0 +1,98 @@
+package com.nilhcem.fakesmtp.gui.tab;
+
+import javax.swing.AbstractListModel;
+import java.io.Serial;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * List model of the last log lines, kept in a fixed-capacity ring.
+ * <p>
+ * Once the capacity is reached, the oldest lines are removed as new ones are added: the memory used by the logs
+ * doesn't grow, and adding a line never moves the other ones.
+ * </p>
+ * <p>
+ * Must only be used from the event dispatch thread.
+ * </p>
+ */
+final class LogLinesModel extends AbstractListModel<LogLine> {
+
+	@Serial
+	private static final long serialVersionUID = -4180963721958307552L;
+
+	private final transient LogLine[] lines;
+	/**
+	 * Position of the oldest line in the ring.
+	 */
+	private int first;
+	private int size;
+
+	/**
+	 * @param capacity the maximum number of lines.
+	 */
+	LogLinesModel(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Invalid capacity " + capacity);
+		}
+		lines = new LogLine[capacity];
+	}
+
+	@Override
+	public int getSize() {
+		return size;
+	}
+
+	@Override
+	public LogLine getElementAt(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Line " + index + " out of " + size);
+		}
+		return lines[(first + index) % lines.length];
+	}
+
+	/**
+	 * @return the maximum number of lines.
+	 */
+	int getCapacity() {
+		return lines.length;
+	}
+
+	/**
+	 * Adds lines at the end, removing the oldest lines if the capacity is exceeded.
+	 *
+	 * @param added the lines to add.
+	 */
+	void addAll(List<LogLine> added) {
+		if (added.isEmpty()) {
+			return;
+		}
+		// Only the last lines would be kept
+		int from = Math.max(0, added.size() - lines.length);
+		int removed = Math.max(0, size + added.size() - from - lines.length);
+		if (removed > 0) {
+			first = (first + removed) % lines.length;
+			size -= removed;
+			fireIntervalRemoved(this, 0, removed - 1);
+		}
+		int start = size;
+		for (int i = from; i < added.size(); i++) {
+			lines[(first + size) % lines.length] = added.get(i);
+			size++;
+		}
+		fireIntervalAdded(this, start, size - 1);
+	}
+
+	/**
+	 * Removes all the lines.
+	 */
+	void clear() {
+		if (size == 0) {
+			return;
+		}
+		int removed = size;
+		Arrays.fill(lines, null);
+		first = 0;
+		size = 0;
+		fireIntervalRemoved(this, 0, removed - 1);
+	}
+}
@@ -1,95 +1,172 @@
 package com.nilhcem.fakesmtp.gui.tab;
 
-import ch.qos.logback.classic.spi.ILoggingEvent;
-import ch.qos.logback.core.spi.AppenderAttachable;
 import com.nilhcem.fakesmtp.core.Configuration;
-import com.nilhcem.fakesmtp.gui.info.ClearAllButton;
-import com.nilhcem.fakesmtp.log.SMTPLogsAppender;
-import com.nilhcem.fakesmtp.log.SMTPLogsObservable;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import com.nilhcem.fakesmtp.core.Configuration.Settings;
+import com.nilhcem.fakesmtp.core.I18n;
+import com.nilhcem.fakesmtp.event.EventBus;
 
+import javax.swing.DefaultListCellRenderer;
+import javax.swing.JCheckBox;
+import javax.swing.JList;
+import javax.swing.JPanel;
 import javax.swing.JScrollPane;
-import javax.swing.JTextArea;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-import java.util.Observable;
-import java.util.Observer;
+import javax.swing.SwingUtilities;
+import javax.swing.UIManager;
+import java.awt.BorderLayout;
+import java.awt.Component;
+import java.awt.FlowLayout;
+import java.awt.Font;
+import java.io.Serial;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
 
 /**
- * Scrolled text area where will be displayed the SMTP logs.
+ * Scrolled list where will be displayed the SMTP logs.
+ * <p>
+ * Only the last lines are kept (see the {@code logs.max.lines} setting), and only the visible lines are formatted
+ * and rendered, so displaying the logs costs the same whatever their rate, and nothing while the tab is hidden.<br>
+ * The display can be paused to read the logs: the lines received meanwhile are displayed when it is resumed.
+ * </p>
  *
  * @author Nilhcem
  * @since 1.0
  */
-public final class LogsPane implements Observer {
+public final class LogsPane {
 
-	private static final Logger log = LoggerFactory.getLogger(LogsPane.class);
-	
-	private final JScrollPane logsPane = new JScrollPane();
-	private final SimpleDateFormat dateFormat = new SimpleDateFormat("hh:mm:ss a");
-	private final JTextArea logsArea = new JTextArea();
+	private static final int DEFAULT_MAX_LINES = 10000;
 
+	private final JPanel panel = new JPanel(new BorderLayout());
+	private final DateTimeFormatter timeFormatter = DateTimeFormatter.ofPattern("hh:mm:ss a").withZone(ZoneId.systemDefault());
+	private final LogLinesModel model = new LogLinesModel(maxLines());
+	private final JList<LogLine> logsList = new JList<>(model);
+	private final JCheckBox pause = new JCheckBox(I18n.INSTANCE.get("logspane.pause"));
 	/**
-	 * Creates the text area, sets it as non-editable and sets an observer to intercept logs.
+	 * The lines received while the display is paused, the oldest ones being dropped like in the model.
+	 */
+	private final Deque<LogLine> pausedLines = new ArrayDeque<>();
+	/**
+	 * The width of the widest line rendered since the last clear, in pixels.
+	 */
+	private int maxLineWidth;
+
+	/**
+	 * @return the {@code logs.max.lines} setting, or the default value if it isn't a positive number.
+	 */
+	private static int maxLines() {
+		int maxLines = Configuration.getInstance().getInt(Settings.LOGS_MAX_LINES, DEFAULT_MAX_LINES);
+		return maxLines > 0 ? maxLines : DEFAULT_MAX_LINES;
+	}
+
+	/**
+	 * Creates the list of logs, and the pause check box.
+	 * <p>
+	 * The logs are received from the SMTP logs appender, through the {@link EventBus}.
+	 * </p>
 	 */
 	public LogsPane() {
-		logsArea.setEditable(false);
-		logsPane.getViewport().add(logsArea, null);
-		addObserverToSmtpLogAppender();
+		Font font = UIManager.getFont("TextArea.font");
+		if (font != null) {
+			logsList.setFont(font);
+		}
+		// Fixed cell sizes, so the list never measures all its lines
+		logsList.setFixedCellHeight(new DefaultListCellRenderer()
+				.getListCellRendererComponent(logsList, "W", 0, false, false).getPreferredSize().height);
+		logsList.setFixedCellWidth(0);
+		logsList.setCellRenderer(new LogLineRenderer());
+
+		pause.addActionListener(e -> {
+			if (!pause.isSelected()) {
+				List<LogLine> lines = new ArrayList<>(pausedLines);
+				pausedLines.clear();
+				display(lines);
+			}
+		});
+
+		JPanel toolbar = new JPanel(new FlowLayout(FlowLayout.RIGHT, 0, 0));
+		toolbar.add(pause);
+		panel.add(toolbar, BorderLayout.NORTH);
+		panel.add(new JScrollPane(logsList), BorderLayout.CENTER);
 	}
 
 	/**
-	 * Returns the JScrollPane object.
+	 * Returns the JPanel object.
 	 *
-	 * @return the JScrollPane object.
+	 * @return the JPanel object.
 	 */
-	public JScrollPane get() {
-		return logsPane;
+	public JPanel get() {
+		return panel;
 	}
 
 	/**
-	 * Adds this object to the SMTP logs appender observable, to intercept logs.
+	 * Displays some log lines at the end of the list, and scrolls it to the bottom, unless the display is paused.
 	 * <p>
-	 * The goal is to be informed when the log appender will received some debug SMTP logs.<br>
-	 * When a log is written, the appender will notify this class which will display it in the text area.
+	 * Must be called from the event dispatch thread.
 	 * </p>
+	 *
+	 * @param lines the lines to display, formatted once they are visible.
 	 */
-	private void addObserverToSmtpLogAppender() {
-		Logger smtpLogger = LoggerFactory.getLogger(org.subethamail.smtp.server.Session.class);
-		String appenderName = Configuration.getInstance().get("logback.appender.name");
-
-		@SuppressWarnings("unchecked")
-		SMTPLogsAppender appender = (SMTPLogsAppender) ((AppenderAttachable<ILoggingEvent>) smtpLogger).getAppender(appenderName);
-		if (appender == null) {
-			log.error("Can't find appender: {}", appenderName);
+	public void appendLogs(List<LogLine> lines) {
+		if (lines.isEmpty()) {
+			return;
+		}
+		if (pause.isSelected()) {
+			pausedLines.addAll(lines);
+			while (pausedLines.size() > model.getCapacity()) {
+				pausedLines.removeFirst();
+			}
 		} else {
-			appender.getObservable().addObserver(this);
+			display(lines);
+		}
+	}
+
+	/**
+	 * Removes the displayed logs, when the user clears everything.
+	 */
+	public void onCleared() {
+		pausedLines.clear();
+		model.clear();
+		maxLineWidth = 0;
+		logsList.setFixedCellWidth(0);
+	}
+
+	private void display(List<LogLine> lines) {
+		model.addAll(lines);
+		if (model.getSize() > 0) {
+			logsList.ensureIndexIsVisible(model.getSize() - 1);
 		}
 	}
 
 	/**
-	 * Updates the content of the text area.
+	 * Formats the lines as they are rendered, with the time the log was written.
 	 * <p>
-	 * This method will be called by an observable element.
-     * </p>
-	 * <ul>
-	 *   <li>If the observable is a {@link SMTPLogsObservable} object, the text area will display the received log.</li>
-	 *   <li>If the observable is a {@link ClearAllButton} object, the text area will be cleared.</li>
-	 * </ul>
-	 *
-	 * @param o the observable element which will notify this class.
-	 * @param log optional parameter (a {@code String} object, when the observable is a {@code SMTPLogsObservable} object, which will contain the log).
+	 * The list is widened when a line wider than the previous ones is rendered, so it can be scrolled horizontally
+	 * without measuring the lines which are never displayed.
+	 * </p>
 	 */
-	@Override
-	public void update(Observable o, Object log) {
-		if (o instanceof SMTPLogsObservable) {
-			// Update and scroll pane to the bottom
-			logsArea.append("%s - %s%n".formatted(dateFormat.format(new Date()), log));
-			logsArea.setCaretPosition(logsArea.getText().length());
-		} else if (o instanceof ClearAllButton) {
-			// Remove text
-			logsArea.setText("");
+	private final class LogLineRenderer extends DefaultListCellRenderer {
+
+		@Serial
+		private static final long serialVersionUID = 6526410785322935624L;
+
+		@Override
+		public Component getListCellRendererComponent(JList<?> list, Object value, int index,
+				boolean isSelected, boolean cellHasFocus) {
+			LogLine line = (LogLine) value;
+			String text = "%s - %s".formatted(timeFormatter.format(Instant.ofEpochMilli(line.timestamp())), line.message());
+			Component component = super.getListCellRendererComponent(list, text, index, isSelected, cellHasFocus);
+
+			int width = component.getPreferredSize().width;
+			if (width > maxLineWidth) {
+				maxLineWidth = width;
+				// The list can't be resized while it is painted
+				SwingUtilities.invokeLater(() -> logsList.setFixedCellWidth(Math.max(logsList.getFixedCellWidth(), maxLineWidth)));
+			}
+			return component;
 		}
 	}
 }
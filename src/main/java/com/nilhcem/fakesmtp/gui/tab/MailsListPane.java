@@ -3,16 +3,15 @@ package com.nilhcem.fakesmtp.gui.tab;
 import com.nilhcem.fakesmtp.core.ArgsHandler;
 import com.nilhcem.fakesmtp.core.Configuration;
 import com.nilhcem.fakesmtp.core.I18n;
-import com.nilhcem.fakesmtp.gui.info.ClearAllButton;
 import com.nilhcem.fakesmtp.model.EmailModel;
+import com.nilhcem.fakesmtp.model.MailCatalog;
 import com.nilhcem.fakesmtp.model.UIModel;
-import com.nilhcem.fakesmtp.server.MailSaver;
+import com.nilhcem.fakesmtp.server.SMTPServerHandler;
 import jakarta.mail.internet.MimeUtility;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.swing.*;
-import javax.swing.table.DefaultTableModel;
 import java.awt.*;
 import java.awt.event.ComponentAdapter;
 import java.awt.event.ComponentEvent;
@@ -24,8 +23,13 @@ import java.io.Serial;
 import java.io.UnsupportedEncodingException;
 import java.time.format.DateTimeFormatter;
 import java.time.format.FormatStyle;
-import java.util.Observable;
-import java.util.Observer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
 /**
  * Scrolled table where will be displayed every received email (one line for each email).
@@ -36,9 +40,16 @@ import java.util.Observer;
  * @author Nilhcem
  * @since 1.0
  */
-public final class MailsListPane implements Observer {
+public final class MailsListPane {
+
+	private static final int MAX_UNLISTED_EVICTIONS = 1024;
 
 	private int nbElements = 0;
+	/**
+	 * The emails evicted before their row was added: an email can be evicted by a concurrent email
+	 * before being published. Only accessed from the event dispatch thread.
+	 */
+	private final Set<Long> unlistedEvictions = new LinkedHashSet<>();
 	private Desktop desktop = null;
 	private static final Logger LOGGER = LoggerFactory.getLogger(MailsListPane.class);
 	private final I18n i18n = I18n.INSTANCE;
@@ -60,17 +71,14 @@ public final class MailsListPane implements Observer {
 	};
 
 	/**
-	 * Table model with non-editable cells.
+	 * Table model reading the rows on demand, with non-editable cells.
 	 */
-	private final DefaultTableModel model = new DefaultTableModel() {
-		@Serial
-		private static final long serialVersionUID = -6716294637919469299L;
-
-		@Override
-		public boolean isCellEditable(int rowIndex, int mColIndex) {
-			return false;
-		}
-	};
+	private final MailsTableModel model = new MailsTableModel(new String[] {
+			i18n.get("mailslist.col.received"),
+			i18n.get("mailslist.col.from"),
+			i18n.get("mailslist.col.to"),
+			i18n.get("mailslist.col.subject")
+	}, UIModel.INSTANCE.getCatalog(), dateTimeFormatter);
 
 	/**
 	 * Creates the table and sets its cells as non-editable.
@@ -88,42 +96,46 @@ public final class MailsListPane implements Observer {
 			desktop = Desktop.getDesktop();
 		}
 
-		if (!ArgsHandler.INSTANCE.isMemoryModeEnabled()) {
-			table.addMouseListener(new MouseAdapter() {
+		table.addMouseListener(new MouseAdapter() {
 
-				@Override
-				public void mouseClicked(MouseEvent e) {
+			@Override
+			public void mouseClicked(MouseEvent e) {
 
-					String emlViewer = ArgsHandler.INSTANCE.getEmlViewer();
+				String emlViewer = ArgsHandler.INSTANCE.getEmlViewer();
 
-					if (e.getClickCount() == 2 && (emlViewer != null || desktop != null)) {
-						File file = null;
-						JTable target = (JTable) e.getSource();
-						String fileName = UIModel.INSTANCE.getListMailsMap().get(target.getSelectedRow());
-						if (fileName == null) {
-							LOGGER.error("Can't find any associated email for row #{}", target.getSelectedRow());
-						} else {
-							file = new File(fileName);
+				if (e.getClickCount() == 2 && (emlViewer != null || desktop != null)) {
+					File file = null;
+					JTable target = (JTable) e.getSource();
+					int row = target.getSelectedRow();
+					MailCatalog catalog = UIModel.INSTANCE.getCatalog();
+					if (row < 0 || row >= catalog.size()) {
+						LOGGER.error("Can't find any associated email for row #{}", row);
+					} else {
+						// Emails which don't have their own file are exported on demand
+						try {
+							file = SMTPServerHandler.INSTANCE.getMailSaver().exportEmail(catalog.id(row)).toFile();
+						} catch (IOException ioe) {
+							LOGGER.error("", ioe);
 						}
+					}
 
-						if (file != null && file.exists()) {
-							try {
-								if (emlViewer != null) {
-									Runtime.getRuntime().exec(emlViewer + " " + file.getAbsolutePath());
-								} else {
-									desktop.open(file);
-								}
-							} catch (IOException ioe) {
-								LOGGER.error("", ioe);
-								displayError(i18n.get("mailslist.err.open").formatted(file.getAbsolutePath()));
+					if (file != null && file.exists()) {
+						try {
+							if (emlViewer != null) {
+								Runtime.getRuntime().exec(emlViewer + " " + file.getAbsolutePath());
+							} else {
+								desktop.open(file);
 							}
-						} else {
-							displayError(i18n.get("mailslist.err.find").formatted(file.getAbsolutePath()));
+						} catch (IOException ioe) {
+							LOGGER.error("", ioe);
+							displayError(i18n.get("mailslist.err.open").formatted(file.getAbsolutePath()));
 						}
+					} else {
+						displayError(i18n.get("mailslist.err.find").formatted(file == null ? "#" + row : file.getAbsolutePath()));
 					}
 				}
-			});
-        }
+			}
+		});
 
 		// Auto scroll tab to bottom when a new element is inserted
 		table.addComponentListener(new ComponentAdapter() {
@@ -133,10 +145,6 @@ public final class MailsListPane implements Observer {
 			}
 		});
 
-		model.addColumn(i18n.get("mailslist.col.received"));
-		model.addColumn(i18n.get("mailslist.col.from"));
-		model.addColumn(i18n.get("mailslist.col.to"));
-		model.addColumn(i18n.get("mailslist.col.subject"));
 		table.setModel(model);
 
 		mailsListPane.addComponentListener(new ComponentAdapter() {
@@ -156,6 +164,14 @@ public final class MailsListPane implements Observer {
 			}
 		});
 		mailsListPane.getViewport().add(table, null);
+
+		// The subjects are only read for the visible rows
+		mailsListPane.getViewport().addChangeListener(e -> {
+			Rectangle visible = table.getVisibleRect();
+			int first = table.rowAtPoint(visible.getLocation());
+			int last = table.rowAtPoint(new Point(visible.x, visible.y + visible.height - 1));
+			model.setVisibleRows(Math.max(first, 0), last < 0 ? Integer.MAX_VALUE : last);
+		});
 	}
 
 	/**
@@ -168,39 +184,64 @@ public final class MailsListPane implements Observer {
 	}
 
 	/**
-	 * Updates the content of the table.
+	 * Removes the rows of the cleared emails from the table, and the emails from the {@link UIModel} catalog,
+	 * when the user clears everything.
 	 * <p>
-	 * This method will be called by an observable element.
-     * </p>
-	 * <ul>
-	 *   <li>If the observable is a {@link MailSaver} object, a new row will be added
-	 *   to the table, and the {@link UIModel} will be updated;</li>
-	 *   <li>If the observable is a {@link ClearAllButton} object, all the cells
-	 *   of the table will be removed, and the {@link UIModel} will be updated.</li>
-	 * </ul>
+	 * The emails received while clearing are kept. Must be called from the event dispatch thread.
+	 * </p>
 	 *
-	 * @param o the observable element which will notify this class.
-	 * @param arg optional parameters (an {@code EmailModel} object, for the case of
-	 * a {@code MailSaver} observable) containing all the information about the email.
+	 * @param lastId the identifier of the last cleared email.
+	 * @return the number of remaining rows.
 	 */
-	@Override
-	public void update(Observable o, Object arg) {
-			if (o instanceof ClearAllButton) {
-			// Delete information from the map
-			UIModel.INSTANCE.getListMailsMap().clear();
-
-			// Remove elements from the list
-			try {
-				while (nbElements > 0) {
-					model.removeRow(--nbElements);
-				}
-			} catch (ArrayIndexOutOfBoundsException e) {
-				LOGGER.error("", e);
-			}
+	public int onCleared(long lastId) {
+		// Delete information from the catalog
+		MailCatalog catalog = UIModel.INSTANCE.getCatalog();
+		catalog.removeIf(id -> id <= lastId);
+
+		// Remove elements from the list
+		unlistedEvictions.removeIf(id -> id <= lastId);
+		nbElements = catalog.size();
+		model.reload();
+		return nbElements;
+	}
+
+	/**
+	 * Removes the rows of the emails evicted from the memory store, and the emails from the {@link UIModel} catalog,
+	 * so the catalog doesn't grow beyond the store.
+	 * <p>
+	 * Must be called from the event dispatch thread.
+	 * </p>
+	 *
+	 * @param ids the identifiers of the evicted emails.
+	 */
+	public void removeEvicted(Collection<Long> ids) {
+		if (ids.isEmpty()) {
+			return;
+		}
+		Set<Long> unlisted = new HashSet<>(ids);
+		int[] removed = UIModel.INSTANCE.getCatalog().removeIf(unlisted::remove);
+		nbElements -= removed.length;
+		model.removeRows(removed);
+
+		// Their rows will be ignored once added
+		unlistedEvictions.addAll(unlisted);
+		Iterator<Long> eldest = unlistedEvictions.iterator();
+		while (unlistedEvictions.size() > MAX_UNLISTED_EVICTIONS) {
+			eldest.next();
+			eldest.remove();
 		}
 	}
 
-	public void onNewMail(EmailModel email ) {
+	/**
+	 * Prepares the row of a received email: formats its date and recipients, and decodes its subject.
+	 * <p>
+	 * Doesn't modify the table, so it can be called from any thread, to keep this work out of the event dispatch thread.
+	 * </p>
+	 *
+	 * @param email the received email.
+	 * @return the row to add with {@link #addRows(List)}.
+	 */
+	public Row prepareRow(EmailModel email) {
 		String subject;
 		try {
 			subject = MimeUtility.decodeText(email.subject());
@@ -209,10 +250,47 @@ public final class MailsListPane implements Observer {
 			subject = email.subject();
 		}
 
-		String recipients = String.join(";", email.recipients());
-		model.addRow(new Object[]{dateTimeFormatter.format(email.receivedDate()),
-				email.from(), recipients, subject});
-		UIModel.INSTANCE.getListMailsMap().put(nbElements++, String.valueOf(email.filePath()));
+		String[] cells = new String[4];
+		cells[MailsTableModel.COLUMN_RECEIVED] = dateTimeFormatter.format(email.receivedDate());
+		cells[MailsTableModel.COLUMN_FROM] = email.from();
+		cells[MailsTableModel.COLUMN_TO] = String.join(";", email.recipients());
+		cells[MailsTableModel.COLUMN_SUBJECT] = subject;
+		return new Row(email, cells);
+	}
+
+	/**
+	 * Adds the rows of received emails to the table, and the emails to the {@link UIModel} catalog.
+	 * <p>
+	 * The rows are only cached by the table, which reads them from the catalog once they are evicted from its cache.
+	 * The table is notified once for all the rows. Must be called from the event dispatch thread.
+	 * </p>
+	 *
+	 * @param rows the rows prepared by {@link #prepareRow(EmailModel)}.
+	 */
+	public void addRows(List<Row> rows) {
+		if (rows.isEmpty()) {
+			return;
+		}
+		MailCatalog catalog = UIModel.INSTANCE.getCatalog();
+		List<String[]> cells = new ArrayList<>(rows.size());
+		for (Row row : rows) {
+			if (!unlistedEvictions.isEmpty() && unlistedEvictions.remove(row.email().id())) {
+				continue;
+			}
+			catalog.append(row.email());
+			cells.add(row.cells());
+		}
+		nbElements += cells.size();
+		model.addRows(cells);
+	}
+
+	/**
+	 * The cells of a row of the table, prepared outside the event dispatch thread.
+	 *
+	 * @param email the received email.
+	 * @param cells the values of the columns.
+	 */
+	public record Row(EmailModel email, String[] cells) {
 	}
 
 	/**
@@ -0,0 +1,265 @@
+package com.nilhcem.fakesmtp.gui.tab;
+
+import com.nilhcem.fakesmtp.model.MailCatalog;
+import com.nilhcem.fakesmtp.server.HeaderIndex.Header;
+import com.nilhcem.fakesmtp.server.SMTPServerHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.swing.SwingUtilities;
+import javax.swing.table.AbstractTableModel;
+import java.io.IOException;
+import java.io.Serial;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Table model of the received emails, reading the rows on demand instead of keeping them.
+ * <p>
+ * The rows are read from the {@link MailCatalog} when they are displayed, and kept in a small cache of the most
+ * recently displayed rows: the memory used by the table doesn't depend on the number of emails.<br>
+ * The subjects aren't kept by the catalog: they are read from the store in the background (only the header section
+ * of the email is read), and displayed once loaded. They are read one at a time, the most recently displayed row
+ * first, and only while the row is visible: scrolling quickly through the table doesn't pile up reads.
+ * The rows of the emails which were just received are cached with their subject, so the store isn't read while
+ * following the new emails.
+ * </p>
+ * <p>
+ * Must only be used from the event dispatch thread.
+ * </p>
+ */
+final class MailsTableModel extends AbstractTableModel {
+
+	@Serial
+	private static final long serialVersionUID = 2911528167423404916L;
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(MailsTableModel.class);
+
+	static final int COLUMN_RECEIVED = 0;
+	static final int COLUMN_FROM = 1;
+	static final int COLUMN_TO = 2;
+	static final int COLUMN_SUBJECT = 3;
+
+	private static final int CACHE_SIZE = 1024;
+
+	private final String[] columnNames;
+	private final transient MailCatalog catalog;
+	private final transient DateTimeFormatter dateTimeFormatter;
+	private final transient ExecutorService subjectLoader = Executors.newSingleThreadExecutor(r -> {
+		Thread thread = new Thread(r, "fakesmtp-subjects");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	/**
+	 * Cells of the most recently displayed rows. The subject cell is {@code null} until it is loaded.
+	 */
+	private final transient Map<Integer, String[]> cache = new LinkedHashMap<>(CACHE_SIZE, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Integer, String[]> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+	/**
+	 * The rows whose subject is requested or being read, so each row is requested once.
+	 */
+	private final transient Set<Integer> loading = new HashSet<>();
+	/**
+	 * The rows whose subject is requested, the most recently displayed last.
+	 */
+	private final transient Deque<Integer> pending = new ArrayDeque<>();
+	/**
+	 * Whether a subject is being read: the next one is only submitted once it is loaded.
+	 */
+	private boolean reading;
+	private int firstVisibleRow;
+	private int lastVisibleRow = Integer.MAX_VALUE;
+	private int rowCount;
+	/**
+	 * Incremented when the rows are reloaded, so the subjects loaded before are ignored.
+	 */
+	private long generation;
+
+	/**
+	 * @param columnNames the names of the received date, sender, recipients and subject columns.
+	 * @param catalog the catalog the rows are read from.
+	 * @param dateTimeFormatter the format of the received date.
+	 */
+	MailsTableModel(String[] columnNames, MailCatalog catalog, DateTimeFormatter dateTimeFormatter) {
+		this.columnNames = columnNames.clone();
+		this.catalog = catalog;
+		this.dateTimeFormatter = dateTimeFormatter;
+	}
+
+	@Override
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	@Override
+	public int getColumnCount() {
+		return columnNames.length;
+	}
+
+	@Override
+	public String getColumnName(int column) {
+		return columnNames[column];
+	}
+
+	@Override
+	public Object getValueAt(int rowIndex, int columnIndex) {
+		String[] cells = cache.get(rowIndex);
+		if (cells == null) {
+			cells = readRow(rowIndex);
+			cache.put(rowIndex, cells);
+		}
+		if (columnIndex == COLUMN_SUBJECT && cells[COLUMN_SUBJECT] == null) {
+			loadSubject(rowIndex);
+			return "";
+		}
+		return cells[columnIndex];
+	}
+
+	/**
+	 * Sets the rows displayed by the table, whose subjects are read first. The subjects of the other rows are
+	 * not read, until they are displayed again.
+	 *
+	 * @param first the first visible row.
+	 * @param last the last visible row, {@link Integer#MAX_VALUE} if the table doesn't fill the view.
+	 */
+	void setVisibleRows(int first, int last) {
+		firstVisibleRow = first;
+		lastVisibleRow = last;
+	}
+
+	/**
+	 * Adds rows at the end of the table, whose emails were appended to the catalog.
+	 *
+	 * @param rows the cells of the new rows, which are cached.
+	 */
+	void addRows(List<String[]> rows) {
+		if (rows.isEmpty()) {
+			return;
+		}
+		int first = rowCount;
+		// Only the last rows would stay in the cache
+		for (int i = Math.max(0, rows.size() - CACHE_SIZE); i < rows.size(); i++) {
+			cache.put(first + i, rows.get(i));
+		}
+		rowCount += rows.size();
+		fireTableRowsInserted(first, rowCount - 1);
+	}
+
+	/**
+	 * Removes rows, whose emails were removed from the catalog, keeping the cached rows which remain.
+	 *
+	 * @param rows the removed rows (before the removal), in ascending order.
+	 */
+	void removeRows(int[] rows) {
+		if (rows.length == 0) {
+			return;
+		}
+		// The subjects being loaded are for the previous row numbers
+		generation++;
+		loading.clear();
+		pending.clear();
+		Map<Integer, String[]> kept = new LinkedHashMap<>(cache.size());
+		for (Map.Entry<Integer, String[]> entry : cache.entrySet()) {
+			int index = Arrays.binarySearch(rows, entry.getKey());
+			if (index < 0) {
+				// Moved up by the number of removed rows before it
+				kept.put(entry.getKey() + index + 1, entry.getValue());
+			}
+		}
+		cache.clear();
+		cache.putAll(kept);
+		rowCount -= rows.length;
+
+		// From the last range to the first, so each range has its row numbers when removed
+		int i = rows.length - 1;
+		while (i >= 0) {
+			int last = rows[i];
+			while (i > 0 && rows[i - 1] == rows[i] - 1) {
+				i--;
+			}
+			fireTableRowsDeleted(rows[i], last);
+			i--;
+		}
+	}
+
+	/**
+	 * Reads all the rows again, once rows were removed from the catalog.
+	 */
+	void reload() {
+		generation++;
+		cache.clear();
+		loading.clear();
+		pending.clear();
+		rowCount = catalog.size();
+		fireTableDataChanged();
+	}
+
+	private String[] readRow(int row) {
+		return new String[] {
+				dateTimeFormatter.format(catalog.receivedDate(row)),
+				catalog.from(row),
+				String.join(";", catalog.recipients(row)),
+				null
+		};
+	}
+
+	private void loadSubject(int row) {
+		if (loading.add(row)) {
+			pending.addLast(row);
+			loadNextSubject();
+		}
+	}
+
+	/**
+	 * Reads the subject of the most recently displayed row which is still visible, unless one is being read.
+	 */
+	private void loadNextSubject() {
+		while (!reading && !pending.isEmpty()) {
+			int row = pending.pollLast();
+			if (row < firstVisibleRow || row > lastVisibleRow || row >= rowCount) {
+				// Requested again if displayed again
+				loading.remove(row);
+				continue;
+			}
+			reading = true;
+			long id = catalog.id(row);
+			long requested = generation;
+			subjectLoader.execute(() -> {
+				String subject;
+				try {
+					subject = SMTPServerHandler.INSTANCE.getMailSaver().readHeaders(id).decoded(Header.SUBJECT);
+				} catch (IOException e) {
+					LOGGER.debug("Can't read the subject of email {}: {}", id, e.toString());
+					subject = "";
+				}
+				String loaded = subject;
+				SwingUtilities.invokeLater(() -> {
+					reading = false;
+					if (requested == generation) {
+						loading.remove(row);
+						String[] cells = cache.get(row);
+						if (cells != null) {
+							cells[COLUMN_SUBJECT] = loaded;
+							fireTableCellUpdated(row, COLUMN_SUBJECT);
+						}
+					}
+					loadNextSubject();
+				});
+			});
+		}
+	}
+}
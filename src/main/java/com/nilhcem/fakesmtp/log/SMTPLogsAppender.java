@@ -1,36 +1,29 @@
 package com.nilhcem.fakesmtp.log;
 
-import java.util.Observable;
-
 import ch.qos.logback.classic.spi.ILoggingEvent;
-import ch.qos.logback.core.AppenderBase;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+import com.nilhcem.fakesmtp.event.EventBus;
 
 /**
- * Logback appender class, which will redirect all logs to the {@code LogsPane} object.
+ * Logback appender class, which will redirect all logs to the {@code LogsPane} object, through the {@link EventBus}.
+ * <p>
+ * The appender runs in the SMTP session threads, for each command: it takes no lock, and only hands the raw log
+ * (timestamp, message pattern and arguments) to the bus of the logs, which drops it if the GUI is too far behind.
+ * The message is formatted by the {@code LogsPane} object, when it is displayed.
+ * </p>
  *
  * @author Nilhcem
  * @since 1.0
  */
-public final class SMTPLogsAppender extends AppenderBase<ILoggingEvent> {
-
-	private SMTPLogsObservable observable = new SMTPLogsObservable();
+public final class SMTPLogsAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
 
 	/**
-	 * Receives a log from Logback, and sends it to the {@code LogsPane} object.
+	 * Receives a log from Logback, and publishes it for the {@code LogsPane} object.
 	 *
 	 * @param loggingEvent a Logback {@code ILoggingEvent} event.
 	 */
 	@Override
 	protected void append(ILoggingEvent loggingEvent) {
-		observable.notifyObservers(loggingEvent.getFormattedMessage());
-	}
-
-	/**
-	 * Returns the log observable object.
-	 *
-	 * @return the log observable object.
-	 */
-	public Observable getObservable() {
-		return observable;
+		EventBus.getLogInstance().offerLog(loggingEvent.getTimeStamp(), loggingEvent.getMessage(), loggingEvent.getArgumentArray());
 	}
 }
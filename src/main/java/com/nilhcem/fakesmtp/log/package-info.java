@@ -1,4 +1,4 @@
 /**
- * Provides a Logback appender and an observable object to redirect logs to the GUI.
+ * Provides a Logback appender to redirect logs to the GUI.
  */
 package com.nilhcem.fakesmtp.log;
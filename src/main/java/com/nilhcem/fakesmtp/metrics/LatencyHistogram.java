@@ -0,0 +1,120 @@
+package com.nilhcem.fakesmtp.metrics;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Records durations in log-linear buckets, like HdrHistogram: each power of two is split in 16 buckets,
+ * so a recorded duration is known within about 6%, from a nanosecond to centuries, in a fixed amount of memory.
+ * <p>
+ * Recording never locks nor allocates: it increments a bucket and a few adders, so it can be done by all the SMTP
+ * sessions at once. The statistics are read without stopping the recording, so they may miss the durations
+ * recorded meanwhile.
+ * </p>
+ */
+public final class LatencyHistogram {
+
+	private static final int SUB_BUCKET_BITS = 4;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = (Long.SIZE - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder total = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	/**
+	 * @param nanos a duration in nanoseconds, negative durations being recorded as 0.
+	 */
+	public void record(long nanos) {
+		long value = Math.max(0, nanos);
+		counts.incrementAndGet(index(value));
+		total.add(value);
+		max.accumulate(value);
+	}
+
+	/**
+	 * @return the number of recorded durations.
+	 */
+	public long getCount() {
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			count += counts.get(i);
+		}
+		return count;
+	}
+
+	/**
+	 * @return the mean duration in nanoseconds, or {@code 0} if nothing was recorded.
+	 */
+	public double getMean() {
+		long count = getCount();
+		return count == 0 ? 0 : (double) total.sum() / count;
+	}
+
+	/**
+	 * @return the longest duration in nanoseconds, or {@code 0} if nothing was recorded.
+	 */
+	public long getMax() {
+		return max.get();
+	}
+
+	/**
+	 * Returns the duration under which a percentage of the durations were recorded.
+	 *
+	 * @param percentile a percentage, such as {@code 99} or {@code 99.9}.
+	 * @return the duration in nanoseconds (the upper bound of its bucket), or {@code 0} if nothing was recorded.
+	 */
+	public long getPercentile(double percentile) {
+		long[] snapshot = new long[BUCKETS];
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			snapshot[i] = counts.get(i);
+			count += snapshot[i];
+		}
+		if (count == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * count));
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += snapshot[i];
+			if (seen >= rank) {
+				return Math.min(highestValue(i), getMax());
+			}
+		}
+		return getMax();
+	}
+
+	/**
+	 * @return the count, the mean, the median, the 90th, 99th and 99.9th percentiles and the maximum,
+	 * in microseconds.
+	 */
+	@Override
+	public String toString() {
+		return String.format(Locale.ROOT, "count=%d mean=%.1fus p50=%.1fus p90=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus",
+				getCount(), getMean() / 1000, getPercentile(50) / 1000.0, getPercentile(90) / 1000.0,
+				getPercentile(99) / 1000.0, getPercentile(99.9) / 1000.0, getMax() / 1000.0);
+	}
+
+	static int index(long value) {
+		if (value < 2 * SUB_BUCKETS) {
+			return (int) value;
+		}
+		int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return shift * SUB_BUCKETS + (int) (value >>> shift);
+	}
+
+	static long lowestValue(int index) {
+		if (index < 2 * SUB_BUCKETS) {
+			return index;
+		}
+		int shift = index / SUB_BUCKETS - 1;
+		return (long) (index % SUB_BUCKETS + SUB_BUCKETS) << shift;
+	}
+
+	static long highestValue(int index) {
+		return index == BUCKETS - 1 ? Long.MAX_VALUE : lowestValue(index + 1) - 1;
+	}
+}
@@ -0,0 +1,145 @@
+package com.nilhcem.fakesmtp.metrics;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The latency histograms and counters of the SMTP server, since it was launched.
+ * <p>
+ * The {@code MAIL} and {@code RCPT} commands are timed by the message handler, whatever the engine.
+ * The other commands are only timed by the nio engine, the SubEtha server having no hook for them.
+ * The stages of the reception of an email are timed for both engines.
+ * </p>
+ * <p>
+ * Everything is recorded without lock (see {@link LatencyHistogram}), and can be read at any time.
+ * In background mode, the report is logged when the application is stopped.
+ * </p>
+ */
+public enum SmtpMetrics {
+	INSTANCE;
+
+	/**
+	 * The stages of the reception of an email.
+	 */
+	public enum Stage {
+		/**
+		 * Reading the DATA (or BDAT) bytes from the client into the message buffer, indexing the headers on the fly.
+		 */
+		RECEIVE,
+		/**
+		 * Writing the email in the mail store, or waiting for the write-behind writer to acknowledge it.
+		 */
+		STORE,
+		/**
+		 * Publishing the email on the event bus, which may wait for the GUI depending on the overflow policy.
+		 */
+		PUBLISH,
+		/**
+		 * Saving the email, once received: storing and publishing it.
+		 */
+		SAVE
+	}
+
+	private final Map<String, LatencyHistogram> commands = new ConcurrentHashMap<>();
+	private final Map<Stage, LatencyHistogram> stages = new EnumMap<>(Stage.class);
+	private final LongAdder bytes = new LongAdder();
+	private final LongAdder messages = new LongAdder();
+	private final LongAdder rejections = new LongAdder();
+	private final LongAdder errors = new LongAdder();
+
+	SmtpMetrics() {
+		for (Stage stage : Stage.values()) {
+			stages.put(stage, new LatencyHistogram());
+		}
+	}
+
+	/**
+	 * @param verb an SMTP command, in upper case, such as {@code MAIL}.
+	 * @return the histogram of the durations of the command.
+	 */
+	public LatencyHistogram command(String verb) {
+		return commands.computeIfAbsent(verb, key -> new LatencyHistogram());
+	}
+
+	/**
+	 * @return the histogram of the durations of the stage.
+	 */
+	public LatencyHistogram stage(Stage stage) {
+		return stages.get(stage);
+	}
+
+	/**
+	 * Counts a received email.
+	 *
+	 * @param size the size of the email in bytes.
+	 */
+	public void messageReceived(long size) {
+		messages.increment();
+		bytes.add(size);
+	}
+
+	/**
+	 * Counts a command rejected by the server, such as a recipient outside the relay domains or a too large email.
+	 */
+	public void rejected() {
+		rejections.increment();
+	}
+
+	/**
+	 * Counts an email which couldn't be received or saved.
+	 */
+	public void failed() {
+		errors.increment();
+	}
+
+	/**
+	 * @return the histograms of the timed commands, by command.
+	 */
+	public Map<String, LatencyHistogram> getCommands() {
+		return new TreeMap<>(commands);
+	}
+
+	/**
+	 * @return the total size of the received emails, in bytes.
+	 */
+	public long getBytes() {
+		return bytes.sum();
+	}
+
+	/**
+	 * @return the number of received emails.
+	 */
+	public long getMessages() {
+		return messages.sum();
+	}
+
+	/**
+	 * @return the number of rejected commands.
+	 */
+	public long getRejections() {
+		return rejections.sum();
+	}
+
+	/**
+	 * @return the number of emails which couldn't be received or saved.
+	 */
+	public long getErrors() {
+		return errors.sum();
+	}
+
+	/**
+	 * @return the counters then a line per timed command and per stage, in microseconds.
+	 */
+	public String report() {
+		StringBuilder report = new StringBuilder(String.format(Locale.ROOT,
+				"SMTP metrics: %d messages, %d bytes, %d rejections, %d errors",
+				getMessages(), getBytes(), getRejections(), getErrors()));
+		getCommands().forEach((verb, histogram) -> report.append(String.format(Locale.ROOT, "%n  %-8s %s", verb, histogram)));
+		stages.forEach((stage, histogram) -> report.append(String.format(Locale.ROOT, "%n  %-8s %s", stage, histogram)));
+		return report.toString();
+	}
+}
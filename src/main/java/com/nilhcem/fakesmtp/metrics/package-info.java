@@ -0,0 +1,7 @@
+/**
+ * Provides the latency histograms and counters of the SMTP server.
+ */
+@NullMarked
+package com.nilhcem.fakesmtp.metrics;
+
+import org.jspecify.annotations.NullMarked;
@@ -0,0 +1,122 @@
+package com.nilhcem.fakesmtp.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Gives a unique integer identifier to each email address (sender or recipient), and keeps a single
+ * instance of each address.
+ * <p>
+ * Addresses are interned when they are received (at {@code MAIL FROM} and {@code RCPT TO}), then the models,
+ * the catalog and the views only keep their identifiers: an address is stored once, however many emails
+ * it appears in, and comparing addresses is comparing integers.<br>
+ * Identifiers are given in sequence, starting at 0, and are never reused.
+ * </p>
+ * <p>
+ * Looking up an address or an identifier never locks. Only the first interning of an address is synchronized.
+ * </p>
+ */
+public final class AddressDictionary {
+
+	/**
+	 * Returned by {@link #find(String)} for an unknown address.
+	 */
+	public static final int UNKNOWN = -1;
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+	/**
+	 * Written before the identifier is published in {@link #ids}, so an address is always visible
+	 * to the threads which know its identifier.
+	 */
+	private volatile String[] addresses = new String[INITIAL_CAPACITY];
+	private int size; // guarded by this
+
+	/**
+	 * Returns the identifier of an address, giving it a new one if it was never seen before.
+	 *
+	 * @param address an email address.
+	 * @return the identifier of the address.
+	 */
+	public int intern(String address) {
+		Integer id = ids.get(address);
+		if (id != null) {
+			return id;
+		}
+		synchronized (this) {
+			id = ids.get(address);
+			if (id != null) {
+				return id;
+			}
+			String[] array = addresses;
+			if (size == array.length) {
+				array = Arrays.copyOf(array, size * 2);
+			}
+			array[size] = address;
+			addresses = array;
+			ids.put(address, size);
+			return size++;
+		}
+	}
+
+	/**
+	 * Interns several addresses.
+	 *
+	 * @param addresses email addresses.
+	 * @return their identifiers, in the same order.
+	 */
+	public int[] intern(List<String> addresses) {
+		int[] result = new int[addresses.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = intern(addresses.get(i));
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the identifier of an address, without interning it.
+	 *
+	 * @param address an email address.
+	 * @return the identifier of the address, or {@link #UNKNOWN} if it was never interned.
+	 */
+	public int find(String address) {
+		Integer id = ids.get(address);
+		return id == null ? UNKNOWN : id;
+	}
+
+	/**
+	 * @param id an identifier given by this dictionary.
+	 * @return the address.
+	 * @throws IllegalArgumentException if the identifier wasn't given by this dictionary.
+	 */
+	public String get(int id) {
+		String[] array = addresses;
+		if (id < 0 || id >= array.length || array[id] == null) {
+			throw new IllegalArgumentException("Unknown address id " + id);
+		}
+		return array[id];
+	}
+
+	/**
+	 * @param ids identifiers given by this dictionary.
+	 * @return the addresses, in the same order.
+	 */
+	public List<String> get(int[] ids) {
+		List<String> result = new ArrayList<>(ids.length);
+		for (int id : ids) {
+			result.add(get(id));
+		}
+		return result;
+	}
+
+	/**
+	 * @return the number of distinct addresses.
+	 */
+	public int size() {
+		return ids.size();
+	}
+}
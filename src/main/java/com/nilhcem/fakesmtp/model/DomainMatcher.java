@@ -0,0 +1,74 @@
+package com.nilhcem.fakesmtp.model;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Matches the domain of email addresses against a list of domains, such as the relay domains.
+ * <p>
+ * A domain such as {@code example.com} matches the addresses of this domain and of its subdomains
+ * ({@code user@example.com}, {@code user@mail.example.com}), but not {@code user@evilexample.com}.<br>
+ * A domain starting with {@code @}, such as {@code @example.com}, only matches the addresses of this domain,
+ * and a whole address only matches itself. The case is ignored.
+ * </p>
+ * <p>
+ * Looking up an address costs a hash lookup per label of its domain, whatever the number of domains.
+ * The matcher is immutable, so it can be used by all the SMTP sessions without lock.
+ * </p>
+ */
+public final class DomainMatcher {
+
+	/**
+	 * The domains whose subdomains match too.
+	 */
+	private final Set<String> domains = new HashSet<>();
+	private final Set<String> exactDomains = new HashSet<>();
+	private final Set<String> addresses = new HashSet<>();
+
+	/**
+	 * @param values the domains, {@code @}-prefixed domains and addresses to match.
+	 */
+	public DomainMatcher(Collection<String> values) {
+		for (String value : values) {
+			String normalized = normalize(value.trim());
+			int at = normalized.indexOf('@');
+			if (at < 0) {
+				domains.add(normalized);
+			} else if (at == 0) {
+				exactDomains.add(normalized.substring(1));
+			} else {
+				addresses.add(normalized);
+			}
+		}
+	}
+
+	/**
+	 * @param address an email address, such as a recipient.
+	 * @return whether the address or its domain is matched.
+	 */
+	public boolean matches(String address) {
+		String normalized = normalize(address);
+		if (addresses.contains(normalized)) {
+			return true;
+		}
+		String domain = normalized.substring(normalized.lastIndexOf('@') + 1);
+		if (exactDomains.contains(domain) || domains.contains(domain)) {
+			return true;
+		}
+		// The parent domains, from the closest one
+		for (int dot = domain.indexOf('.'); dot >= 0; dot = domain.indexOf('.', dot + 1)) {
+			if (domains.contains(domain.substring(dot + 1))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static String normalize(String value) {
+		String lowerCase = value.toLowerCase(Locale.ROOT);
+		// A fully qualified domain may end with a dot
+		return lowerCase.endsWith(".") ? lowerCase.substring(0, lowerCase.length() - 1) : lowerCase;
+	}
+}
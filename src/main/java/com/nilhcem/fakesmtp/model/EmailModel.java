@@ -8,18 +8,48 @@ import java.util.List;
  * A model representing a received email.
  * <p>
  * This object will be created and sent to observers by the {@code MailSaver} object.<br>
- * It contains useful data such as the content of the email and its path in the file system.
+ * It contains useful data such as its unique identifier (increasing with the reception time), a handle on the content of the email and its path in the file system.<br>
+ * The content itself is only loaded when it is needed, so keeping a model costs a few hundred bytes, whatever the size of the email.
+ * </p>
+ * <p>
+ * The sender and the recipients are kept as identifiers of the {@link AddressDictionary}.
  * </p>
  *
  * @author Nilhcem
  * @since 1.0
  */
 public record EmailModel(
+		long id,
 		LocalDateTime receivedDate,
-		String from,
-		List<String> recipients,
+		AddressDictionary addresses,
+		int fromId,
+		int[] recipientIds,
 		String subject,
-		String emailContent,
+		MailContent content,
 		Path filePath
 ) {
-}
\ No newline at end of file
+
+	/**
+	 * @return the user who sent the email.
+	 */
+	public String from() {
+		return addresses.get(fromId);
+	}
+
+	/**
+	 * @return the recipients of the email.
+	 */
+	public List<String> recipients() {
+		return addresses.get(recipientIds);
+	}
+
+	/**
+	 * Returns the content of the email, decoded as UTF-8.
+	 *
+	 * @return the content of the email, loaded lazily.
+	 * @see MailContent#asString()
+	 */
+	public String emailContent() {
+		return content.asString();
+	}
+}
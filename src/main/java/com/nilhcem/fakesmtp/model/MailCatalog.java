@@ -0,0 +1,286 @@
+package com.nilhcem.fakesmtp.model;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongPredicate;
+
+/**
+ * Compact, append-only catalog of the received emails, one row per email, in the order they were listed.
+ * <p>
+ * The catalog is stored by column, in primitive arrays: identifier, reception timestamp and size of each email,
+ * and the sender and recipients as identifiers of the {@link AddressDictionary}.
+ * No string is kept per row (the subject is read from the store when it is displayed):
+ * a row costs a few tens of bytes, whatever the email, so millions of emails can be listed.
+ * </p>
+ * <p>
+ * The catalog can be read concurrently, appends and removals being exclusive.
+ * </p>
+ */
+public final class MailCatalog {
+
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	private int size;
+	private long[] ids = new long[INITIAL_CAPACITY];
+	private long[] timestamps = new long[INITIAL_CAPACITY];
+	private long[] lengths = new long[INITIAL_CAPACITY];
+	private int[] senders = new int[INITIAL_CAPACITY];
+	/**
+	 * The recipients of row {@code i} are {@code recipients[recipientStarts[i]]} to {@code recipients[recipientStarts[i + 1] - 1]}.
+	 */
+	private int[] recipientStarts = new int[INITIAL_CAPACITY + 1];
+	private int[] recipients = new int[INITIAL_CAPACITY];
+
+	private final AddressDictionary addresses;
+
+	/**
+	 * Creates an empty catalog.
+	 *
+	 * @param addresses the dictionary of the addresses of the emails which will be added.
+	 */
+	public MailCatalog(AddressDictionary addresses) {
+		this.addresses = addresses;
+	}
+
+	/**
+	 * Adds an email at the end of the catalog.
+	 *
+	 * @param email the email to add.
+	 * @return the row of the email.
+	 */
+	public int append(EmailModel email) {
+		lock.writeLock().lock();
+		try {
+			int row = size;
+			ensureCapacity(row + 1);
+			int recipientStart = recipientStarts[row];
+			int[] recipientIds = email.recipientIds();
+			ensureRecipientsCapacity(recipientStart + recipientIds.length);
+
+			ids[row] = email.id();
+			timestamps[row] = email.receivedDate().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+			lengths[row] = email.content().length();
+			senders[row] = email.fromId();
+			System.arraycopy(recipientIds, 0, recipients, recipientStart, recipientIds.length);
+			recipientStarts[row + 1] = recipientStart + recipientIds.length;
+			size++;
+			return row;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes all the rows.
+	 */
+	public void clear() {
+		lock.writeLock().lock();
+		try {
+			size = 0;
+			recipientStarts[0] = 0;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * Removes the rows of some emails, the following rows being moved up.
+	 *
+	 * @param filter tells whether to remove an email, given its identifier.
+	 * @return the removed rows (before the removal), in ascending order.
+	 */
+	public int[] removeIf(LongPredicate filter) {
+		lock.writeLock().lock();
+		try {
+			int[] removed = new int[0];
+			int removedCount = 0;
+			int kept = 0;
+			int keptRecipients = 0;
+			for (int row = 0; row < size; row++) {
+				if (filter.test(ids[row])) {
+					if (removedCount == removed.length) {
+						removed = Arrays.copyOf(removed, Math.max(16, removedCount * 2));
+					}
+					removed[removedCount++] = row;
+					continue;
+				}
+				int recipientStart = recipientStarts[row];
+				int recipientCount = recipientStarts[row + 1] - recipientStart;
+				ids[kept] = ids[row];
+				timestamps[kept] = timestamps[row];
+				lengths[kept] = lengths[row];
+				senders[kept] = senders[row];
+				System.arraycopy(recipients, recipientStart, recipients, keptRecipients, recipientCount);
+				recipientStarts[kept] = keptRecipients;
+				keptRecipients += recipientCount;
+				kept++;
+			}
+			recipientStarts[kept] = keptRecipients;
+			size = kept;
+			return Arrays.copyOf(removed, removedCount);
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * @return the number of rows.
+	 */
+	public int size() {
+		lock.readLock().lock();
+		try {
+			return size;
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @param row a row of the catalog.
+	 * @return the unique identifier of the email.
+	 */
+	public long id(int row) {
+		lock.readLock().lock();
+		try {
+			return ids[checkRow(row)];
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @param row a row of the catalog.
+	 * @return the date the email was received.
+	 */
+	public LocalDateTime receivedDate(int row) {
+		long timestamp;
+		lock.readLock().lock();
+		try {
+			timestamp = timestamps[checkRow(row)];
+		} finally {
+			lock.readLock().unlock();
+		}
+		return LocalDateTime.ofInstant(Instant.ofEpochMilli(timestamp), ZoneId.systemDefault());
+	}
+
+	/**
+	 * @param row a row of the catalog.
+	 * @return the size of the raw content of the email, in bytes.
+	 */
+	public long length(int row) {
+		lock.readLock().lock();
+		try {
+			return lengths[checkRow(row)];
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @param row a row of the catalog.
+	 * @return the sender of the email.
+	 */
+	public String from(int row) {
+		return addresses.get(fromId(row));
+	}
+
+	/**
+	 * @param row a row of the catalog.
+	 * @return the identifier of the sender of the email.
+	 */
+	public int fromId(int row) {
+		lock.readLock().lock();
+		try {
+			return senders[checkRow(row)];
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * @param row a row of the catalog.
+	 * @return the recipients of the email.
+	 */
+	public List<String> recipients(int row) {
+		return addresses.get(recipientIds(row));
+	}
+
+	/**
+	 * @param row a row of the catalog.
+	 * @return the identifiers of the recipients of the email.
+	 */
+	public int[] recipientIds(int row) {
+		lock.readLock().lock();
+		try {
+			checkRow(row);
+			return Arrays.copyOfRange(recipients, recipientStarts[row], recipientStarts[row + 1]);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Finds the rows of the emails sent by an address.
+	 *
+	 * @param address a sender address.
+	 * @return the rows, in ascending order.
+	 */
+	public int[] rowsFrom(String address) {
+		int addressId = addresses.find(address);
+		return addressId == AddressDictionary.UNKNOWN ? new int[0] : rowsFrom(addressId);
+	}
+
+	/**
+	 * Finds the rows of the emails sent by an address.
+	 *
+	 * @param addressId the identifier of a sender address.
+	 * @return the rows, in ascending order.
+	 */
+	public int[] rowsFrom(int addressId) {
+		lock.readLock().lock();
+		try {
+			// Integer comparisons only
+			int[] rows = new int[size];
+			int count = 0;
+			for (int row = 0; row < size; row++) {
+				if (senders[row] == addressId) {
+					rows[count++] = row;
+				}
+			}
+			return Arrays.copyOf(rows, count);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	private int checkRow(int row) {
+		if (row < 0 || row >= size) {
+			throw new IndexOutOfBoundsException("Row " + row + " out of " + size);
+		}
+		return row;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > ids.length) {
+			int newCapacity = Math.max(capacity, ids.length + (ids.length >> 1));
+			ids = Arrays.copyOf(ids, newCapacity);
+			timestamps = Arrays.copyOf(timestamps, newCapacity);
+			lengths = Arrays.copyOf(lengths, newCapacity);
+			senders = Arrays.copyOf(senders, newCapacity);
+			recipientStarts = Arrays.copyOf(recipientStarts, newCapacity + 1);
+		}
+	}
+
+	private void ensureRecipientsCapacity(int capacity) {
+		if (capacity > recipients.length) {
+			recipients = Arrays.copyOf(recipients, Math.max(capacity, recipients.length + (recipients.length >> 1)));
+		}
+	}
+}
@@ -0,0 +1,180 @@
+package com.nilhcem.fakesmtp.model;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.ref.SoftReference;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A lightweight handle on the raw content of a received email.
+ * <p>
+ * The handle only knows where the content is (a file region, or a byte array in memory mode):
+ * the content is loaded lazily when it is needed, and the decoded text is cached in a soft reference,
+ * so it can be reclaimed by the garbage collector when the heap is running low.
+ * </p>
+ */
+public abstract class MailContent {
+
+	private static final Logger log = LoggerFactory.getLogger(MailContent.class);
+
+	/**
+	 * An empty content, for emails which couldn't be saved.
+	 */
+	public static final MailContent EMPTY = ofBytes(new byte[0]);
+
+	private volatile SoftReference<String> text = new SoftReference<>(null);
+
+	/**
+	 * @return the size of the raw content, in bytes.
+	 */
+	public abstract long length();
+
+	/**
+	 * Opens a new stream to read the raw content from the beginning.
+	 *
+	 * @return a stream on the raw content.
+	 * @throws IOException if the content can't be read.
+	 */
+	public abstract InputStream openStream() throws IOException;
+
+	/**
+	 * Returns the content decoded as UTF-8.
+	 * <p>
+	 * The content is loaded the first time, then cached until the garbage collector needs the memory back.
+	 * </p>
+	 *
+	 * @return the decoded content, or an empty string if it can't be read.
+	 */
+	public String asString() {
+		String result = text.get();
+		if (result == null) {
+			try (InputStream in = openStream()) {
+				result = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+			} catch (IOException e) {
+				log.error("", e);
+				return "";
+			}
+			text = new SoftReference<>(result);
+		}
+		return result;
+	}
+
+	/**
+	 * Creates a handle on a region of a file.
+	 *
+	 * @param file the file containing the email.
+	 * @param offset the position of the first byte of the email in the file.
+	 * @param length the size of the email, in bytes.
+	 * @return the content handle.
+	 */
+	public static MailContent ofFile(Path file, long offset, long length) {
+		return new FileContent(file, offset, length);
+	}
+
+	/**
+	 * Creates a handle on some bytes kept in memory.
+	 *
+	 * @param content the raw content of the email, which must not be modified afterwards.
+	 * @return the content handle.
+	 */
+	public static MailContent ofBytes(byte[] content) {
+		return new BytesContent(content);
+	}
+
+	private static final class FileContent extends MailContent {
+		private final Path file;
+		private final long offset;
+		private final long length;
+
+		FileContent(Path file, long offset, long length) {
+			this.file = file;
+			this.offset = offset;
+			this.length = length;
+		}
+
+		@Override
+		public long length() {
+			return length;
+		}
+
+		@Override
+		public InputStream openStream() throws IOException {
+			FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+			try {
+				channel.position(offset);
+			} catch (IOException e) {
+				channel.close();
+				throw e;
+			}
+			return new BoundedInputStream(Channels.newInputStream(channel), length);
+		}
+	}
+
+	private static final class BytesContent extends MailContent {
+		private final byte[] content;
+
+		BytesContent(byte[] content) {
+			this.content = content;
+		}
+
+		@Override
+		public long length() {
+			return content.length;
+		}
+
+		@Override
+		public InputStream openStream() {
+			return new ByteArrayInputStream(content);
+		}
+	}
+
+	/**
+	 * Reads at most a given number of bytes from an underlying stream.
+	 */
+	private static final class BoundedInputStream extends InputStream {
+		private final InputStream in;
+		private long remaining;
+
+		BoundedInputStream(InputStream in, long length) {
+			this.in = in;
+			this.remaining = length;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (remaining <= 0) {
+				return -1;
+			}
+			int b = in.read();
+			if (b != -1) {
+				remaining--;
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (remaining <= 0) {
+				return -1;
+			}
+			int read = in.read(b, off, (int) Math.min(len, remaining));
+			if (read > 0) {
+				remaining -= read;
+			}
+			return read;
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+}
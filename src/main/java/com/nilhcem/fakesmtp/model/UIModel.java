@@ -4,10 +4,6 @@ import com.nilhcem.fakesmtp.core.I18n;
 import lombok.Getter;
 import lombok.Setter;
 
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-
 /**
  * UI presentation model of the application.
  * <p>
@@ -38,10 +34,15 @@ public enum UIModel {
 	@Setter
 	private String savePath = I18n.INSTANCE.get("emails.default.dir");
 	@Getter
-	private final Map<Integer, String> listMailsMap = new HashMap<>();
+	private final AddressDictionary addresses = new AddressDictionary();
+	@Getter
+	private final MailCatalog catalog = new MailCatalog(addresses);
+	/**
+	 * The domains the emails are accepted for, or {@code null} to accept all the emails.
+	 */
 	@Getter
 	@Setter
-	private List<String> relayDomains;
+	private DomainMatcher relayDomains;
 
 	UIModel() {
 	}
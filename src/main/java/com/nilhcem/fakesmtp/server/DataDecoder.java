@@ -0,0 +1,114 @@
+package com.nilhcem.fakesmtp.server;
+
+/**
+ * Decodes the DATA bytes of an SMTP transaction incrementally, as they are received.
+ * <p>
+ * The leading dot of the lines starting with a dot is removed, and the end of the data
+ * (a line only made of a dot) is detected, whatever the way the bytes are split between the reads.
+ * The final line ending before the dot belongs to the email.
+ * </p>
+ */
+final class DataDecoder {
+
+	/**
+	 * Receives the decoded bytes.
+	 */
+	interface Sink {
+		void write(byte[] b, int off, int len);
+	}
+
+	private enum State {
+		LINE_START,
+		TEXT,
+		CR,
+		/**
+		 * A dot was read at the beginning of a line.
+		 */
+		DOT,
+		/**
+		 * A dot then a CR were read at the beginning of a line: the CR is held until the next byte is known.
+		 */
+		DOT_CR
+	}
+
+	private static final byte[] CR = {'\r'};
+
+	private State state = State.LINE_START;
+	private boolean complete;
+
+	/**
+	 * Decodes received bytes, up to the end of the data.
+	 *
+	 * @param b the received bytes.
+	 * @param off the offset of the first byte.
+	 * @param len the number of bytes.
+	 * @param sink where the decoded bytes are written.
+	 * @return the number of bytes consumed, less than {@code len} if the end of the data was reached
+	 * (the next bytes are the next commands).
+	 */
+	int decode(byte[] b, int off, int len, Sink sink) {
+		int end = off + len;
+		int run = off;
+		int i = off;
+		while (i < end && !complete) {
+			byte c = b[i];
+			switch (state) {
+				case LINE_START -> {
+					if (c == '.') {
+						// The dot isn't part of the email
+						flush(b, run, i, sink);
+						run = i + 1;
+						state = State.DOT;
+					} else {
+						state = c == '\r' ? State.CR : State.TEXT;
+					}
+				}
+				case TEXT -> {
+					if (c == '\r') {
+						state = State.CR;
+					}
+				}
+				case CR -> state = c == '\n' ? State.LINE_START : c == '\r' ? State.CR : State.TEXT;
+				case DOT -> {
+					if (c == '\r') {
+						flush(b, run, i, sink);
+						run = i + 1;
+						state = State.DOT_CR;
+					} else {
+						state = State.TEXT;
+					}
+				}
+				case DOT_CR -> {
+					if (c == '\n') {
+						complete = true;
+						run = i + 1;
+					} else {
+						// The held CR was part of a line starting with a dot
+						sink.write(CR, 0, 1);
+						run = i;
+						state = State.CR;
+						continue;
+					}
+				}
+			}
+			i++;
+		}
+		if (!complete) {
+			flush(b, run, end, sink);
+		}
+		return i - off;
+	}
+
+	/**
+	 * @return whether the end of the data was reached.
+	 */
+	boolean isComplete() {
+		return complete;
+	}
+
+	private static void flush(byte[] b, int from, int to, Sink sink) {
+		if (to > from) {
+			sink.write(b, from, to - from);
+		}
+	}
+}
@@ -0,0 +1,126 @@
+package com.nilhcem.fakesmtp.server;
+
+import jakarta.mail.internet.MimeUtility;
+import org.jspecify.annotations.Nullable;
+
+import java.io.UnsupportedEncodingException;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Index of the main headers of an email, built by a {@link HeaderIndexer} while the email is received.
+ * <p>
+ * Each indexed header keeps its unfolded raw value, as well as the position of the whole field
+ * (name, value and folded lines) in the raw content of the email.
+ * </p>
+ */
+public final class HeaderIndex {
+
+	/**
+	 * The headers which are indexed.
+	 */
+	public enum Header {
+		FROM("From"),
+		TO("To"),
+		CC("Cc"),
+		SUBJECT("Subject"),
+		DATE("Date"),
+		MESSAGE_ID("Message-ID"),
+		CONTENT_TYPE("Content-Type");
+
+		private final String fieldName;
+
+		Header(String fieldName) {
+			this.fieldName = fieldName;
+		}
+
+		/**
+		 * @return the name of the header, as written in emails.
+		 */
+		public String fieldName() {
+			return fieldName;
+		}
+
+		/**
+		 * Finds the header matching a field name, ignoring case.
+		 *
+		 * @param name a field name read from an email.
+		 * @return the matching header, or {@code null} if this header is not indexed.
+		 */
+		static @Nullable Header of(String name) {
+			return switch (name.toLowerCase(Locale.ROOT)) {
+				case "from" -> FROM;
+				case "to" -> TO;
+				case "cc" -> CC;
+				case "subject" -> SUBJECT;
+				case "date" -> DATE;
+				case "message-id" -> MESSAGE_ID;
+				case "content-type" -> CONTENT_TYPE;
+				default -> null;
+			};
+		}
+	}
+
+	/**
+	 * An indexed header field.
+	 *
+	 * @param offset the position of the first byte of the field in the email.
+	 * @param length the size of the field in bytes, folded lines and line terminators included.
+	 * @param value the unfolded value of the field, not decoded.
+	 */
+	public record Field(long offset, int length, String value) {
+	}
+
+	/**
+	 * An index without any header, for emails whose header section was not parsed.
+	 */
+	public static final HeaderIndex EMPTY = new HeaderIndex(new EnumMap<>(Header.class), -1);
+
+	private final Map<Header, Field> fields;
+	private final long bodyOffset;
+
+	HeaderIndex(Map<Header, Field> fields, long bodyOffset) {
+		this.fields = fields;
+		this.bodyOffset = bodyOffset;
+	}
+
+	/**
+	 * @param header the header to look for.
+	 * @return the first field found for this header, or {@code null} if the email doesn't contain it.
+	 */
+	public @Nullable Field field(Header header) {
+		return fields.get(header);
+	}
+
+	/**
+	 * @param header the header to look for.
+	 * @return the unfolded raw value of the header, or an empty string if the email doesn't contain it.
+	 */
+	public String get(Header header) {
+		Field field = fields.get(header);
+		return field == null ? "" : field.value();
+	}
+
+	/**
+	 * Returns the value of a header, with its RFC 2047 encoded words decoded.
+	 *
+	 * @param header the header to look for.
+	 * @return the decoded value, or an empty string if the email doesn't contain this header.
+	 */
+	public String decoded(Header header) {
+		String value = get(header);
+		try {
+			return MimeUtility.decodeText(value);
+		} catch (UnsupportedEncodingException e) {
+			return value;
+		}
+	}
+
+	/**
+	 * @return the position of the first byte of the body, or {@code -1} if the end of the header section was not found.
+	 */
+	public long bodyOffset() {
+		return bodyOffset;
+	}
+}
@@ -0,0 +1,138 @@
+package com.nilhcem.fakesmtp.server;
+
+import com.nilhcem.fakesmtp.server.HeaderIndex.Field;
+import com.nilhcem.fakesmtp.server.HeaderIndex.Header;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Builds a {@link HeaderIndex} in a single pass, while the raw bytes of an email are being received.
+ * <p>
+ * The indexer is fed with the same chunks as the message buffer, and ignores everything once the empty line
+ * separating the header section from the body was found, so the body is never scanned.<br>
+ * Folded header fields are unfolded, and the position of each indexed field is kept.
+ * </p>
+ * <p>
+ * An indexer is used for a single email, and is not thread-safe.
+ * </p>
+ */
+public final class HeaderIndexer {
+
+	/**
+	 * Stops indexing when the header section is bigger than this size (in bytes).
+	 */
+	private static final int MAX_HEADER_SECTION = 1024 * 1024;
+	/**
+	 * Bytes of a single field which are kept, the remaining ones are ignored.
+	 */
+	private static final int MAX_FIELD_LENGTH = 64 * 1024;
+
+	private final Map<Header, Field> fields = new EnumMap<>(Header.class);
+	private final ByteArrayOutputStream field = new ByteArrayOutputStream(256);
+
+	private long position;
+	private long lineStart;
+	private long fieldStart = -1;
+	private boolean atLineStart = true;
+	private boolean complete;
+	private long bodyOffset = -1;
+
+	/**
+	 * Indexes the next chunk of the email.
+	 *
+	 * @param b the bytes received.
+	 * @param off the start offset in the array.
+	 * @param len the number of bytes to index.
+	 */
+	public void update(byte[] b, int off, int len) {
+		int end = off + len;
+		for (int i = off; i < end && !complete && position < MAX_HEADER_SECTION; i++, position++) {
+			byte c = b[i];
+			if (atLineStart) {
+				if (c == '\r') {
+					continue; // Either an empty line (CRLF), or a stray CR which is skipped
+				}
+				atLineStart = false;
+				if (c == '\n') {
+					// Empty line: end of the header section
+					endField(lineStart);
+					bodyOffset = position + 1;
+					complete = true;
+					continue;
+				}
+				if (c != ' ' && c != '\t') {
+					// Not a folded line: a new field starts
+					endField(position);
+					fieldStart = position;
+				}
+			}
+			if (c == '\n') {
+				atLineStart = true;
+				lineStart = position + 1;
+			} else if (c != '\r' && field.size() < MAX_FIELD_LENGTH) {
+				field.write(c);
+			}
+		}
+		if (position >= MAX_HEADER_SECTION && !complete) {
+			// The field being read when the maximum is reached is indexed as far as it was read
+			endField(position);
+			complete = true;
+		}
+	}
+
+	/**
+	 * @return whether the end of the header section was reached (the following bytes will be ignored).
+	 */
+	public boolean isComplete() {
+		return complete;
+	}
+
+	/**
+	 * Returns the index of the headers found so far.
+	 * <p>
+	 * Should be called once the whole email (or at least its header section) was indexed.
+	 * </p>
+	 *
+	 * @return the header index.
+	 */
+	public HeaderIndex toIndex() {
+		if (!complete) {
+			endField(position);
+		}
+		return new HeaderIndex(new EnumMap<>(fields), bodyOffset);
+	}
+
+	/**
+	 * Indexes the current field, if it is one of the indexed headers.
+	 *
+	 * @param end the position following the last byte of the field.
+	 */
+	private void endField(long end) {
+		if (fieldStart < 0) {
+			return;
+		}
+		byte[] bytes = field.toByteArray();
+		int colon = indexOf(bytes, (byte) ':');
+		if (colon > 0) {
+			Header header = Header.of(new String(bytes, 0, colon, StandardCharsets.US_ASCII).trim());
+			if (header != null && !fields.containsKey(header)) {
+				String value = new String(bytes, colon + 1, bytes.length - colon - 1, StandardCharsets.UTF_8).strip();
+				fields.put(header, new Field(fieldStart, (int) (end - fieldStart), value));
+			}
+		}
+		field.reset();
+		fieldStart = -1;
+	}
+
+	private static int indexOf(byte[] bytes, byte value) {
+		for (int i = 0; i < bytes.length; i++) {
+			if (bytes[i] == value) {
+				return i;
+			}
+		}
+		return -1;
+	}
+}
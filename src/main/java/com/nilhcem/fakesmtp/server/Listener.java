@@ -0,0 +1,104 @@
+package com.nilhcem.fakesmtp.server;
+
+import org.jspecify.annotations.Nullable;
+
+import java.util.Locale;
+
+/**
+ * An address and port the SMTP server listens on, with the settings of the sessions accepted there.
+ * <p>
+ * All the listeners feed the same {@link MailSaver}, so the emails received on any of them are stored and displayed
+ * together, in the order they were received.
+ * </p>
+ *
+ * @param host the address or host name to bind to, or {@code null} to bind to all the local addresses
+ *             (IPv4 and IPv6, on dual-stack hosts).
+ * @param port the port to listen on.
+ * @param tls whether the {@code STARTTLS} command is supported, with the SSL context of the JVM
+ *            (see the {@code javax.net.ssl.keyStore} system property).
+ * @param requireTls whether the clients must use {@code STARTTLS} before sending emails.
+ * @param requireAuth whether the clients must authenticate before sending emails.
+ */
+public record Listener(@Nullable String host, int port, boolean tls, boolean requireTls, boolean requireAuth) {
+
+	/**
+	 * Creates a listener with the default settings: no TLS, and no authentication required.
+	 *
+	 * @param host the address or host name to bind to, or {@code null} to bind to all the local addresses.
+	 * @param port the port to listen on.
+	 */
+	public Listener(@Nullable String host, int port) {
+		this(host, port, false, false, false);
+	}
+
+	/**
+	 * Parses a listener, such as {@code 2525}, {@code 127.0.0.1:25}, {@code [::1]:25} or {@code 587/tls,require-auth}.
+	 * <p>
+	 * The format is {@code [host:]port[/setting,...]}, an IPv6 address being written between brackets.
+	 * The settings are {@code tls}, {@code require-tls} (which implies {@code tls}) and {@code require-auth}.
+	 * </p>
+	 *
+	 * @param value the listener to parse.
+	 * @return the listener.
+	 * @throws IllegalArgumentException if the value isn't a valid listener.
+	 */
+	public static Listener parse(String value) {
+		String address = value.trim();
+		String settings = "";
+		int slash = address.indexOf('/');
+		if (slash >= 0) {
+			settings = address.substring(slash + 1);
+			address = address.substring(0, slash);
+		}
+
+		String host = null;
+		String port = address;
+		int colon = address.lastIndexOf(':');
+		if (address.startsWith("[")) {
+			int bracket = address.indexOf(']');
+			if (bracket < 0 || colon != bracket + 1) {
+				throw new IllegalArgumentException("Invalid listener address: " + value);
+			}
+			host = address.substring(1, bracket);
+			port = address.substring(colon + 1);
+		} else if (colon >= 0) {
+			if (address.indexOf(':') != colon) {
+				throw new IllegalArgumentException("IPv6 addresses must be written between brackets: " + value);
+			}
+			host = address.substring(0, colon);
+			port = address.substring(colon + 1);
+		}
+		if (host != null && host.isEmpty()) {
+			throw new IllegalArgumentException("Invalid listener address: " + value);
+		}
+
+		boolean tls = false;
+		boolean requireTls = false;
+		boolean requireAuth = false;
+		for (String setting : settings.split(",")) {
+			switch (setting.trim().toLowerCase(Locale.ROOT)) {
+				case "" -> {
+				}
+				case "tls" -> tls = true;
+				case "require-tls" -> {
+					tls = true;
+					requireTls = true;
+				}
+				case "require-auth" -> requireAuth = true;
+				default -> throw new IllegalArgumentException("Unknown listener setting: " + setting);
+			}
+		}
+
+		try {
+			return new Listener(host, Integer.parseInt(port.trim()), tls, requireTls, requireAuth);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("Invalid listener port: " + value, e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		String address = host == null ? "*" : host.indexOf(':') >= 0 ? "[" + host + "]" : host;
+		return address + ":" + port;
+	}
+}
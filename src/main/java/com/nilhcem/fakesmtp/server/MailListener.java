@@ -25,7 +25,7 @@ public final class MailListener implements SimpleMessageListener {
 	}
 
 	/**
-	 * Accepts all kind of email <i>(always return true)</i>.
+	 * Accepts the emails for the recipients matching the relay domains.
 	 * <p>
 	 * Called once for every RCPT TO during a SMTP exchange.<br>
      * Each accepted recipient will result in a separate deliver() call later.
@@ -33,10 +33,10 @@ public final class MailListener implements SimpleMessageListener {
      *
 	 * @param from the user who send the email.
 	 * @param recipient the recipient of the email.
-	 * @return always return {@code true}
+	 * @return whether the recipient matches the relay domains.
 	 */
 	public boolean accept(String from, String recipient) {
-		return true;
+		return saver.isRelayed(recipient);
 	}
 
     /**
@@ -2,33 +2,39 @@ package com.nilhcem.fakesmtp.server;
 
 import com.nilhcem.fakesmtp.core.ArgsHandler;
 import com.nilhcem.fakesmtp.core.Configuration;
+import com.nilhcem.fakesmtp.core.Configuration.Settings;
+import com.nilhcem.fakesmtp.event.EventBus;
+import com.nilhcem.fakesmtp.metrics.SmtpMetrics;
+import com.nilhcem.fakesmtp.metrics.SmtpMetrics.Stage;
+import com.nilhcem.fakesmtp.model.AddressDictionary;
+import com.nilhcem.fakesmtp.model.DomainMatcher;
 import com.nilhcem.fakesmtp.model.EmailModel;
+import com.nilhcem.fakesmtp.model.MailContent;
 import com.nilhcem.fakesmtp.model.UIModel;
+import com.nilhcem.fakesmtp.server.HeaderIndex.Header;
+import com.nilhcem.fakesmtp.store.Durability;
+import com.nilhcem.fakesmtp.store.FileMailStore;
+import com.nilhcem.fakesmtp.store.MailIdGenerator;
+import com.nilhcem.fakesmtp.store.MailStore;
+import com.nilhcem.fakesmtp.store.MailStore.Capability;
+import com.nilhcem.fakesmtp.store.MemoryMailStore;
+import com.nilhcem.fakesmtp.store.StoreType;
+import com.nilhcem.fakesmtp.store.WriteBehindWriter;
 import org.jspecify.annotations.NullMarked;
 import org.jspecify.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.StringReader;
-import java.nio.charset.Charset;
-import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.time.LocalDateTime;
-import java.time.format.DateTimeFormatter;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.Flow;
-import java.util.concurrent.SubmissionPublisher;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
-import static java.nio.file.StandardOpenOption.CREATE_NEW;
-import static java.nio.file.StandardOpenOption.WRITE;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Saves emails and notifies components, so they can refresh their views with new data.
@@ -41,32 +47,69 @@ public final class MailSaver {
 
 	private static final Logger log = LoggerFactory.getLogger(MailSaver.class);
 
-	private static final String LINE_SEPARATOR = System.lineSeparator();
-	// This can be a static variable since it is Thread Safe
-	private static final Pattern SUBJECT_PATTERN = Pattern.compile("^Subject: (.*)$");
+	private static final int DEFAULT_BUFFER_THRESHOLD = 1024 * 1024;
+	private static final int DEFAULT_WRITER_QUEUE_SIZE = 1024;
+	private static final int HEADERS_CHUNK_SIZE = 4096;
 
-	/*
-		DateTimeFormatter symbols used :
-		S fraction-of-second fraction 978
-		n nano-of-second number 987654321
-		H hour-of-day (0-23) number 0
+	private final MailIdGenerator idGenerator = new MailIdGenerator();
+	private final AddressDictionary addresses = UIModel.INSTANCE.getAddresses();
+	private final EventBus eventBus;
+	/**
+	 * The identifiers of the emails which are being saved, until they are stored and published,
+	 * so a clear neither deletes nor hides them (see {@link #lastSavedId()}).
 	 */
-
+	private final ConcurrentSkipListSet<Long> saving = new ConcurrentSkipListSet<>();
 	/**
-	 * Use HH for (0-23) hour format.
-	 * Use n to use nanos (9 digits) instead of milliseconds (3 digits)
+	 * The number of savers between the generation of their identifier and its addition to {@link #saving}.
 	 */
-	private final DateTimeFormatter dateTimeFormatForFilename = DateTimeFormatter.ofPattern("yyyyMMdd.HHmmss.nnnnnnnnn");
+	private final AtomicInteger generating = new AtomicInteger();
 
-	private final SubmissionPublisher<EmailModel> emailPublisher;
+	/**
+	 * Opened the first time an email is saved, once the save directory is known.
+	 */
+	@Nullable
+	private volatile MailStore store;
+	@Nullable
+	private volatile WriteBehindWriter writeBehindWriter;
+	@Nullable
+	private Path exportDirectory;
+	/**
+	 * Guards the opening of the store and the creation of the export directory. Not a monitor, so the virtual threads
+	 * of the SMTP sessions release their carrier thread while waiting for it.
+	 */
+	private final Lock lock = new ReentrantLock();
 
 	public MailSaver() {
-		// can pass Executor as arg
-		this.emailPublisher = new SubmissionPublisher<>();
+		this(EventBus.getInstance());
 	}
 
-	public Flow.Publisher<EmailModel> getEmailPublisher() {
-		return emailPublisher;
+	/**
+	 * @param eventBus the bus where the received emails are published.
+	 */
+	public MailSaver(EventBus eventBus) {
+		this.eventBus = eventBus;
+	}
+
+	/**
+	 * Returns the dictionary where the senders and recipients are interned when they are received.
+	 *
+	 * @return the address dictionary.
+	 */
+	public AddressDictionary getAddresses() {
+		return addresses;
+	}
+
+	/**
+	 * Creates an empty buffer for an incoming email.
+	 * <p>
+	 * The buffer keeps the email on the heap until it reaches the size defined by the
+	 * {@code emails.buffer.threshold} setting, then spills it to a temporary file.
+	 * </p>
+	 *
+	 * @return a new message buffer, which must be closed by the caller.
+	 */
+	public MessageBuffer newMessageBuffer() {
+		return new MessageBuffer(Configuration.getInstance().getInt(Settings.EMAILS_BUFFER_THRESHOLD, DEFAULT_BUFFER_THRESHOLD));
 	}
 
 	/**
@@ -75,165 +118,288 @@ public final class MailSaver {
 	 * @param from the user who send the email.
 	 * @param recipients the recipients of the email.
 	 * @param data an InputStream object containing the email.
-	 * @see com.nilhcem.fakesmtp.gui.MainPanel#addObservers to see which observers will be notified
+	 * @see #saveEmailAndNotify(int, int[], MessageBuffer, HeaderIndex)
 	 */
 	public void saveEmailAndNotify(String from, List<String> recipients, InputStream data) {
-		String mailContent = convertStreamToString(data);
-        saveEmailAndNotify(from , recipients , mailContent);
+		MessageBuffer message = newMessageBuffer();
+		HeaderIndexer indexer = new HeaderIndexer();
+		try {
+			message.readFrom(data, indexer);
+		} catch (IOException e) {
+			log.error("", e);
+			message.close();
+			return;
+		}
+		saveEmailAndNotify(addresses.intern(from), addresses.intern(recipients), message, indexer.toIndex());
 	}
 
-	public void saveEmailAndNotify(String from, List<String> recipients, String mailContent) {
-		List<String> relayDomains = UIModel.INSTANCE.getRelayDomains();
+	/**
+	 * Saves incoming email in the store and publishes it in the {@link EventBus}.
+	 * <p>
+	 * The raw bytes are stored untouched (line endings and 8-bit content are kept).
+	 * </p>
+	 * <p>
+	 * When the write-behind mode is enabled, the email is written by the {@link WriteBehindWriter}, and this
+	 * method returns as soon as the email is acknowledged according to the selected {@link Durability}.
+	 * The email is published once it was written.
+	 * </p>
+	 *
+	 * @param from the user who send the email, interned in the {@link #getAddresses() address dictionary}.
+	 * @param recipients the recipients of the email, interned in the address dictionary.
+	 * @param message the buffered raw content of the email, which will be closed by this method (or by the writer).
+	 * @param headers the headers indexed while the email was received.
+	 * @see com.nilhcem.fakesmtp.gui.MainPanel#addObservers to see which observers will be notified
+	 */
+	public void saveEmailAndNotify(int from, int[] recipients, MessageBuffer message, HeaderIndex headers) {
+		long start = System.nanoTime();
+		SmtpMetrics metrics = SmtpMetrics.INSTANCE;
+		metrics.messageReceived(message.size());
+
+		// Nothing is shared between sessions here: the id is generated without lock, and the stores are thread-safe
+		long id;
+		generating.incrementAndGet();
+		try {
+			id = idGenerator.next();
+			saving.add(id);
+		} finally {
+			generating.decrementAndGet();
+		}
+		String subject = headers.get(Header.SUBJECT);
+		MailStore mailStore = getStore();
 
-		if (relayDomains != null) {
-			for (String recipient : recipients) {
-				boolean matches = relayDomains.stream()
-						.anyMatch(recipient::endsWith);
-				if (!matches) {
-					log.debug("Recipient '{}' doesn't match relay domains", recipient);
-					return;
+		WriteBehindWriter writer = writeBehindWriter;
+		if (writer != null) {
+			try {
+				writer.submit(id, message, content -> {
+					try {
+						notify(mailStore, id, from, recipients, subject, content);
+					} finally {
+						saving.remove(id);
+					}
+				}).join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				message.close();
+				saving.remove(id);
+				metrics.failed();
+			}
+			metrics.stage(Stage.STORE).record(System.nanoTime() - start);
+		} else {
+			try {
+				MailContent content;
+				try (message) {
+					content = mailStore.put(id, message);
+				} catch (IOException e) {
+					// If we can't save the email, we display the error in the SMTP logs
+					LoggerFactory.getLogger(org.subethamail.smtp.server.Session.class).error("Error: Can't save email: {}", e.toString());
+					content = null;
+					metrics.failed();
 				}
+				metrics.stage(Stage.STORE).record(System.nanoTime() - start);
+				notify(mailStore, id, from, recipients, subject, content);
+			} finally {
+				saving.remove(id);
 			}
 		}
+		metrics.stage(Stage.SAVE).record(System.nanoTime() - start);
+	}
 
-		// We move everything that we can move outside the synchronized block to limit the impact
-        String subject = getSubjectFromStr(mailContent);
+	/**
+	 * Returns the store of the emails, opening it the first time.
+	 * <p>
+	 * The store is selected with the {@code --store} option. If it can't be opened, emails are saved in files instead.
+	 * </p>
+	 *
+	 * @return the mail store.
+	 */
+	public MailStore getStore() {
+		MailStore mailStore = store;
+		if (mailStore == null) {
+			lock.lock();
+			try {
+				mailStore = store;
+				if (mailStore == null) {
+					mailStore = openStore();
+					store = mailStore;
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+		return mailStore;
+	}
 
-		synchronized (getLock()) {
-            Path filePath = saveEmailToFile(mailContent);
-			EmailModel model = new EmailModel(LocalDateTime.now(),
-					from, recipients,
-					subject, mailContent,
-                    filePath);
+	private MailStore openStore() {
+		StoreType type = ArgsHandler.INSTANCE.getStoreType();
+		MailStore mailStore;
+		try {
+			mailStore = type.open();
+		} catch (IOException | RuntimeException e) {
+			// Such as an invalid setting of the store: the emails are still received
+			log.error("Impossible to open the {} store, emails are saved in files instead", type.name().toLowerCase(Locale.ROOT), e);
+			mailStore = new FileMailStore();
+		}
+		if (mailStore instanceof MemoryMailStore memoryStore) {
+			// The evicted emails are removed from the list of the received emails too
+			memoryStore.setEvictionListener(eventBus::publishEvicted);
+		}
 
-			emailPublisher.submit(model);
+		Durability durability = ArgsHandler.INSTANCE.getDurability();
+		if (durability != null && mailStore.has(Capability.PERSISTENT)) {
+			log.info("Write-behind mode enabled, emails are acknowledged after {}", durability.name().toLowerCase(Locale.ROOT));
+			writeBehindWriter = new WriteBehindWriter(mailStore, durability,
+					Configuration.getInstance().getInt(Settings.EMAILS_WRITER_QUEUE_SIZE, DEFAULT_WRITER_QUEUE_SIZE));
 		}
+		return mailStore;
 	}
 
 	/**
-	 * Deletes all received emails from file system.
+	 * Waits until all the emails received so far are written, when the write-behind mode is enabled,
+	 * and flushes the files shared by the emails of the store to the disk.
 	 */
-	public void deleteEmails() {
-		Map<Integer, String> mails = UIModel.INSTANCE.getListMailsMap();
-		if (ArgsHandler.INSTANCE.isMemoryModeEnabled()) {
-			return;
-		}
-		for (String value : mails.values()) {
+	public void flush() {
+		WriteBehindWriter writer = writeBehindWriter;
+		if (writer != null) {
 			try {
-				if (!Files.deleteIfExists(Path.of(value))) {
-					log.error("Impossible to delete file {}", value);
-				}
-			} catch (IOException | SecurityException e) {
-				log.error(e.toString(), e);
+				writer.flush();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
 			}
 		}
+		MailStore mailStore = store;
+		if (mailStore != null && mailStore.has(Capability.SYNC)) {
+			// Only flushes what isn't specific to an email (the current segment, for example)
+			mailStore.sync(List.of());
+		}
 	}
 
 	/**
-	 * Returns a lock object.
-	 * <p>
-	 * This lock will be used to make the application thread-safe, and
-	 * avoid receiving and deleting emails in the same time.
-	 * </p>
+	 * Indexes the header section of a stored email, reading only the first bytes of the email.
 	 *
-	 * @return a lock object <i>(which is actually the current instance of the {@code MailSaver} object)</i>.
+	 * @param id the unique identifier of the email.
+	 * @return the header index.
+	 * @throws IOException if the email doesn't exist anymore, or can't be read.
 	 */
-	public Object getLock() {
-		return this;
+	public HeaderIndex readHeaders(long id) throws IOException {
+		HeaderIndexer indexer = new HeaderIndexer();
+		byte[] chunk = new byte[HEADERS_CHUNK_SIZE];
+		try (InputStream in = getStore().stream(id)) {
+			int read;
+			while (!indexer.isComplete() && (read = in.read(chunk)) != -1) {
+				indexer.update(chunk, 0, read);
+			}
+		}
+		return indexer.toIndex();
 	}
 
 	/**
-	 * Converts an {@code InputStream} into a {@code String} object.
-	 * <p>
-	 * The method will copy the Received headers lines of the input stream depending
-	 * of SubEtha SMTP builder configuration (insertReceivedHeaders).
-	 * </p>
+	 * Returns the {@code .eml} file of an email, exporting it in a temporary directory
+	 * if the store doesn't save each email in its own file.
 	 *
-	 * @param is the InputStream to be converted.
-	 * @return the converted string object, containing data from the InputStream passed in parameters.
-	 */
-	private String convertStreamToString(InputStream is) {
-		// see: org.subethamail.smtp.internal.io.ReceivedHeaderStream
-		// see: org.subethamail.smtp.server.SMTPServer.getDisableReceivedHeaders
-		// and: org.subethamail.smtp.server.SMTPServer.Builder.insertReceivedHeaders(boolean)
-		BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));
-		StringBuilder sb = new StringBuilder();
-		String line;
+	 * @param id the unique identifier of the email.
+	 * @return the {@code .eml} file.
+	 * @throws IOException if the email doesn't exist anymore, or can't be exported.
+	 */
+	public Path exportEmail(long id) throws IOException {
+		MailStore mailStore = getStore();
+		Path path = mailStore.path(id);
+		if (path != null) {
+			return path;
+		}
+
+		Path target;
+		lock.lock();
 		try {
-			while ((line = reader.readLine()) != null) {
-				sb.append(line).append(LINE_SEPARATOR);
+			if (exportDirectory == null) {
+				exportDirectory = Files.createTempDirectory("fakesmtp-export");
 			}
-		} catch (IOException e) {
-			log.error("", e);
+			target = exportDirectory.resolve(id + Configuration.getInstance().get("emails.suffix"));
+		} finally {
+			lock.unlock();
 		}
-		return sb.toString();
+		if (!Files.exists(target)) {
+			mailStore.export(id, target);
+			target.toFile().deleteOnExit();
+		}
+		return target;
 	}
 
 	/**
-	 * Saves the content of the email passed in parameters in a file.
+	 * Checks a recipient against the relay domains (see the {@code --relay-domains} option).
+	 * <p>
+	 * Called for each {@code RCPT TO}, so the emails for other domains are rejected before they are sent.
+	 * </p>
 	 *
-	 * @param mailContent the content of the email to be saved.
-	 * @return the path of the created file.
+	 * @param recipient the recipient of an email.
+	 * @return whether the emails for this recipient are accepted.
 	 */
-    private @Nullable Path saveEmailToFile(String mailContent) {
-		if (ArgsHandler.INSTANCE.isMemoryModeEnabled()) {
-			return null;
-		}
-		Path saveDirectory = Path.of(UIModel.INSTANCE.getSavePath());
-		if (!Files.exists(saveDirectory) || !Files.isDirectory(saveDirectory)) {
-			try {
-				Files.createDirectory(saveDirectory);
-			} catch (IOException e) {
-				log.error(e.toString());
-			}
+	public boolean isRelayed(String recipient) {
+		DomainMatcher relayDomains = UIModel.INSTANCE.getRelayDomains();
+		if (relayDomains == null || relayDomains.matches(recipient)) {
+			return true;
 		}
-        String fileTimestamp = dateTimeFormatForFilename.format(LocalDateTime.now());
-
-		// Create file
-		int i = 0;
-        Path filePath = null;
-        while (filePath == null || Files.exists(filePath)) {
-            String counter;
-			if (i++ > 0) {
-                counter = "_" + i;
-			} else {
-                counter = "";
+		log.debug("Recipient '{}' doesn't match relay domains", recipient);
+		return false;
+	}
+
+	private void notify(MailStore mailStore, long id, int from, int[] recipients, String subject,
+			@Nullable MailContent content) {
+		EmailModel model = new EmailModel(id, MailIdGenerator.toDateTime(id),
+				addresses, from, recipients,
+				subject, content == null ? MailContent.EMPTY : content,
+				content == null ? null : mailStore.path(id));
+		long start = System.nanoTime();
+		eventBus.publishMail(model);
+		SmtpMetrics.INSTANCE.stage(Stage.PUBLISH).record(System.nanoTime() - start);
+	}
+
+	/**
+	 * Returns the identifier of the last saved email, all the older emails being saved too.
+	 * <p>
+	 * The emails which are being saved (not stored or not published yet) have a greater identifier,
+	 * even if they are older than other saved emails.
+	 * </p>
+	 *
+	 * @return the identifier of the last saved email, or {@code 0} if no email was received yet.
+	 */
+	public long lastSavedId() {
+		while (true) {
+			long current = idGenerator.current();
+			// A saver which generated an older identifier has added it to the set, once it is not generating anymore
+			if (generating.get() == 0) {
+				Long oldest = saving.ceiling(Long.MIN_VALUE);
+				return oldest == null ? current : Math.min(current, oldest - 1);
 			}
-            filePath = saveDirectory.resolve(fileTimestamp + counter + Configuration.getInstance().get("emails.suffix"));
+			Thread.onSpinWait();
 		}
+	}
 
-		// Copy String to file
-		try {
-            Files.writeString(filePath, mailContent, Charset.defaultCharset(), CREATE_NEW, WRITE);
-		} catch (IOException e) {
-			// If we can't save file, we display the error in the SMTP logs
-			Logger smtpLogger = LoggerFactory.getLogger(org.subethamail.smtp.server.Session.class);
-			smtpLogger.error("Error: Can't save email: {}", e.toString());
-			return null;
+	/**
+	 * Deletes all received emails from the store.
+	 * <p>
+	 * Only the emails saved before this call are deleted (see {@link #lastSavedId()}): the ones which are being saved
+	 * concurrently are kept, and the receiving of new emails is never blocked.
+	 * </p>
+	 *
+	 * @return the identifier of the last deleted email, newer emails have a greater identifier.
+	 */
+	public long deleteEmails() {
+		long lastId = lastSavedId();
+		MailStore mailStore = store;
+		if (mailStore != null) {
+			mailStore.deleteUpTo(lastId);
 		}
-        return filePath.toAbsolutePath();
+		return lastId;
 	}
 
 	/**
-	 * Gets the subject from the email data passed in parameters.
+	 * Returns a lock object.
 	 *
-	 * @param data a string representing the email content.
-	 * @return the subject of the email, or an empty subject if not found.
+	 * @return a lock object <i>(which is actually the current instance of the {@code MailSaver} object)</i>.
+	 * @deprecated emails are saved and deleted without lock, this object doesn't synchronize anything anymore.
 	 */
-	private String getSubjectFromStr(String data) {
-		try {
-			BufferedReader reader = new BufferedReader(new StringReader(data));
-
-			String line;
-			while ((line = reader.readLine()) != null) {
-				 Matcher matcher = SUBJECT_PATTERN.matcher(line);
-				 if (matcher.matches()) {
-					 return matcher.group(1);
-				 }
-			}
-		} catch (IOException e) {
-			log.error("", e);
-		}
-		return "";
+	@Deprecated
+	public Object getLock() {
+		return this;
 	}
 }
@@ -0,0 +1,251 @@
+package com.nilhcem.fakesmtp.server;
+
+import org.jspecify.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * Buffers the raw bytes of an incoming email.
+ * <p>
+ * Small emails are kept on the heap. Once the buffered data exceeds the configured threshold,
+ * everything is spilled to a temporary file and the following bytes are appended to it,
+ * so the heap used by an email never exceeds the threshold, whatever its size.
+ * </p>
+ * <p>
+ * The buffer must be closed once the email was handled, to delete its temporary file (if any).
+ * </p>
+ */
+public final class MessageBuffer extends OutputStream {
+
+	private static final Logger log = LoggerFactory.getLogger(MessageBuffer.class);
+
+	private static final int INITIAL_CAPACITY = 8192;
+	private static final int COPY_BUFFER_SIZE = 8192;
+	private static final String TEMP_FILE_PREFIX = "fakesmtp-";
+	private static final String TEMP_FILE_SUFFIX = ".tmp";
+
+	private final int threshold;
+
+	private byte[] heap;
+	private int heapCount;
+	private long size;
+
+	@Nullable
+	private Path spillFile;
+	@Nullable
+	private OutputStream spillOut;
+
+	/**
+	 * Creates an empty buffer.
+	 *
+	 * @param threshold the maximum number of bytes kept on the heap before spilling to disk.
+	 */
+	public MessageBuffer(int threshold) {
+		if (threshold < 0) {
+			throw new IllegalArgumentException("Threshold must be positive: " + threshold);
+		}
+		this.threshold = threshold;
+		this.heap = new byte[Math.min(INITIAL_CAPACITY, threshold)];
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (spillOut == null && heapCount + 1 > threshold) {
+			spill();
+		}
+		if (spillOut != null) {
+			spillOut.write(b);
+		} else {
+			ensureCapacity(heapCount + 1);
+			heap[heapCount++] = (byte) b;
+		}
+		size++;
+	}
+
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		if (spillOut == null && heapCount + len > threshold) {
+			spill();
+		}
+		if (spillOut != null) {
+			spillOut.write(b, off, len);
+		} else {
+			ensureCapacity(heapCount + len);
+			System.arraycopy(b, off, heap, heapCount, len);
+			heapCount += len;
+		}
+		size += len;
+	}
+
+	/**
+	 * Reads the whole stream into this buffer.
+	 * <p>
+	 * Each chunk is also given to the indexer, so the header section is indexed
+	 * without any extra scan of the email.
+	 * </p>
+	 *
+	 * @param in the stream containing the raw DATA bytes.
+	 * @param indexer the indexer fed with the received bytes.
+	 * @throws IOException if the stream can't be read, or the buffer can't be written.
+	 */
+	public void readFrom(InputStream in, HeaderIndexer indexer) throws IOException {
+		readFrom(in, indexer, 0);
+	}
+
+	/**
+	 * Reads the whole stream into this buffer, unless it exceeds a maximum size.
+	 * <p>
+	 * Once the maximum size is exceeded, the buffered bytes are released, and the rest of the stream is read
+	 * without being kept, so the SMTP session can reject the email and go on.
+	 * </p>
+	 *
+	 * @param in the stream containing the raw DATA bytes.
+	 * @param indexer the indexer fed with the received bytes.
+	 * @param maxSize the maximum size in bytes, or {@code 0} for unlimited.
+	 * @return whether the whole stream was buffered, {@code false} if it exceeded the maximum size.
+	 * @throws IOException if the stream can't be read, or the buffer can't be written.
+	 */
+	public boolean readFrom(InputStream in, HeaderIndexer indexer, long maxSize) throws IOException {
+		byte[] chunk = new byte[COPY_BUFFER_SIZE];
+		int read;
+		while ((read = in.read(chunk)) != -1) {
+			if (maxSize > 0 && size() + read > maxSize) {
+				close();
+				in.transferTo(OutputStream.nullOutputStream());
+				return false;
+			}
+			write(chunk, 0, read);
+			if (!indexer.isComplete()) {
+				indexer.update(chunk, 0, read);
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public void flush() throws IOException {
+		if (spillOut != null) {
+			spillOut.flush();
+		}
+	}
+
+	/**
+	 * @return the number of bytes written in this buffer.
+	 */
+	public long size() {
+		return size;
+	}
+
+	/**
+	 * @return whether the data was spilled to a temporary file.
+	 */
+	public boolean isSpilled() {
+		return spillFile != null;
+	}
+
+	/**
+	 * Opens a new stream to read the buffered bytes from the beginning.
+	 *
+	 * @return a stream on the buffered bytes.
+	 * @throws IOException if the temporary file can't be read.
+	 */
+	public InputStream openStream() throws IOException {
+		if (spillFile != null) {
+			flush();
+			return Files.newInputStream(spillFile);
+		}
+		return new ByteArrayInputStream(heap, 0, heapCount);
+	}
+
+	/**
+	 * Copies the buffered bytes in a new byte array.
+	 *
+	 * @return the buffered bytes.
+	 * @throws IOException if the temporary file can't be read.
+	 */
+	public byte[] toByteArray() throws IOException {
+		if (spillFile != null) {
+			flush();
+			return Files.readAllBytes(spillFile);
+		}
+		return Arrays.copyOf(heap, heapCount);
+	}
+
+	/**
+	 * Writes the buffered bytes to the target file.
+	 * <p>
+	 * A spilled buffer simply moves its temporary file, without copying it when on the same file system.
+	 * The buffer is then empty and can't be read anymore.
+	 * </p>
+	 *
+	 * @param target the file to write, which will be replaced if it already exists.
+	 * @throws IOException if the file can't be written.
+	 */
+	public void moveTo(Path target) throws IOException {
+		if (spillFile != null) {
+			closeSpillOut();
+			Files.move(spillFile, target, StandardCopyOption.REPLACE_EXISTING);
+			spillFile = null;
+		} else {
+			try (OutputStream out = Files.newOutputStream(target)) {
+				out.write(heap, 0, heapCount);
+			}
+		}
+		heap = new byte[0];
+		heapCount = 0;
+		size = 0;
+	}
+
+	/**
+	 * Releases the buffered data and deletes the temporary file, if any.
+	 */
+	@Override
+	public void close() {
+		heap = new byte[0];
+		heapCount = 0;
+		if (spillFile != null) {
+			try {
+				closeSpillOut();
+				Files.deleteIfExists(spillFile);
+			} catch (IOException e) {
+				log.error("Impossible to delete temporary file {}", spillFile, e);
+			}
+			spillFile = null;
+		}
+	}
+
+	private void spill() throws IOException {
+		Path file = Files.createTempFile(TEMP_FILE_PREFIX, TEMP_FILE_SUFFIX);
+		// Buffered, so the single bytes don't cost a system call each
+		OutputStream out = new BufferedOutputStream(Files.newOutputStream(file), COPY_BUFFER_SIZE);
+		out.write(heap, 0, heapCount);
+		spillFile = file;
+		spillOut = out;
+		heap = new byte[0];
+		heapCount = 0;
+	}
+
+	private void closeSpillOut() throws IOException {
+		if (spillOut != null) {
+			spillOut.close();
+			spillOut = null;
+		}
+	}
+
+	private void ensureCapacity(int minCapacity) {
+		if (minCapacity > heap.length) {
+			int newCapacity = Math.max(heap.length * 2, minCapacity);
+			heap = Arrays.copyOf(heap, Math.min(newCapacity, threshold));
+		}
+	}
+}
@@ -1,76 +1,134 @@
 package com.nilhcem.fakesmtp.server;
 
+import com.nilhcem.fakesmtp.metrics.SmtpMetrics;
+import com.nilhcem.fakesmtp.metrics.SmtpMetrics.Stage;
 import org.jspecify.annotations.Nullable;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import org.subethamail.smtp.MessageHandler;
 import org.subethamail.smtp.RejectException;
 
-import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 import java.util.Objects;
 
 public class MultipleRecipientsMessageHandler implements MessageHandler {
 
-    private static final Logger log = LoggerFactory.getLogger(MultipleRecipientsMessageHandler.class);
-
-    private static final String LINE_SEPARATOR = System.lineSeparator();
-
     private final MailSaver saver;
+    /**
+     * The maximum size of an email in bytes, or {@code 0} for unlimited.
+     */
+    private final long maxMessageSize;
 
-    private String from = "";
-    private final List<String> recipients = new ArrayList<>();
-    private String content = "";
+    /**
+     * The sender and the recipients, interned in the address dictionary as soon as they are received.
+     */
+    private int from = -1;
+    private int[] recipients = new int[4];
+    private int recipientCount;
 
     public MultipleRecipientsMessageHandler(MailSaver saver) {
+        this(saver, 0);
+    }
+
+    /**
+     * @param saver the saver of the received emails.
+     * @param maxMessageSize the maximum size of an email in bytes, or {@code 0} for unlimited.
+     */
+    public MultipleRecipientsMessageHandler(MailSaver saver, long maxMessageSize) {
         Objects.requireNonNull(saver);
         this.saver = saver;
+        this.maxMessageSize = maxMessageSize;
     }
 
     @Override
     public void from(String from) throws RejectException {
         Objects.requireNonNull(from);
-        this.from = from;
+        long start = System.nanoTime();
+        this.from = saver.getAddresses().intern(from);
+        SmtpMetrics.INSTANCE.command("MAIL").record(System.nanoTime() - start);
     }
 
+    /**
+     * Accepts a recipient, if it matches the relay domains.
+     *
+     * @throws RejectException with a 550 reply if the recipient doesn't match the relay domains.
+     */
     @Override
-    public void recipient(String recipient) {
+    public void recipient(String recipient) throws RejectException {
         Objects.requireNonNull(recipient);
-        this.recipients.add(recipient);
+        long start = System.nanoTime();
+        if (!saver.isRelayed(recipient)) {
+            SmtpMetrics.INSTANCE.rejected();
+            throw new RejectException(550, "5.7.1 <" + recipient + ">: Relay access denied");
+        }
+        if (recipientCount == recipients.length) {
+            recipients = Arrays.copyOf(recipients, recipientCount * 2);
+        }
+        recipients[recipientCount++] = saver.getAddresses().intern(recipient);
+        SmtpMetrics.INSTANCE.command("RCPT").record(System.nanoTime() - start);
     }
 
+    /**
+     * Buffers the raw DATA bytes, on the heap or in a temporary file depending on their size, then saves the email.
+     * <p>
+     * The header section is indexed on the fly, while the bytes are buffered.<br>
+     * An email larger than the maximum size is rejected with a 552 reply as soon as the maximum is exceeded:
+     * the rest of the DATA bytes are read, but not kept.
+     * </p>
+     * <p>
+     * The email is saved before returning, since SubEtha replies to the client as soon as this method returns:
+     * in write-behind mode, the reply waits for the durability selected with {@code --durability}.
+     * </p>
+     */
     @Override
     @Nullable
     public String data(InputStream data) throws RejectException, IOException {
-        content = convertStreamToString(data);
-        return null;
-    }
-
-    @Override
-    public void done() {
-        // do what you like with the message
-        saver.saveEmailAndNotify(from, recipients, content);
-    }
-
-    private static String convertStreamToString(InputStream is) {
         // see: org.subethamail.smtp.internal.io.ReceivedHeaderStream
         // see: org.subethamail.smtp.server.SMTPServer.getDisableReceivedHeaders
         // and: org.subethamail.smtp.server.SMTPServer.Builder.insertReceivedHeaders(boolean)
-        BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8));
-        StringBuilder sb = new StringBuilder();
-        String line;
+        long start = System.nanoTime();
+        MessageBuffer buffer = saver.newMessageBuffer();
+        HeaderIndexer indexer = new HeaderIndexer();
         try {
-            while ((line = reader.readLine()) != null) {
-                sb.append(line).append(LINE_SEPARATOR);
+            if (!buffer.readFrom(data, indexer, maxMessageSize)) {
+                SmtpMetrics.INSTANCE.rejected();
+                throw new RejectException(552, "5.3.4 Message size exceeds fixed maximum message size");
             }
         } catch (IOException e) {
-            log.error("", e);
+            buffer.close();
+            SmtpMetrics.INSTANCE.failed();
+            throw e;
+        } catch (RejectException e) {
+            buffer.close();
+            throw e;
         }
-        return sb.toString();
+        SmtpMetrics.INSTANCE.stage(Stage.RECEIVE).record(System.nanoTime() - start);
+        data(buffer, indexer.toIndex());
+        return null;
+    }
+
+    /**
+     * Saves DATA bytes already buffered by the caller, as done by the {@link NioSmtpServer} while it reads them.
+     * <p>
+     * Returns once the email is saved, so the caller can reply to the client.
+     * </p>
+     *
+     * @param message the raw DATA bytes, closed once the email is saved.
+     * @param headers the header section, indexed while the bytes were buffered.
+     */
+    public void data(MessageBuffer message, HeaderIndex headers) {
+        Objects.requireNonNull(message);
+        Objects.requireNonNull(headers);
+        // the saver closes the buffer once the email is written
+        saver.saveEmailAndNotify(from, Arrays.copyOf(recipients, recipientCount), message, headers);
+    }
+
+    /**
+     * Ends the transaction, also called when it is aborted before DATA: the email, if any, was saved by {@code data}.
+     */
+    @Override
+    public void done() {
+        from = -1;
+        recipientCount = 0;
     }
 }
@@ -0,0 +1,185 @@
+package com.nilhcem.fakesmtp.server;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A thread running the SMTP sessions of a {@link NioSmtpServer}, with a {@link Selector}.
+ * <p>
+ * The sessions of a loop share its read buffer, which is reused for every read.
+ * The other threads don't touch the sessions: they hand tasks to the loop with {@link #execute(Runnable)}.
+ * </p>
+ */
+final class NioEventLoop implements Runnable {
+
+	private static final Logger log = LoggerFactory.getLogger(NioEventLoop.class);
+
+	private static final int READ_BUFFER_SIZE = 64 * 1024;
+	private static final long IDLE_CHECK_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	private final NioSmtpServer server;
+	private final Selector selector;
+	private final Thread thread;
+	private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+	private final ByteBuffer readBuffer = ByteBuffer.allocate(READ_BUFFER_SIZE);
+	private final long timeoutNanos;
+	private volatile boolean running = true;
+
+	/**
+	 * @param server the server of the sessions.
+	 * @param name the name of the thread.
+	 * @param timeoutMillis the time after which an idle session is closed, or {@code 0} for never.
+	 * @throws IOException if the selector can't be opened.
+	 */
+	NioEventLoop(NioSmtpServer server, String name, int timeoutMillis) throws IOException {
+		this.server = server;
+		this.selector = Selector.open();
+		this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		this.thread = new Thread(this, name);
+		thread.setDaemon(true);
+	}
+
+	/**
+	 * Accepts the connections of a server channel on this loop. Must be called before {@link #start()}.
+	 */
+	void listen(ServerSocketChannel serverChannel) throws ClosedChannelException {
+		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+	}
+
+	void start() {
+		thread.start();
+	}
+
+	/**
+	 * Runs a task on the thread of the loop.
+	 */
+	void execute(Runnable task) {
+		tasks.add(task);
+		selector.wakeup();
+	}
+
+	/**
+	 * Starts a session on an accepted channel.
+	 */
+	void register(SocketChannel channel) {
+		execute(() -> {
+			try {
+				channel.configureBlocking(false);
+				NioSession session = new NioSession(server, this, channel);
+				session.start(channel.register(selector, SelectionKey.OP_READ, session));
+			} catch (IOException e) {
+				log.debug("Can't start a session on {}: {}", channel, e.toString());
+				try {
+					channel.close();
+				} catch (IOException ignored) {
+					// The channel is dropped anyway
+				}
+				server.sessionClosed();
+			}
+		});
+	}
+
+	/**
+	 * Stops the loop and closes its sessions, then waits for the thread to end.
+	 */
+	void stop() {
+		running = false;
+		selector.wakeup();
+		if (Thread.currentThread() != thread) {
+			try {
+				thread.join(TimeUnit.SECONDS.toMillis(5));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	@Override
+	public void run() {
+		long nextIdleCheck = System.nanoTime() + IDLE_CHECK_INTERVAL_NANOS;
+		try {
+			while (running) {
+				selector.select(TimeUnit.NANOSECONDS.toMillis(IDLE_CHECK_INTERVAL_NANOS));
+				runTasks();
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					handle(key);
+				}
+				long now = System.nanoTime();
+				if (timeoutNanos > 0 && now - nextIdleCheck >= 0) {
+					nextIdleCheck = now + IDLE_CHECK_INTERVAL_NANOS;
+					for (SelectionKey key : new ArrayList<>(selector.keys())) {
+						if (key.isValid() && key.attachment() instanceof NioSession session) {
+							session.closeIfIdle(now, timeoutNanos);
+						}
+					}
+				}
+			}
+		} catch (IOException | RuntimeException e) {
+			log.error("The SMTP event loop {} stopped unexpectedly", thread.getName(), e);
+		} finally {
+			closeSessions();
+		}
+	}
+
+	private void handle(SelectionKey key) {
+		if (!key.isValid()) {
+			return;
+		}
+		if (key.isAcceptable()) {
+			server.accept();
+			return;
+		}
+		NioSession session = (NioSession) key.attachment();
+		try {
+			if (key.isReadable()) {
+				session.onReadable(readBuffer);
+			}
+			if (key.isValid() && key.isWritable()) {
+				session.onWritable();
+			}
+		} catch (RuntimeException e) {
+			log.error("Unexpected error in an SMTP session", e);
+			session.close();
+		}
+	}
+
+	private void runTasks() {
+		Runnable task;
+		while ((task = tasks.poll()) != null) {
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				log.error("Unexpected error in an SMTP event loop task", e);
+			}
+		}
+	}
+
+	private void closeSessions() {
+		for (SelectionKey key : new ArrayList<>(selector.keys())) {
+			if (key.attachment() instanceof NioSession session) {
+				session.close();
+			}
+		}
+		try {
+			selector.close();
+		} catch (IOException e) {
+			log.debug("Can't close the selector: {}", e.toString());
+		}
+	}
+}
@@ -0,0 +1,733 @@
+package com.nilhcem.fakesmtp.server;
+
+import com.nilhcem.fakesmtp.metrics.SmtpMetrics;
+import com.nilhcem.fakesmtp.metrics.SmtpMetrics.Stage;
+import org.jspecify.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.subethamail.smtp.RejectException;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Locale;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * An SMTP session of the {@link NioSmtpServer}, driven by the bytes its event loop reads.
+ * <p>
+ * The commands are parsed incrementally from the read buffer of the event loop, which is shared by all its sessions:
+ * a session only keeps the bytes of an incomplete command line. The DATA bytes are decoded as they arrive,
+ * directly into the {@link MessageBuffer} of the email, and the BDAT chunks are copied there as they are.<br>
+ * The replies to the commands read together are written together, so a client pipelining its commands
+ * (RFC 2920) gets them in a single packet.<br>
+ * Saving an email may wait for the disk, so it is done by a worker thread: the session doesn't read anything
+ * meanwhile, and goes on once the email is saved.<br>
+ * Likewise, a client pipelining commands without reading the replies isn't read anymore once
+ * {@value #MAX_PENDING_OUTPUT} bytes of replies are pending, until they are written.
+ * </p>
+ * <p>
+ * Must only be used from the thread of its event loop.
+ * </p>
+ */
+final class NioSession {
+
+	private static final Logger log = LoggerFactory.getLogger(NioSession.class);
+	/**
+	 * The logger of the SubEtha sessions, so the dialog is displayed in the SMTP logs whatever the engine.
+	 */
+	private static final Logger smtpLog = LoggerFactory.getLogger(org.subethamail.smtp.server.Session.class);
+
+	private static final int MAX_LINE_LENGTH = 4096;
+	/**
+	 * The size of the pending replies beyond which the commands aren't handled anymore, until they are written.
+	 */
+	private static final int MAX_PENDING_OUTPUT = 64 * 1024;
+
+	private enum State {
+		COMMAND,
+		AUTH,
+		DATA,
+		/**
+		 * A BDAT chunk is being read.
+		 */
+		CHUNK,
+		/**
+		 * The email is being saved, nothing is read.
+		 */
+		SAVING
+	}
+
+	private final NioSmtpServer server;
+	private final NioEventLoop loop;
+	private final SocketChannel channel;
+	@Nullable
+	private SelectionKey key;
+
+	private State state = State.COMMAND;
+	private final Deque<ByteBuffer> output = new ArrayDeque<>();
+	private long outputBytes;
+	private boolean closeAfterOutput;
+	private boolean closed;
+	private long lastActivity = System.nanoTime();
+
+	/**
+	 * The incomplete command line, and the bytes received while the email was being saved
+	 * or while too many replies were pending.
+	 */
+	private byte[] line = new byte[128];
+	private int lineLength;
+	private boolean lineTooLong;
+	private byte @Nullable [] pendingInput;
+
+	@Nullable
+	private String helo;
+	private boolean authenticated;
+	private int authStep;
+	@Nullable
+	private MultipleRecipientsMessageHandler transaction;
+	private int recipientCount;
+
+	@Nullable
+	private MessageBuffer message;
+	@Nullable
+	private HeaderIndexer indexer;
+	@Nullable
+	private DataDecoder decoder;
+	private boolean oversized;
+	private long receiveStart;
+	private long chunkSize;
+	private long chunkRemaining;
+	private boolean lastChunk;
+	/**
+	 * The reply to the BDAT chunk being read, if it is discarded because the command is invalid.
+	 */
+	@Nullable
+	private String chunkError;
+	@Nullable
+	private IOException writeFailure;
+
+	NioSession(NioSmtpServer server, NioEventLoop loop, SocketChannel channel) {
+		this.server = server;
+		this.loop = loop;
+		this.channel = channel;
+	}
+
+	/**
+	 * Greets the client, once the channel is registered.
+	 *
+	 * @param key the key of the channel.
+	 */
+	void start(SelectionKey key) {
+		this.key = key;
+		reply("220 " + server.getHostName() + " ESMTP FakeSMTP");
+		flush();
+	}
+
+	/**
+	 * Reads and handles the available bytes.
+	 *
+	 * @param readBuffer the read buffer of the event loop, backed by an array.
+	 */
+	void onReadable(ByteBuffer readBuffer) {
+		int read;
+		try {
+			readBuffer.clear();
+			read = channel.read(readBuffer);
+		} catch (IOException e) {
+			log.debug("Can't read from {}: {}", channel, e.toString());
+			close();
+			return;
+		}
+		if (read < 0) {
+			close();
+			return;
+		}
+		lastActivity = System.nanoTime();
+		process(readBuffer.array(), readBuffer.arrayOffset(), read);
+		flush();
+	}
+
+	/**
+	 * Writes the pending replies, once the channel can be written again.
+	 */
+	void onWritable() {
+		flush();
+	}
+
+	/**
+	 * Closes the session if the client didn't send anything for too long.
+	 *
+	 * @param now the current {@link System#nanoTime() time}.
+	 * @param timeoutNanos the maximum idle time.
+	 */
+	void closeIfIdle(long now, long timeoutNanos) {
+		if (state != State.SAVING && now - lastActivity > timeoutNanos) {
+			reply("421 4.4.2 Timeout waiting for data from client.");
+			flush();
+			close();
+		}
+	}
+
+	/**
+	 * Closes the channel, and releases the email being received, if any.
+	 */
+	void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		if (key != null) {
+			key.cancel();
+		}
+		try {
+			channel.close();
+		} catch (IOException e) {
+			log.debug("Can't close {}: {}", channel, e.toString());
+		}
+		if (message != null) {
+			message.close();
+			message = null;
+		}
+		transaction = null;
+		server.sessionClosed();
+	}
+
+	private void process(byte[] b, int off, int len) {
+		int offset = off;
+		int end = off + len;
+		while (offset < end && !closed && !closeAfterOutput && state != State.SAVING && !isOutputFull()) {
+			if (state == State.CHUNK) {
+				int length = (int) Math.min(chunkRemaining, end - offset);
+				if (chunkError == null) {
+					writeData(b, offset, length);
+				}
+				offset += length;
+				chunkRemaining -= length;
+				if (chunkRemaining == 0) {
+					endChunk();
+				}
+				continue;
+			}
+			if (state == State.DATA) {
+				DataDecoder dataDecoder = decoder;
+				offset += dataDecoder.decode(b, offset, end - offset, this::writeData);
+				if (dataDecoder.isComplete()) {
+					endData();
+				}
+				continue;
+			}
+			int lf = offset;
+			while (lf < end && b[lf] != '\n') {
+				lf++;
+			}
+			appendToLine(b, offset, lf - offset);
+			if (lf == end) {
+				offset = end;
+			} else {
+				offset = lf + 1;
+				handleLine();
+			}
+		}
+		if (offset < end && !closed && !closeAfterOutput) {
+			// Handled once the email is saved, or once the replies are written
+			byte[] input = pendingInput;
+			if (input == null) {
+				pendingInput = Arrays.copyOfRange(b, offset, end);
+			} else {
+				byte[] joined = Arrays.copyOf(input, input.length + end - offset);
+				System.arraycopy(b, offset, joined, input.length, end - offset);
+				pendingInput = joined;
+			}
+		}
+	}
+
+	private void appendToLine(byte[] b, int off, int len) {
+		if (lineTooLong || len == 0) {
+			return;
+		}
+		if (lineLength + len > MAX_LINE_LENGTH) {
+			lineTooLong = true;
+			return;
+		}
+		if (lineLength + len > line.length) {
+			line = Arrays.copyOf(line, Math.max(lineLength + len, line.length * 2));
+		}
+		System.arraycopy(b, off, line, lineLength, len);
+		lineLength += len;
+	}
+
+	private void handleLine() {
+		if (lineTooLong) {
+			lineTooLong = false;
+			lineLength = 0;
+			reply("500 5.5.2 Error: line too long");
+			return;
+		}
+		int length = lineLength > 0 && line[lineLength - 1] == '\r' ? lineLength - 1 : lineLength;
+		String text = new String(line, 0, length, StandardCharsets.UTF_8);
+		lineLength = 0;
+		if (line.length > MAX_LINE_LENGTH / 4) {
+			// Only the sessions receiving long lines keep a large buffer, until the next long line
+			line = new byte[128];
+		}
+
+		smtpLog.debug("Client: {}", text);
+		if (state == State.AUTH) {
+			continueAuth(text);
+		} else {
+			command(text);
+		}
+	}
+
+	private void command(String text) {
+		int space = text.indexOf(' ');
+		String verb = (space < 0 ? text : text.substring(0, space)).toUpperCase(Locale.ROOT);
+		String argument = space < 0 ? "" : text.substring(space + 1).trim();
+		long start = System.nanoTime();
+		switch (verb) {
+			case "EHLO" -> hello(argument, true);
+			case "HELO" -> hello(argument, false);
+			case "MAIL" -> mail(argument);
+			case "RCPT" -> recipient(argument);
+			case "DATA" -> data();
+			case "BDAT" -> chunk(argument);
+			case "RSET" -> {
+				resetTransaction();
+				reply("250 Ok");
+			}
+			case "NOOP" -> reply("250 Ok");
+			case "VRFY" -> reply("252 2.5.2 Cannot VRFY user, but will accept message and attempt delivery");
+			case "HELP" -> reply("214 2.0.0 See RFC 5321");
+			case "AUTH" -> auth(argument);
+			case "STARTTLS" -> reply("454 4.7.0 TLS not available");
+			case "QUIT" -> {
+				reply("221 2.0.0 Bye");
+				closeAfterOutput = true;
+			}
+			default -> {
+				verb = "UNKNOWN";
+				reply("500 5.5.1 Error: command not implemented");
+			}
+		}
+		// MAIL and RCPT are timed by the message handler
+		if (!verb.equals("MAIL") && !verb.equals("RCPT")) {
+			SmtpMetrics.INSTANCE.command(verb).record(System.nanoTime() - start);
+		}
+	}
+
+	private void hello(String domain, boolean extended) {
+		if (domain.isEmpty()) {
+			reply("501 5.5.4 Syntax: " + (extended ? "EHLO" : "HELO") + " hostname");
+			return;
+		}
+		helo = domain;
+		resetTransaction();
+		if (!extended) {
+			reply("250 " + server.getHostName());
+			return;
+		}
+		int maxMessageSize = server.getOptions().maxMessageSize();
+		reply("250-" + server.getHostName());
+		reply("250-8BITMIME");
+		reply(maxMessageSize > 0 ? "250-SIZE " + maxMessageSize : "250-SIZE");
+		reply("250-PIPELINING");
+		reply("250-CHUNKING");
+		reply("250-AUTH LOGIN PLAIN");
+		reply("250 Ok");
+	}
+
+	private void mail(String argument) {
+		if (helo == null) {
+			reply("503 5.5.1 Error: send HELO/EHLO first");
+			return;
+		}
+		if (server.getOptions().requireAuth() && !authenticated) {
+			reply("530 5.7.0 Authentication required");
+			return;
+		}
+		if (transaction != null) {
+			reply("503 5.5.1 Sender already specified");
+			return;
+		}
+		String[] path = parsePath(argument, "FROM:");
+		if (path == null) {
+			reply("501 5.5.4 Syntax: MAIL FROM:<address>");
+			return;
+		}
+		int maxMessageSize = server.getOptions().maxMessageSize();
+		for (String parameter : path[1].split(" ")) {
+			if (parameter.regionMatches(true, 0, "SIZE=", 0, 5)) {
+				try {
+					if (maxMessageSize > 0 && Long.parseLong(parameter.substring(5)) > maxMessageSize) {
+						SmtpMetrics.INSTANCE.rejected();
+						reply("552 5.3.4 Message size exceeds fixed limit");
+						return;
+					}
+				} catch (NumberFormatException e) {
+					reply("501 5.5.4 Syntax: SIZE=<size>");
+					return;
+				}
+			}
+		}
+
+		MultipleRecipientsMessageHandler handler = server.newHandler();
+		try {
+			handler.from(path[0]);
+		} catch (RejectException e) {
+			reply(e.getCode() + " " + e.getMessage());
+			return;
+		}
+		transaction = handler;
+		reply("250 Ok");
+	}
+
+	private void recipient(String argument) {
+		MultipleRecipientsMessageHandler handler = transaction;
+		if (handler == null) {
+			reply("503 5.5.1 Error: need MAIL command");
+			return;
+		}
+		String[] path = parsePath(argument, "TO:");
+		if (path == null || path[0].isEmpty()) {
+			reply("501 5.5.4 Syntax: RCPT TO:<address>");
+			return;
+		}
+		if (recipientCount >= server.getOptions().maxRecipients()) {
+			SmtpMetrics.INSTANCE.rejected();
+			reply("452 4.5.3 Error: too many recipients");
+			return;
+		}
+		try {
+			handler.recipient(path[0]);
+		} catch (RejectException e) {
+			reply(e.getCode() + " " + e.getMessage());
+			return;
+		}
+		recipientCount++;
+		reply("250 Ok");
+	}
+
+	private void data() {
+		if (transaction == null) {
+			reply("503 5.5.1 Error: need MAIL command");
+			return;
+		}
+		if (recipientCount == 0) {
+			reply("503 5.5.1 Error: need RCPT command");
+			return;
+		}
+		if (message != null) {
+			reply("503 5.5.1 Error: DATA not permitted after BDAT");
+			return;
+		}
+		newMessage();
+		decoder = new DataDecoder();
+		state = State.DATA;
+		reply("354 End data with <CR><LF>.<CR><LF>");
+	}
+
+	/**
+	 * Starts reading a BDAT chunk (RFC 3030), such as {@code BDAT 1024} or {@code BDAT 512 LAST}.
+	 * <p>
+	 * The chunk is read even if the command is rejected, since the client sends it without waiting for the reply.
+	 * </p>
+	 */
+	private void chunk(String argument) {
+		String[] parts = argument.split(" +");
+		long size;
+		try {
+			size = Long.parseLong(parts[0]);
+		} catch (NumberFormatException e) {
+			size = -1;
+		}
+		if (size < 0 || parts.length > 2 || (parts.length == 2 && !parts[1].equalsIgnoreCase("LAST"))) {
+			// The size of the chunk is unknown: its bytes will be read as commands
+			reply("501 5.5.4 Syntax: BDAT <size> [LAST]");
+			return;
+		}
+		chunkSize = size;
+		chunkRemaining = size;
+		lastChunk = parts.length == 2;
+		if (transaction == null) {
+			chunkError = "503 5.5.1 Error: need MAIL command";
+		} else if (recipientCount == 0) {
+			chunkError = "503 5.5.1 Error: need RCPT command";
+		} else if (message == null) {
+			newMessage();
+		}
+		state = State.CHUNK;
+		if (chunkRemaining == 0) {
+			endChunk();
+		}
+	}
+
+	private void endChunk() {
+		state = State.COMMAND;
+		String error = chunkError;
+		if (error != null) {
+			chunkError = null;
+			reply(error);
+		} else if (lastChunk || oversized || writeFailure != null) {
+			endMessage();
+		} else {
+			reply("250 2.0.0 " + chunkSize + " octets received");
+		}
+	}
+
+	private void newMessage() {
+		message = server.getSaver().newMessageBuffer();
+		indexer = new HeaderIndexer();
+		oversized = false;
+		writeFailure = null;
+		receiveStart = System.nanoTime();
+	}
+
+	private void writeData(byte[] b, int off, int len) {
+		MessageBuffer buffer = message;
+		if (buffer == null || oversized || writeFailure != null) {
+			return;
+		}
+		int maxMessageSize = server.getOptions().maxMessageSize();
+		if (maxMessageSize > 0 && buffer.size() + len > maxMessageSize) {
+			// The rest of the email is decoded, but not kept
+			oversized = true;
+			buffer.close();
+			return;
+		}
+		try {
+			buffer.write(b, off, len);
+		} catch (IOException e) {
+			writeFailure = e;
+			buffer.close();
+			return;
+		}
+		if (!indexer.isComplete()) {
+			indexer.update(b, off, len);
+		}
+	}
+
+	private void endData() {
+		decoder = null;
+		endMessage();
+	}
+
+	/**
+	 * Saves the email received with DATA or BDAT, or replies why it can't be.
+	 */
+	private void endMessage() {
+		MultipleRecipientsMessageHandler handler = transaction;
+		MessageBuffer buffer = message;
+		HeaderIndex headers = indexer.toIndex();
+		transaction = null;
+		recipientCount = 0;
+		message = null;
+		indexer = null;
+		state = State.COMMAND;
+
+		if (oversized) {
+			SmtpMetrics.INSTANCE.rejected();
+			reply("552 5.3.4 Message size exceeds fixed maximum message size");
+			return;
+		}
+		if (writeFailure != null) {
+			SmtpMetrics.INSTANCE.failed();
+			log.error("Can't buffer the email", writeFailure);
+			reply("451 4.3.0 Error: can't buffer the email");
+			return;
+		}
+
+		SmtpMetrics.INSTANCE.stage(Stage.RECEIVE).record(System.nanoTime() - receiveStart);
+		state = State.SAVING;
+		updateInterest();
+		try {
+			save(handler, buffer, headers);
+		} catch (RejectedExecutionException e) {
+			// The worker is full or shut down
+			buffer.close();
+			handler.done();
+			SmtpMetrics.INSTANCE.failed();
+			state = State.COMMAND;
+			reply("451 4.3.0 Error: too many emails being saved, try again later");
+		}
+	}
+
+	/**
+	 * Saves the email with a worker thread, then replies from the event loop.
+	 *
+	 * @throws RejectedExecutionException if the worker can't take the email.
+	 */
+	private void save(MultipleRecipientsMessageHandler handler, MessageBuffer buffer, HeaderIndex headers) {
+		server.getWorker().execute(() -> {
+			String reply;
+			try {
+				handler.data(buffer, headers);
+				reply = "250 Ok";
+			} catch (RuntimeException e) {
+				SmtpMetrics.INSTANCE.failed();
+				log.error("Can't save the email", e);
+				reply = "451 4.3.0 Error: can't save the email";
+			} finally {
+				handler.done();
+			}
+			String savedReply = reply;
+			loop.execute(() -> onSaved(savedReply));
+		});
+	}
+
+	private void onSaved(String savedReply) {
+		if (closed) {
+			return;
+		}
+		state = State.COMMAND;
+		reply(savedReply);
+		// Also handles the bytes received while the email was being saved
+		flush();
+	}
+
+	private void auth(String argument) {
+		if (authenticated) {
+			reply("503 5.5.1 Already authenticated");
+			return;
+		}
+		if (transaction != null) {
+			reply("503 5.5.1 Error: AUTH not permitted during a mail transaction");
+			return;
+		}
+		String[] parts = argument.split(" ", 2);
+		String mechanism = parts[0].toUpperCase(Locale.ROOT);
+		boolean initialResponse = parts.length > 1 && !parts[1].isBlank();
+		// Any credentials are accepted, like with the SMTPAuthHandler of the blocking engine
+		switch (mechanism) {
+			case "LOGIN" -> {
+				state = State.AUTH;
+				authStep = initialResponse ? 1 : 0;
+				reply(initialResponse ? "334 UGFzc3dvcmQ6" : "334 VXNlcm5hbWU6");
+			}
+			case "PLAIN" -> {
+				if (initialResponse) {
+					authenticated();
+				} else {
+					state = State.AUTH;
+					authStep = 1;
+					reply("334 ");
+				}
+			}
+			default -> reply("504 5.5.4 The requested authentication mechanism is not supported");
+		}
+	}
+
+	private void continueAuth(String response) {
+		if (response.equals("*")) {
+			state = State.COMMAND;
+			reply("501 5.0.0 Authentication canceled");
+		} else if (authStep == 0) {
+			authStep = 1;
+			reply("334 UGFzc3dvcmQ6");
+		} else {
+			authenticated();
+		}
+	}
+
+	private void authenticated() {
+		state = State.COMMAND;
+		authenticated = true;
+		reply("235 2.7.0 Authentication successful");
+	}
+
+	private void resetTransaction() {
+		transaction = null;
+		recipientCount = 0;
+		if (message != null) {
+			// The chunks received with BDAT
+			message.close();
+			message = null;
+			indexer = null;
+		}
+	}
+
+	/**
+	 * Parses the path of a MAIL or RCPT command, such as {@code FROM:<address> SIZE=1024}.
+	 *
+	 * @return the address and the parameters, or {@code null} if the syntax is invalid.
+	 */
+	private static String @Nullable [] parsePath(String argument, String prefix) {
+		if (!argument.regionMatches(true, 0, prefix, 0, prefix.length())) {
+			return null;
+		}
+		String path = argument.substring(prefix.length()).trim();
+		if (path.startsWith("<")) {
+			int end = path.indexOf('>');
+			return end < 0 ? null : new String[] {path.substring(1, end), path.substring(end + 1).trim()};
+		}
+		int space = path.indexOf(' ');
+		return space < 0 ? new String[] {path, ""} : new String[] {path.substring(0, space), path.substring(space + 1).trim()};
+	}
+
+	private void reply(String text) {
+		smtpLog.debug("Server: {}", text);
+		byte[] bytes = (text + "\r\n").getBytes(StandardCharsets.UTF_8);
+		output.add(ByteBuffer.wrap(bytes));
+		outputBytes += bytes.length;
+	}
+
+	private boolean isOutputFull() {
+		return outputBytes >= MAX_PENDING_OUTPUT;
+	}
+
+	/**
+	 * Writes as many pending replies as the channel accepts, handles the bytes put aside if there is room
+	 * for their replies, then updates the interest of the key.
+	 */
+	private void flush() {
+		while (!closed) {
+			try {
+				if (!output.isEmpty()) {
+					// A single write for all the replies, rather than one per pipelined command
+					outputBytes -= channel.write(output.toArray(ByteBuffer[]::new));
+					while (!output.isEmpty() && !output.peek().hasRemaining()) {
+						output.poll();
+					}
+				}
+			} catch (IOException e) {
+				log.debug("Can't write to {}: {}", channel, e.toString());
+				close();
+				return;
+			}
+			byte[] input = pendingInput;
+			if (input == null || state == State.SAVING || closeAfterOutput || isOutputFull()) {
+				break;
+			}
+			pendingInput = null;
+			process(input, 0, input.length);
+		}
+		if (closed) {
+			return;
+		}
+		if (output.isEmpty() && closeAfterOutput) {
+			close();
+			return;
+		}
+		updateInterest();
+	}
+
+	private void updateInterest() {
+		if (key == null || !key.isValid()) {
+			return;
+		}
+		int ops = 0;
+		// The bytes put aside are handled first, and the client waits while too many replies are pending
+		if (state != State.SAVING && !closeAfterOutput && pendingInput == null && !isOutputFull()) {
+			ops |= SelectionKey.OP_READ;
+		}
+		if (!output.isEmpty()) {
+			ops |= SelectionKey.OP_WRITE;
+		}
+		key.interestOps(ops);
+	}
+}
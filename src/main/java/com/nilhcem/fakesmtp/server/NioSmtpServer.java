@@ -0,0 +1,259 @@
+package com.nilhcem.fakesmtp.server;
+
+import com.nilhcem.fakesmtp.metrics.SmtpMetrics;
+import org.jspecify.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * A non-blocking SMTP server, an alternative to the SubEtha {@code SMTPServer} for many concurrent connections.
+ * <p>
+ * The connections are spread over a few event loops (one per core by default), each of them running
+ * thousands of sessions with a single thread, instead of a thread per connection.
+ * The emails are handed to the same {@link MultipleRecipientsMessageHandler} and {@link MailSaver}
+ * as with the SubEtha server, saving them on a worker thread. A session stops reading while its email is saved,
+ * so a slow disk slows the clients down instead of queuing their emails.
+ * </p>
+ * <p>
+ * The {@code PIPELINING} and {@code CHUNKING} extensions are supported, so a client can send a whole transaction
+ * at once, and the body of an email without dot-stuffing. {@code STARTTLS} isn't supported.
+ * The authentication accepts any credentials, like the SubEtha server.
+ * </p>
+ */
+public final class NioSmtpServer {
+
+	private static final Logger log = LoggerFactory.getLogger(NioSmtpServer.class);
+
+	private static final byte[] TOO_MANY_CONNECTIONS = "421 4.3.2 Too many connections, try again later\r\n"
+			.getBytes(StandardCharsets.US_ASCII);
+
+	/**
+	 * The settings of the server.
+	 *
+	 * @param threads the number of event loops, or {@code 0} for one per available processor.
+	 * @param backlog the maximum number of connections waiting to be accepted.
+	 * @param maxSessions the maximum number of concurrent sessions.
+	 * @param connectionTimeoutMillis the time after which an idle session is closed, or {@code 0} for never.
+	 * @param maxMessageSize the maximum size of an email in bytes, or {@code 0} for unlimited.
+	 * @param maxRecipients the maximum number of recipients of an email.
+	 * @param requireAuth whether the clients must authenticate before sending emails.
+	 */
+	public record Options(int threads, int backlog, int maxSessions, int connectionTimeoutMillis,
+			int maxMessageSize, int maxRecipients, boolean requireAuth) {
+	}
+
+	private final MailSaver saver;
+	private final Supplier<MultipleRecipientsMessageHandler> handlers;
+	private final Options options;
+	private final ExecutorService worker;
+	private final boolean ownWorker;
+	private final AtomicInteger sessions = new AtomicInteger();
+
+	private String hostName = "localhost";
+	@Nullable
+	private ServerSocketChannel serverChannel;
+	private NioEventLoop[] loops = new NioEventLoop[0];
+	private int nextLoop;
+	private volatile boolean running;
+
+	/**
+	 * @param saver the saver of the received emails.
+	 * @param handlers creates the handler of each mail transaction.
+	 * @param options the settings of the server.
+	 * @param worker the executor saving the emails, such as virtual threads, or {@code null} to use a fixed pool
+	 *               of daemon threads, shut down with the server. Each session saves a single email at a time,
+	 *               so it never runs more tasks than the maximum number of sessions.
+	 */
+	public NioSmtpServer(MailSaver saver, Supplier<MultipleRecipientsMessageHandler> handlers, Options options,
+			@Nullable ExecutorService worker) {
+		this.saver = saver;
+		this.handlers = handlers;
+		this.options = options;
+		this.ownWorker = worker == null;
+		this.worker = worker != null ? worker : newWorker(options);
+	}
+
+	/**
+	 * Creates the default worker: saving mostly waits for the disk, so it has twice as many threads as processors.
+	 * Its queue holds a task per session, the sessions waiting for their email to be saved not reading anything.
+	 */
+	private static ExecutorService newWorker(Options options) {
+		int threads = 2 * Runtime.getRuntime().availableProcessors();
+		return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(Math.max(1, options.maxSessions())), runnable -> {
+					Thread thread = new Thread(runnable, "fakesmtp-nio-saver");
+					thread.setDaemon(true);
+					return thread;
+				});
+	}
+
+	/**
+	 * Binds the server and starts its event loops.
+	 *
+	 * @param address the address to bind to, with a wildcard address to bind to all the local addresses.
+	 * @throws UncheckedIOException if the address can't be bound, its message containing {@code BindException}.
+	 * @throws IllegalArgumentException if the port is out of range.
+	 * @throws IllegalStateException if the server is already running.
+	 */
+	public synchronized void start(InetSocketAddress address) {
+		if (running) {
+			throw new IllegalStateException("The server is already running");
+		}
+		try {
+			hostName = InetAddress.getLocalHost().getCanonicalHostName();
+		} catch (UnknownHostException e) {
+			log.debug("Can't resolve the local host name: {}", e.toString());
+		}
+
+		int threads = options.threads() > 0 ? options.threads() : Runtime.getRuntime().availableProcessors();
+		try {
+			ServerSocketChannel channel = ServerSocketChannel.open();
+			serverChannel = channel;
+			channel.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+			channel.bind(address, options.backlog());
+			channel.configureBlocking(false);
+
+			loops = new NioEventLoop[threads];
+			for (int i = 0; i < threads; i++) {
+				loops[i] = new NioEventLoop(this, "fakesmtp-nio-" + i, options.connectionTimeoutMillis());
+			}
+			// The connections are accepted by the first loop, which also runs sessions
+			loops[0].listen(channel);
+		} catch (IOException e) {
+			closeChannels();
+			throw new UncheckedIOException(e.getClass().getName() + ": " + e.getMessage() + " (" + address + ")", e);
+		}
+		running = true;
+		for (NioEventLoop loop : loops) {
+			loop.start();
+		}
+		log.info("Non-blocking SMTP server started on {} with {} event loops", address, threads);
+	}
+
+	/**
+	 * Stops the event loops, closing the sessions, and the worker if it was created by the server.
+	 */
+	public synchronized void stop() {
+		if (!running) {
+			return;
+		}
+		running = false;
+		for (NioEventLoop loop : loops) {
+			loop.stop();
+		}
+		closeChannels();
+		if (ownWorker) {
+			worker.shutdown();
+		}
+	}
+
+	public boolean isRunning() {
+		return running;
+	}
+
+	/**
+	 * @return the local port, or {@code -1} if the server isn't bound.
+	 */
+	public int getPort() {
+		ServerSocketChannel channel = serverChannel;
+		try {
+			return channel != null && channel.getLocalAddress() instanceof InetSocketAddress local ? local.getPort() : -1;
+		} catch (IOException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Accepts the pending connections, and hands them to the event loops in turn.
+	 * Called by the first event loop.
+	 */
+	void accept() {
+		ServerSocketChannel channel = serverChannel;
+		if (channel == null) {
+			return;
+		}
+		while (true) {
+			SocketChannel client;
+			try {
+				client = channel.accept();
+			} catch (IOException e) {
+				// Such as too many open files: the next connections are accepted on the next selection
+				log.warn("Can't accept a connection: {}", e.toString());
+				return;
+			}
+			if (client == null) {
+				return;
+			}
+			if (sessions.incrementAndGet() > options.maxSessions()) {
+				sessions.decrementAndGet();
+				SmtpMetrics.INSTANCE.rejected();
+				reject(client);
+				continue;
+			}
+			loops[nextLoop].register(client);
+			nextLoop = (nextLoop + 1) % loops.length;
+		}
+	}
+
+	void sessionClosed() {
+		sessions.decrementAndGet();
+	}
+
+	MultipleRecipientsMessageHandler newHandler() {
+		return handlers.get();
+	}
+
+	MailSaver getSaver() {
+		return saver;
+	}
+
+	Options getOptions() {
+		return options;
+	}
+
+	ExecutorService getWorker() {
+		return worker;
+	}
+
+	String getHostName() {
+		return hostName;
+	}
+
+	private static void reject(SocketChannel client) {
+		try (client) {
+			client.configureBlocking(false);
+			client.write(ByteBuffer.wrap(TOO_MANY_CONNECTIONS));
+		} catch (IOException e) {
+			log.debug("Can't reject {}: {}", client, e.toString());
+		}
+	}
+
+	private void closeChannels() {
+		ServerSocketChannel channel = serverChannel;
+		serverChannel = null;
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				log.debug("Can't close the server channel: {}", e.toString());
+			}
+		}
+	}
+}
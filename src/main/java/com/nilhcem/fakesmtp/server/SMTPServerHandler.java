@@ -1,5 +1,8 @@
 package com.nilhcem.fakesmtp.server;
 
+import com.nilhcem.fakesmtp.core.ArgsHandler;
+import com.nilhcem.fakesmtp.core.Configuration;
+import com.nilhcem.fakesmtp.core.Configuration.Settings;
 import com.nilhcem.fakesmtp.core.exception.BindPortException;
 import com.nilhcem.fakesmtp.core.exception.OutOfRangePortException;
 import lombok.Getter;
@@ -11,10 +14,21 @@ import org.subethamail.smtp.MessageHandlerFactory;
 import org.subethamail.smtp.server.SMTPServer;
 
 import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
 
 /**
  * Starts and stops the SMTP server.
+ * <p>
+ * The server can listen on several ports and addresses at once (see the {@code --listen} option):
+ * each {@link Listener} has its own {@link SMTPServer} (or {@link NioSmtpServer}, depending on the {@code --engine} option),
+ * all of them saving the emails with the same {@link MailSaver}.
+ * </p>
  *
  * @author Nilhcem
  * @since 1.0
@@ -25,40 +39,126 @@ public enum SMTPServerHandler {
 
 	private static final Logger log = LoggerFactory.getLogger(SMTPServerHandler.class);
 
+	private static final int DEFAULT_MAX_SESSIONS = 1000;
+	private static final int DEFAULT_BACKLOG = 50;
+	private static final int DEFAULT_CONNECTION_TIMEOUT_MILLIS = 60_000;
+	private static final int DEFAULT_MAX_RECIPIENTS = 1000;
+
 	@Getter
 	private final MailSaver mailSaver = new MailSaver();
 	private final MailListener myListener = new MailListener(mailSaver);
-	@Getter
-    @Nullable
-	private SMTPServer smtpServer;
+	/**
+	 * The running servers, one per listener, the first one listening on the port chosen in the GUI.
+	 */
+	private final List<RunningServer> servers = new ArrayList<>();
+	/**
+	 * The executors of the SMTP sessions of the servers, if they don't use their default executor.
+	 */
+	private final List<ExecutorService> sessionExecutors = new ArrayList<>();
+
+	/**
+	 * A started server, whatever its engine.
+	 */
+	private record RunningServer(Listener listener, BooleanSupplier running, Runnable stop) {
+	}
 
 	SMTPServerHandler() {
 	}
 
 	/**
-	 * Starts the server on the port and address specified in parameters.
+	 * Starts the server on the port and address specified in parameters, and on the additional listeners
+	 * specified with the {@code --listen} option.
+	 * <p>
+	 * The SMTP sessions run on the engine selected with the {@code --engine} option, and with the blocking engine
+	 * on the threads selected with the {@code --session-threads} option, up to the {@code smtp.max.sessions} setting
+	 * (for each listener). The other limits of the server (backlog,
+	 * connection timeout, maximum size and recipients of an email) are read from the {@code smtp.*} settings.<br>
+	 * If a listener can't be started, the listeners already started are stopped.
+	 * </p>
 	 *
 	 * @param port the SMTP port to be opened.
 	 * @param bindAddress the address to bind to. null means bind to all.
 	 * @throws BindPortException when the port can't be opened.
 	 * @throws OutOfRangePortException when port is out of range.
+	 * @throws UnknownHostException when the address of an additional listener can't be resolved.
 	 * @throws IllegalArgumentException when port is out of range.
 	 */
-	public void startServer(int port, @Nullable InetAddress bindAddress) throws BindPortException, OutOfRangePortException, UnknownHostException {
-		log.debug("Starting server on port {}", port);
+	public synchronized void startServer(int port, @Nullable InetAddress bindAddress) throws BindPortException, OutOfRangePortException, UnknownHostException {
+		try {
+			start(new Listener(bindAddress == null ? null : bindAddress.getHostAddress(), port), bindAddress);
+			for (Listener listener : ArgsHandler.INSTANCE.getListeners()) {
+				start(listener, listener.host() == null ? null : InetAddress.getByName(listener.host()));
+			}
+		} catch (BindPortException | OutOfRangePortException | UnknownHostException | RuntimeException e) {
+			stopServers();
+			throw e;
+		}
+	}
+
+	private void start(Listener listener, @Nullable InetAddress bindAddress) throws BindPortException, OutOfRangePortException, UnknownHostException {
+		int port = listener.port();
+		log.debug("Starting server on {}", listener);
+		ExecutorService sessionExecutor = null;
 		try {
 			InetAddress anyLocalAddress = InetAddress.getByName("0.0.0.0");
-			MessageHandlerFactory mhf = ctx -> new MultipleRecipientsMessageHandler(mailSaver);
-			smtpServer = new SMTPServer.Builder()
+			Configuration configuration = Configuration.getInstance();
+			int maxMessageSize = configuration.getInt(Settings.SMTP_MAX_MESSAGE_SIZE, 0);
+			if (ArgsHandler.INSTANCE.getEngine() == ServerEngine.NIO) {
+				if (listener.tls()) {
+					log.warn("STARTTLS isn't supported by the nio engine, the listener {} doesn't offer it", listener);
+				}
+				// Virtual threads save the emails, if selected for the sessions
+				sessionExecutor = ArgsHandler.INSTANCE.getSessionThreads().newExecutor();
+				if (sessionExecutor != null) {
+					sessionExecutors.add(sessionExecutor);
+				}
+				NioSmtpServer nioServer = new NioSmtpServer(mailSaver,
+						() -> new MultipleRecipientsMessageHandler(mailSaver, maxMessageSize),
+						new NioSmtpServer.Options(
+								configuration.getInt(Settings.SMTP_NIO_THREADS, 0),
+								configuration.getInt(Settings.SMTP_BACKLOG, DEFAULT_BACKLOG),
+								configuration.getInt(Settings.SMTP_MAX_SESSIONS, DEFAULT_MAX_SESSIONS),
+								configuration.getInt(Settings.SMTP_CONNECTION_TIMEOUT, DEFAULT_CONNECTION_TIMEOUT_MILLIS),
+								maxMessageSize,
+								configuration.getInt(Settings.SMTP_MAX_RECIPIENTS, DEFAULT_MAX_RECIPIENTS),
+								listener.requireAuth()),
+						sessionExecutor);
+				nioServer.start(new InetSocketAddress(bindAddress == null ? anyLocalAddress : bindAddress, port));
+				servers.add(new RunningServer(listener, nioServer::isRunning, nioServer::stop));
+				return;
+			}
+			MessageHandlerFactory mhf = ctx -> new MultipleRecipientsMessageHandler(mailSaver, maxMessageSize);
+			SMTPServer.Builder builder = new SMTPServer.Builder()
 					.insertReceivedHeaders(false)
 //					.simpleMessageListener(myListener)
 					.messageHandlerFactory(mhf)
 					.authenticationHandlerFactory(new SMTPAuthHandlerFactory())
+					// The wildcard address also accepts the IPv6 connections, on dual-stack hosts
 					.bindAddress(bindAddress == null ? anyLocalAddress : bindAddress)
 					.port(port)
-					.build();
+					.enableTLS(listener.tls())
+					.requireTLS(listener.requireTls())
+					.requireAuth(listener.requireAuth())
+					.maxConnections(configuration.getInt(Settings.SMTP_MAX_SESSIONS, DEFAULT_MAX_SESSIONS))
+					.backlog(configuration.getInt(Settings.SMTP_BACKLOG, DEFAULT_BACKLOG))
+					.connectionTimeout(configuration.getInt(Settings.SMTP_CONNECTION_TIMEOUT, DEFAULT_CONNECTION_TIMEOUT_MILLIS),
+							TimeUnit.MILLISECONDS)
+					// Advertised with the SIZE extension, so the clients declaring a larger size are rejected before DATA
+					.maxMessageSize(maxMessageSize)
+					.maxRecipients(configuration.getInt(Settings.SMTP_MAX_RECIPIENTS, DEFAULT_MAX_RECIPIENTS));
+			sessionExecutor = ArgsHandler.INSTANCE.getSessionThreads().newExecutor();
+			if (sessionExecutor != null) {
+				builder.executorService(sessionExecutor);
+				sessionExecutors.add(sessionExecutor);
+			}
+			SMTPServer smtpServer = builder.build();
 			smtpServer.start();
+			servers.add(new RunningServer(listener, smtpServer::isRunning, smtpServer::stop));
 		} catch (RuntimeException exception) {
+			if (sessionExecutor != null) {
+				sessionExecutor.shutdown();
+				sessionExecutors.remove(sessionExecutor);
+			}
             if (exception.getMessage() != null
                     && exception.getMessage().contains("BindException")) { // Can't open port
 				log.error("{}. Port {}", exception.getMessage(), port);
@@ -75,16 +175,33 @@ public enum SMTPServerHandler {
 	}
 
 	/**
-	 * Stops the server.
+	 * @return whether the server is listening, on at least one listener.
+	 */
+	public synchronized boolean isRunning() {
+		return servers.stream().anyMatch(server -> server.running().getAsBoolean());
+	}
+
+	/**
+	 * Stops the server, on all its listeners.
 	 * <p>
-	 * If the server is not started, does nothing special.
+	 * If the server is not started, does nothing special.<br>
+	 * Emails still waiting to be written in write-behind mode are written before returning.
 	 * </p>
 	 */
-	public void stopServer() {
-		if (smtpServer != null && smtpServer.isRunning()) {
-			log.debug("Stopping server");
-			smtpServer.stop();
-		}
+	public synchronized void stopServer() {
+		stopServers();
+		mailSaver.flush();
 	}
 
+	private void stopServers() {
+		for (RunningServer server : servers) {
+			if (server.running().getAsBoolean()) {
+				log.debug("Stopping server on {}", server.listener());
+				server.stop().run();
+			}
+		}
+		servers.clear();
+		sessionExecutors.forEach(ExecutorService::shutdown);
+		sessionExecutors.clear();
+	}
 }
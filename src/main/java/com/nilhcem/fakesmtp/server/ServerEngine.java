@@ -0,0 +1,30 @@
+package com.nilhcem.fakesmtp.server;
+
+import java.util.Locale;
+
+/**
+ * The implementation of the SMTP server, selected at startup.
+ */
+public enum ServerEngine {
+	/**
+	 * The SubEtha SMTP server, one thread per connection (see {@link SessionThreads}).
+	 * Supports {@code STARTTLS}.
+	 */
+	BLOCKING,
+	/**
+	 * The {@link NioSmtpServer}, a few event loops running all the connections. Supports {@code PIPELINING}
+	 * and {@code CHUNKING} (BDAT), but not {@code STARTTLS}.
+	 */
+	NIO;
+
+	/**
+	 * Parses an engine, ignoring the case.
+	 *
+	 * @param value {@code blocking} or {@code nio}.
+	 * @return the engine.
+	 * @throws IllegalArgumentException if the value is unknown.
+	 */
+	public static ServerEngine parse(String value) {
+		return valueOf(value.trim().toUpperCase(Locale.ROOT));
+	}
+}
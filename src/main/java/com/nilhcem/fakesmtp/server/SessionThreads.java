@@ -0,0 +1,60 @@
+package com.nilhcem.fakesmtp.server;
+
+import org.jspecify.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The kind of threads running the SMTP sessions, one thread per connection.
+ */
+public enum SessionThreads {
+	/**
+	 * Platform threads, from a cached pool: each idle connection costs a whole thread stack.
+	 */
+	PLATFORM,
+	/**
+	 * Virtual threads, which only hold a carrier thread while they run: thousands of idle connections cost
+	 * a few kilobytes each. Requires Java 21 or later, platform threads are used otherwise.
+	 */
+	VIRTUAL;
+
+	private static final Logger log = LoggerFactory.getLogger(SessionThreads.class);
+
+	/**
+	 * Creates the executor of the SMTP sessions.
+	 *
+	 * @return the executor, or {@code null} to use the default executor of the SMTP server (platform threads).
+	 */
+	@Nullable
+	ExecutorService newExecutor() {
+		if (this == PLATFORM) {
+			return null;
+		}
+		try {
+			// Looked up at runtime, as the application is compiled for Java 17
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (NoSuchMethodException e) {
+			log.warn("Virtual threads require Java 21 or later, the SMTP sessions run on platform threads instead");
+			return null;
+		} catch (IllegalAccessException | InvocationTargetException e) {
+			log.warn("Virtual threads can't be used, the SMTP sessions run on platform threads instead", e);
+			return null;
+		}
+	}
+
+	/**
+	 * Parses a kind of threads, ignoring the case.
+	 *
+	 * @param value {@code platform} or {@code virtual}.
+	 * @return the kind of threads.
+	 * @throws IllegalArgumentException if the value is unknown.
+	 */
+	public static SessionThreads parse(String value) {
+		return valueOf(value.trim().toUpperCase(Locale.ROOT));
+	}
+}
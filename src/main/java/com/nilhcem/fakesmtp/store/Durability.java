@@ -0,0 +1,21 @@
+package com.nilhcem.fakesmtp.store;
+
+/**
+ * When an email is acknowledged to the SMTP client, once it was handed to the write-behind writer.
+ *
+ * @see WriteBehindWriter
+ */
+public enum Durability {
+	/**
+	 * As soon as the email is queued: the lowest latency, but queued emails are lost if the application crashes.
+	 */
+	ENQUEUE,
+	/**
+	 * Once the email was written to its file (but maybe still in the OS cache).
+	 */
+	WRITE,
+	/**
+	 * Once the file of the email was flushed to the disk.
+	 */
+	FSYNC
+}
@@ -0,0 +1,223 @@
+package com.nilhcem.fakesmtp.store;
+
+import com.nilhcem.fakesmtp.core.Configuration;
+import com.nilhcem.fakesmtp.model.MailContent;
+import com.nilhcem.fakesmtp.model.UIModel;
+import com.nilhcem.fakesmtp.server.MessageBuffer;
+import org.jspecify.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.format.DateTimeFormatter;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * Saves each email in its own {@code .eml} file, in the save directory.
+ * <p>
+ * Nothing is shared between the SMTP sessions saving emails: each file name is derived from the unique
+ * identifier of the email, and created atomically, so no lock is needed.<br>
+ * The saved files are registered in a concurrent map sorted by identifier, which allows deleting
+ * all the emails received up to a given identifier while other emails are still being saved.
+ * </p>
+ */
+public final class FileMailStore implements MailStore {
+
+	private static final Logger log = LoggerFactory.getLogger(FileMailStore.class);
+
+	private static final int MAX_NAME_ATTEMPTS = 100;
+
+	/*
+		DateTimeFormatter symbols used :
+		S fraction-of-second fraction 978
+		n nano-of-second number 987654321
+		H hour-of-day (0-23) number 0
+	 */
+
+	/**
+	 * Use HH for (0-23) hour format.
+	 * Use n to use nanos (9 digits) instead of milliseconds (3 digits)
+	 */
+	private final DateTimeFormatter dateTimeFormatForFilename = DateTimeFormatter.ofPattern("yyyyMMdd.HHmmss.nnnnnnnnn");
+
+	private final ConcurrentNavigableMap<Long, StoredFile> savedFiles = new ConcurrentSkipListMap<>();
+
+	@Override
+	public Set<Capability> capabilities() {
+		return StoreType.FILES.capabilities();
+	}
+
+	/**
+	 * Saves the content of the email passed in parameters in a new file.
+	 *
+	 * @param id the unique identifier of the email.
+	 * @param message the raw content of the email to be saved, which is moved to the new file.
+	 * @return a handle on the created file.
+	 * @throws IOException if the email couldn't be saved.
+	 */
+	@Override
+	public MailContent put(long id, MessageBuffer message) throws IOException {
+		long length = message.size();
+		Path filePath = createEmailFile(id);
+		try {
+			message.moveTo(filePath);
+		} catch (IOException e) {
+			Files.deleteIfExists(filePath);
+			throw e;
+		}
+		StoredFile file = new StoredFile(filePath.toAbsolutePath(), length);
+		savedFiles.put(id, file);
+		return file.content();
+	}
+
+	@Override
+	public @Nullable MailContent get(long id) {
+		StoredFile file = savedFiles.get(id);
+		return file == null ? null : file.content();
+	}
+
+	@Override
+	public NavigableSet<Long> list() {
+		return Collections.unmodifiableNavigableSet(savedFiles.navigableKeySet());
+	}
+
+	@Override
+	public InputStream stream(long id) throws IOException {
+		StoredFile file = savedFiles.get(id);
+		if (file == null) {
+			throw new NoSuchFileException("Email " + id + " was deleted");
+		}
+		return Files.newInputStream(file.path());
+	}
+
+	@Override
+	public @Nullable Path path(long id) {
+		StoredFile file = savedFiles.get(id);
+		return file == null ? null : file.path();
+	}
+
+	/**
+	 * Flushes the files of the emails passed in parameters to the disk, as well as their directories.
+	 *
+	 * @param ids the identifiers of the emails to flush.
+	 */
+	@Override
+	public void sync(Collection<Long> ids) {
+		Set<Path> directories = new HashSet<>();
+		for (Long id : ids) {
+			StoredFile file = savedFiles.get(id);
+			if (file == null) {
+				continue;
+			}
+			try (FileChannel channel = FileChannel.open(file.path(), StandardOpenOption.WRITE)) {
+				channel.force(true);
+			} catch (IOException e) {
+				log.error("Impossible to sync file {}", file.path(), e);
+			}
+			directories.add(file.path().getParent());
+		}
+		// Makes the new directory entries durable too (not supported on every platform)
+		for (Path directory : directories) {
+			try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+				channel.force(true);
+			} catch (IOException e) {
+				log.debug("Impossible to sync directory {}: {}", directory, e.toString());
+			}
+		}
+	}
+
+	@Override
+	public boolean delete(long id) {
+		StoredFile file = savedFiles.remove(id);
+		if (file == null) {
+			return false;
+		}
+		deleteFile(file.path());
+		return true;
+	}
+
+	/**
+	 * Deletes the files of all the emails saved up to the identifier passed in parameter.
+	 * <p>
+	 * Emails saved concurrently with a greater identifier are kept.
+	 * </p>
+	 *
+	 * @param maxId the identifier of the last email to delete (inclusive).
+	 */
+	@Override
+	public void deleteUpTo(long maxId) {
+		Map<Long, StoredFile> toDelete = savedFiles.headMap(maxId, true);
+		for (Map.Entry<Long, StoredFile> entry : toDelete.entrySet()) {
+			if (savedFiles.remove(entry.getKey(), entry.getValue())) {
+				deleteFile(entry.getValue().path());
+			}
+		}
+	}
+
+	private static void deleteFile(Path file) {
+		try {
+			if (!Files.deleteIfExists(file)) {
+				log.error("Impossible to delete file {}", file);
+			}
+		} catch (IOException | SecurityException e) {
+			log.error(e.toString(), e);
+		}
+	}
+
+	/**
+	 * Creates a new empty file in the save directory, named after the identifier of the email.
+	 * <p>
+	 * The name is unique within this application, a counter is only added if the file already exists
+	 * (for example, created by another instance sharing the same directory).
+	 * </p>
+	 *
+	 * @param id the unique identifier of the email.
+	 * @return the path of the created file.
+	 * @throws IOException if the file couldn't be created.
+	 */
+	private Path createEmailFile(long id) throws IOException {
+		Path saveDirectory = Path.of(UIModel.INSTANCE.getSavePath());
+		if (!Files.isDirectory(saveDirectory)) {
+			Files.createDirectories(saveDirectory);
+		}
+		String fileTimestamp = dateTimeFormatForFilename.format(MailIdGenerator.toDateTime(id));
+		String suffix = Configuration.getInstance().get("emails.suffix");
+
+		for (int i = 1; ; i++) {
+			String counter = i > 1 ? "_" + i : "";
+			try {
+				return Files.createFile(saveDirectory.resolve(fileTimestamp + counter + suffix));
+			} catch (FileAlreadyExistsException e) {
+				if (i >= MAX_NAME_ATTEMPTS) {
+					throw e;
+				}
+			}
+		}
+	}
+
+	/**
+	 * A saved email.
+	 *
+	 * @param path the absolute path of its file.
+	 * @param length the size of the file, in bytes.
+	 */
+	private record StoredFile(Path path, long length) {
+		MailContent content() {
+			return MailContent.ofFile(path, 0, length);
+		}
+	}
+}
@@ -0,0 +1,50 @@
+package com.nilhcem.fakesmtp.store;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Generates unique and increasing email identifiers, without any lock.
+ * <p>
+ * An identifier is the reception time, in nanoseconds since the epoch. When several emails are received
+ * during the same clock tick, the following identifiers are simply incremented, so the identifier is both
+ * a timestamp and a sequence number.
+ * </p>
+ */
+public final class MailIdGenerator {
+
+	private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+	private final AtomicLong last = new AtomicLong();
+
+	/**
+	 * @return a new identifier, greater than all the identifiers previously generated.
+	 */
+	public long next() {
+		long now = toId(Instant.now());
+		return last.updateAndGet(previous -> Math.max(now, previous + 1));
+	}
+
+	/**
+	 * @return the last generated identifier, or {@code 0} if none was generated yet.
+	 */
+	public long current() {
+		return last.get();
+	}
+
+	/**
+	 * Converts an identifier back to the reception time it stands for.
+	 *
+	 * @param id an identifier created by this generator.
+	 * @return the local date and time of the identifier.
+	 */
+	public static LocalDateTime toDateTime(long id) {
+		return LocalDateTime.ofInstant(Instant.ofEpochSecond(0, id), ZoneId.systemDefault());
+	}
+
+	private static long toId(Instant instant) {
+		return instant.getEpochSecond() * NANOS_PER_SECOND + instant.getNano();
+	}
+}
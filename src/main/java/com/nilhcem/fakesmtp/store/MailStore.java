@@ -0,0 +1,141 @@
+package com.nilhcem.fakesmtp.store;
+
+import com.nilhcem.fakesmtp.model.MailContent;
+import com.nilhcem.fakesmtp.server.MessageBuffer;
+import org.jspecify.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.NavigableSet;
+import java.util.Set;
+
+/**
+ * Persists the received emails, each one being identified by the unique identifier given by the {@link MailIdGenerator}.
+ * <p>
+ * Implementations must be thread-safe: emails are put by the SMTP sessions concurrently,
+ * while the GUI reads and deletes them.<br>
+ * What a store supports beyond these operations is described by its {@link Capability capabilities}.
+ * </p>
+ *
+ * @see StoreType
+ */
+public interface MailStore {
+
+	/**
+	 * Optional features of a store.
+	 */
+	enum Capability {
+		/**
+		 * The emails are kept on disk, and survive a restart of the application.
+		 */
+		PERSISTENT,
+		/**
+		 * Each email is saved in its own {@code .eml} file, returned by {@link #path(long)}.
+		 */
+		FILE_PER_EMAIL,
+		/**
+		 * The emails can be flushed to the disk with {@link #sync(Collection)}.
+		 */
+		SYNC
+	}
+
+	/**
+	 * @return the features supported by this store.
+	 */
+	Set<Capability> capabilities();
+
+	/**
+	 * @param capability a feature.
+	 * @return whether this store supports the feature.
+	 */
+	default boolean has(Capability capability) {
+		return capabilities().contains(capability);
+	}
+
+	/**
+	 * Stores an email.
+	 *
+	 * @param id the unique identifier of the email.
+	 * @param message the raw content of the email, which stays owned by the caller (but may be emptied by the store).
+	 * @return a handle on the content of the stored email.
+	 * @throws IOException if the email couldn't be stored.
+	 */
+	MailContent put(long id, MessageBuffer message) throws IOException;
+
+	/**
+	 * @param id the unique identifier of an email.
+	 * @return a handle on the content of the email, or {@code null} if it isn't in this store.
+	 */
+	@Nullable MailContent get(long id);
+
+	/**
+	 * @return the identifiers of the stored emails, in ascending order (a read-only view).
+	 */
+	NavigableSet<Long> list();
+
+	/**
+	 * Opens a stream on the raw content of an email.
+	 *
+	 * @param id the unique identifier of the email.
+	 * @return a stream on the raw content.
+	 * @throws NoSuchFileException if the email isn't in this store.
+	 * @throws IOException if the email can't be read.
+	 */
+	InputStream stream(long id) throws IOException;
+
+	/**
+	 * Deletes an email.
+	 *
+	 * @param id the unique identifier of the email.
+	 * @return whether the email was in this store.
+	 */
+	boolean delete(long id);
+
+	/**
+	 * Deletes all the emails stored up to the identifier passed in parameter.
+	 * <p>
+	 * Emails stored concurrently with a greater identifier are kept.
+	 * </p>
+	 *
+	 * @param maxId the identifier of the last email to delete (inclusive).
+	 */
+	void deleteUpTo(long maxId);
+
+	/**
+	 * @param id the unique identifier of an email.
+	 * @return the {@code .eml} file of the email, or {@code null} if it isn't in this store,
+	 * or if the store doesn't have the {@link Capability#FILE_PER_EMAIL} capability.
+	 */
+	default @Nullable Path path(long id) {
+		return null;
+	}
+
+	/**
+	 * Writes an email in a standalone {@code .eml} file.
+	 *
+	 * @param id the unique identifier of the email.
+	 * @param target the file to write, which will be replaced if it already exists.
+	 * @throws IOException if the email isn't in this store, or the file can't be written.
+	 */
+	default void export(long id, Path target) throws IOException {
+		try (InputStream in = stream(id); OutputStream out = Files.newOutputStream(target)) {
+			in.transferTo(out);
+		}
+	}
+
+	/**
+	 * Flushes emails to the disk, if the store has the {@link Capability#SYNC} capability.
+	 * <p>
+	 * A store may flush more than the emails passed in parameter, for example everything written so far.
+	 * </p>
+	 *
+	 * @param ids the identifiers of the emails to flush.
+	 */
+	default void sync(Collection<Long> ids) {
+	}
+}
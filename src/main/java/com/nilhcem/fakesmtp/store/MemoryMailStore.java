@@ -0,0 +1,289 @@
+package com.nilhcem.fakesmtp.store;
+
+import com.nilhcem.fakesmtp.model.MailContent;
+import com.nilhcem.fakesmtp.server.MessageBuffer;
+import org.jspecify.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.NoSuchFileException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.LongConsumer;
+
+/**
+ * Keeps the emails in memory only (the {@code --memory-mode} option), so nothing is written to the disk.
+ * <p>
+ * The number of emails and their total size are capped: once a cap is exceeded, emails are evicted according
+ * to the {@link EvictionPolicy}, so the heap used by the store stays bounded however long the server runs.
+ * The evictions are counted, and reported to the {@link #setEvictionListener(LongConsumer) eviction listener}.
+ * </p>
+ * <p>
+ * The content of the emails is kept on the heap, or in an {@link OffHeapArena} if one is given.
+ * When the arena is full, emails are evicted until there is room for the new one.
+ * </p>
+ */
+public final class MemoryMailStore implements MailStore {
+
+	/**
+	 * Which email is evicted first when the store is full.
+	 */
+	public enum EvictionPolicy {
+		/**
+		 * The oldest email.
+		 */
+		FIFO,
+		/**
+		 * The least recently read email.
+		 */
+		LRU
+	}
+
+	private final int maxCount;
+	private final long maxBytes;
+	private final EvictionPolicy evictionPolicy;
+	@Nullable
+	private final OffHeapArena arena;
+
+	/**
+	 * Emails in eviction order (insertion or access order, depending on the policy), guarded by itself.
+	 */
+	private final LinkedHashMap<Long, StoredEmail> emails;
+	private long bytes;
+	private long evictedCount;
+	private long evictedBytes;
+	@Nullable
+	private volatile LongConsumer evictionListener;
+
+	/**
+	 * Creates an empty store.
+	 *
+	 * @param maxCount the maximum number of emails kept.
+	 * @param maxBytes the maximum total size of the emails kept, in bytes.
+	 * @param evictionPolicy which email is evicted first when a cap is exceeded.
+	 */
+	public MemoryMailStore(int maxCount, long maxBytes, EvictionPolicy evictionPolicy) {
+		this(maxCount, maxBytes, evictionPolicy, null);
+	}
+
+	/**
+	 * Creates an empty store.
+	 *
+	 * @param maxCount the maximum number of emails kept.
+	 * @param maxBytes the maximum total size of the emails kept, in bytes.
+	 * @param evictionPolicy which email is evicted first when a cap is exceeded.
+	 * @param arena the arena keeping the content of the emails, or {@code null} to keep it on the heap.
+	 */
+	public MemoryMailStore(int maxCount, long maxBytes, EvictionPolicy evictionPolicy, @Nullable OffHeapArena arena) {
+		if (maxCount <= 0 || maxBytes <= 0) {
+			throw new IllegalArgumentException("Caps must be positive: " + maxCount + " emails, " + maxBytes + " bytes");
+		}
+		this.maxCount = maxCount;
+		this.maxBytes = maxBytes;
+		this.evictionPolicy = evictionPolicy;
+		this.arena = arena;
+		this.emails = new LinkedHashMap<>(16, 0.75f, evictionPolicy == EvictionPolicy.LRU);
+	}
+
+	@Override
+	public Set<Capability> capabilities() {
+		return StoreType.MEMORY.capabilities();
+	}
+
+	@Override
+	public MailContent put(long id, MessageBuffer message) throws IOException {
+		StoredEmail email = arena == null
+				? new StoredEmail(MailContent.ofBytes(message.toByteArray()), null)
+				: storeOffHeap(arena, message);
+		List<Long> evicted = new ArrayList<>(1);
+		synchronized (emails) {
+			StoredEmail previous = emails.put(id, email);
+			if (previous != null) {
+				release(previous);
+			}
+			bytes += email.content().length();
+			Iterator<Map.Entry<Long, StoredEmail>> eldest = emails.entrySet().iterator();
+			while ((emails.size() > maxCount || bytes > maxBytes) && eldest.hasNext()) {
+				evicted.add(evict(eldest));
+			}
+		}
+		notifyEvicted(evicted);
+		return email.content();
+	}
+
+	private StoredEmail storeOffHeap(OffHeapArena arena, MessageBuffer message) throws IOException {
+		OffHeapArena.Allocation allocation;
+		List<Long> evicted = new ArrayList<>(1);
+		try {
+			synchronized (emails) {
+				Iterator<Map.Entry<Long, StoredEmail>> eldest = emails.entrySet().iterator();
+				while ((allocation = arena.allocate(message.size())) == null) {
+					if (!eldest.hasNext()) {
+						throw new IOException("Email too large for the off-heap arena: " + message.size() + " bytes");
+					}
+					evicted.add(evict(eldest));
+				}
+			}
+		} finally {
+			notifyEvicted(evicted);
+		}
+		try (InputStream in = message.openStream()) {
+			arena.write(allocation, in);
+		} catch (IOException e) {
+			arena.free(allocation);
+			throw e;
+		}
+		return new StoredEmail(arena.content(allocation), allocation);
+	}
+
+	/**
+	 * Evicts the next email of an iterator on the emails in eviction order.
+	 *
+	 * @return the identifier of the evicted email.
+	 */
+	private long evict(Iterator<Map.Entry<Long, StoredEmail>> eldest) {
+		Map.Entry<Long, StoredEmail> entry = eldest.next();
+		StoredEmail email = entry.getValue();
+		eldest.remove();
+		release(email);
+		evictedCount++;
+		evictedBytes += email.content().length();
+		return entry.getKey();
+	}
+
+	/**
+	 * Reports evicted emails to the listener, outside the lock of the store.
+	 */
+	private void notifyEvicted(List<Long> evicted) {
+		LongConsumer listener = evictionListener;
+		if (listener != null) {
+			evicted.forEach(listener::accept);
+		}
+	}
+
+	/**
+	 * Releases the memory of an email removed from the map.
+	 */
+	private void release(StoredEmail email) {
+		bytes -= email.content().length();
+		if (email.allocation() != null && arena != null) {
+			arena.free(email.allocation());
+		}
+	}
+
+	/**
+	 * Returns an email, which counts as a read for the {@link EvictionPolicy#LRU} policy.
+	 */
+	@Override
+	public @Nullable MailContent get(long id) {
+		synchronized (emails) {
+			StoredEmail email = emails.get(id);
+			return email == null ? null : email.content();
+		}
+	}
+
+	/**
+	 * @return a snapshot of the identifiers of the stored emails, in ascending order.
+	 */
+	@Override
+	public NavigableSet<Long> list() {
+		synchronized (emails) {
+			return Collections.unmodifiableNavigableSet(new TreeSet<>(emails.keySet()));
+		}
+	}
+
+	@Override
+	public InputStream stream(long id) throws IOException {
+		MailContent content = get(id);
+		if (content == null) {
+			throw new NoSuchFileException("Email " + id + " was deleted or evicted");
+		}
+		return content.openStream();
+	}
+
+	@Override
+	public boolean delete(long id) {
+		synchronized (emails) {
+			StoredEmail email = emails.remove(id);
+			if (email == null) {
+				return false;
+			}
+			release(email);
+			return true;
+		}
+	}
+
+	@Override
+	public void deleteUpTo(long maxId) {
+		synchronized (emails) {
+			Iterator<Map.Entry<Long, StoredEmail>> it = emails.entrySet().iterator();
+			while (it.hasNext()) {
+				Map.Entry<Long, StoredEmail> entry = it.next();
+				if (entry.getKey() <= maxId) {
+					it.remove();
+					release(entry.getValue());
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sets the listener of the evictions, so the emails evicted from the store can be removed from the views.
+	 *
+	 * @param listener called with the identifier of each evicted email, in the thread of the email which evicted it,
+	 *                 or {@code null} for no listener.
+	 */
+	public void setEvictionListener(@Nullable LongConsumer listener) {
+		this.evictionListener = listener;
+	}
+
+	/**
+	 * @return the eviction policy of this store.
+	 */
+	public EvictionPolicy getEvictionPolicy() {
+		return evictionPolicy;
+	}
+
+	/**
+	 * @return the number of emails evicted since the store was created.
+	 */
+	public long getEvictedCount() {
+		synchronized (emails) {
+			return evictedCount;
+		}
+	}
+
+	/**
+	 * @return the total size of the emails evicted since the store was created, in bytes.
+	 */
+	public long getEvictedBytes() {
+		synchronized (emails) {
+			return evictedBytes;
+		}
+	}
+
+	/**
+	 * @return the total size of the emails currently in the store, in bytes.
+	 */
+	public long getBytes() {
+		synchronized (emails) {
+			return bytes;
+		}
+	}
+
+	/**
+	 * An email of the store.
+	 *
+	 * @param content the handle on its content.
+	 * @param allocation the blocks holding its content, if kept in the arena.
+	 */
+	private record StoredEmail(MailContent content, OffHeapArena.@Nullable Allocation allocation) {
+	}
+}
@@ -0,0 +1,254 @@
+package com.nilhcem.fakesmtp.store;
+
+import com.nilhcem.fakesmtp.model.MailContent;
+import org.jspecify.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Keeps the content of emails outside the Java heap, so it doesn't need to be scanned or copied
+ * by the garbage collector.
+ * <p>
+ * The memory is allocated as direct {@link ByteBuffer} slabs, lazily and up to a maximum size, and divided
+ * into fixed-size blocks. An email is written in as many blocks as needed, which don't need to be contiguous,
+ * so freeing emails of any size never fragments the arena. Freed blocks are kept in a free-list and reused.<br>
+ * Only the small {@link Allocation} records (the list of blocks of each email) stay on the heap.
+ * </p>
+ * <p>
+ * The direct memory used by the arena is limited by the {@code -XX:MaxDirectMemorySize} JVM option,
+ * which defaults to the maximum heap size.
+ * </p>
+ */
+public final class OffHeapArena {
+
+	private static final int DEFAULT_BLOCK_SIZE = 4 * 1024;
+	private static final int DEFAULT_SLAB_SIZE = 1024 * 1024;
+
+	private final int blockSize;
+	private final int blocksPerSlab;
+	private final int maxSlabs;
+
+	/**
+	 * The slabs allocated so far, and the free-list of blocks (a stack of block numbers), guarded by this arena.
+	 */
+	private final List<ByteBuffer> slabs = new ArrayList<>();
+	private int[] freeBlocks = new int[0];
+	private int freeCount;
+
+	/**
+	 * Creates an empty arena, with the default block and slab sizes.
+	 *
+	 * @param maxBytes the maximum size of the arena, in bytes.
+	 */
+	public OffHeapArena(long maxBytes) {
+		this(maxBytes, DEFAULT_BLOCK_SIZE, DEFAULT_SLAB_SIZE);
+	}
+
+	/**
+	 * Creates an empty arena.
+	 *
+	 * @param maxBytes the maximum size of the arena, in bytes (rounded up to a whole number of slabs).
+	 * @param blockSize the size of a block, in bytes.
+	 * @param slabSize the size of a slab, in bytes, which must be a multiple of the block size.
+	 */
+	public OffHeapArena(long maxBytes, int blockSize, int slabSize) {
+		if (blockSize <= 0 || slabSize < blockSize || slabSize % blockSize != 0) {
+			throw new IllegalArgumentException("Invalid block size " + blockSize + " for slabs of " + slabSize + " bytes");
+		}
+		this.blockSize = blockSize;
+		this.blocksPerSlab = slabSize / blockSize;
+		this.maxSlabs = (int) Math.min(Integer.MAX_VALUE / blocksPerSlab, (maxBytes + slabSize - 1) / slabSize);
+	}
+
+	/**
+	 * Reserves the blocks needed for some content.
+	 *
+	 * @param length the size of the content, in bytes.
+	 * @return the reserved blocks, or {@code null} if there aren't enough free blocks (some allocations must be freed first).
+	 */
+	public synchronized @Nullable Allocation allocate(long length) {
+		long needed = (length + blockSize - 1) / blockSize;
+		while (freeCount < needed && slabs.size() < maxSlabs) {
+			addSlab();
+		}
+		if (freeCount < needed) {
+			return null;
+		}
+		int[] blocks = new int[(int) needed];
+		for (int i = 0; i < blocks.length; i++) {
+			blocks[i] = freeBlocks[--freeCount];
+		}
+		return new Allocation(blocks, length);
+	}
+
+	/**
+	 * Gives the blocks of an allocation back to the free-list.
+	 * <p>
+	 * The streams still reading the allocation will fail, rather than return the content of another email.
+	 * </p>
+	 *
+	 * @param allocation the allocation to free, which can't be used anymore.
+	 */
+	public synchronized void free(Allocation allocation) {
+		if (allocation.freed) {
+			return;
+		}
+		// Set before the blocks can be reused, so the readers notice it
+		allocation.freed = true;
+		for (int block : allocation.blocks) {
+			freeBlocks[freeCount++] = block;
+		}
+	}
+
+	/**
+	 * Fills the blocks of an allocation.
+	 *
+	 * @param allocation the allocation to fill, owned by the caller.
+	 * @param in the content to copy, whose size must be the allocation length.
+	 * @throws IOException if the content can't be read.
+	 */
+	public void write(Allocation allocation, InputStream in) throws IOException {
+		byte[] chunk = new byte[blockSize];
+		long remaining = allocation.length;
+		for (int block : allocation.blocks) {
+			int length = (int) Math.min(blockSize, remaining);
+			int read = in.readNBytes(chunk, 0, length);
+			if (read < length) {
+				throw new IOException("Content shorter than expected");
+			}
+			blockBuffer(block).put(chunk, 0, length);
+			remaining -= length;
+		}
+	}
+
+	/**
+	 * Creates a handle on the content of an allocation.
+	 *
+	 * @param allocation a filled allocation.
+	 * @return the content handle.
+	 */
+	public MailContent content(Allocation allocation) {
+		return new OffHeapContent(allocation);
+	}
+
+	/**
+	 * @return the size of the slabs allocated so far, in bytes.
+	 */
+	public synchronized long getReservedBytes() {
+		return (long) slabs.size() * blocksPerSlab * blockSize;
+	}
+
+	/**
+	 * @return the size of the free blocks, in bytes.
+	 */
+	public synchronized long getFreeBytes() {
+		return (long) freeCount * blockSize;
+	}
+
+	private void addSlab() {
+		int slab = slabs.size();
+		slabs.add(ByteBuffer.allocateDirect(blocksPerSlab * blockSize));
+		if (freeBlocks.length < freeCount + blocksPerSlab) {
+			int[] grown = new int[(slab + 1) * blocksPerSlab];
+			System.arraycopy(freeBlocks, 0, grown, 0, freeCount);
+			freeBlocks = grown;
+		}
+		// Pushed in reverse order, so the blocks of a new slab are used in order
+		for (int i = blocksPerSlab - 1; i >= 0; i--) {
+			freeBlocks[freeCount++] = slab * blocksPerSlab + i;
+		}
+	}
+
+	/**
+	 * @return a buffer on a single block, positioned at its beginning, which can be used without lock.
+	 */
+	private ByteBuffer blockBuffer(int block) {
+		ByteBuffer slab;
+		synchronized (this) {
+			slab = slabs.get(block / blocksPerSlab);
+		}
+		int offset = (block % blocksPerSlab) * blockSize;
+		return slab.duplicate().position(offset).limit(offset + blockSize).slice();
+	}
+
+	/**
+	 * The blocks holding the content of an email.
+	 */
+	public static final class Allocation {
+		private final int[] blocks;
+		private final long length;
+		private volatile boolean freed;
+
+		Allocation(int[] blocks, long length) {
+			this.blocks = blocks;
+			this.length = length;
+		}
+
+		/**
+		 * @return the size of the content, in bytes.
+		 */
+		public long length() {
+			return length;
+		}
+	}
+
+	private final class OffHeapContent extends MailContent {
+		private final Allocation allocation;
+
+		OffHeapContent(Allocation allocation) {
+			this.allocation = allocation;
+		}
+
+		@Override
+		public long length() {
+			return allocation.length;
+		}
+
+		@Override
+		public InputStream openStream() throws IOException {
+			if (allocation.freed) {
+				throw new IOException("Email was evicted from memory");
+			}
+			return new BlocksInputStream(allocation);
+		}
+	}
+
+	/**
+	 * Reads the blocks of an allocation, failing if the allocation is freed meanwhile.
+	 */
+	private final class BlocksInputStream extends InputStream {
+		private final Allocation allocation;
+		private long position;
+
+		BlocksInputStream(Allocation allocation) {
+			this.allocation = allocation;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+			return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (position >= allocation.length) {
+				return -1;
+			}
+			int block = allocation.blocks[(int) (position / blockSize)];
+			int offsetInBlock = (int) (position % blockSize);
+			int count = (int) Math.min(Math.min(len, blockSize - offsetInBlock), allocation.length - position);
+			blockBuffer(block).get(offsetInBlock, b, off, count);
+			// Checked after copying: if the allocation wasn't freed yet, its blocks weren't reused during the copy
+			if (allocation.freed) {
+				throw new IOException("Email was evicted from memory");
+			}
+			position += count;
+			return count;
+		}
+	}
+}
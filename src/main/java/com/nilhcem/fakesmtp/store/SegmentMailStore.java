@@ -0,0 +1,638 @@
+package com.nilhcem.fakesmtp.store;
+
+import com.nilhcem.fakesmtp.model.MailContent;
+import com.nilhcem.fakesmtp.server.MessageBuffer;
+import org.jspecify.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+/**
+ * Appends emails to large preallocated segment files, instead of creating one file per email.
+ * <p>
+ * Each email is a record appended to the current segment: a header (magic number, length, identifier and
+ * CRC-32C of the content) followed by the raw content. The position of each record is kept in an index sorted
+ * by identifier, which is rebuilt by reading the record headers when the store is opened.<br>
+ * The content of a record is written before its header, so an interrupted append leaves no valid record behind,
+ * and the records of the last segment are checked against their CRC when the store is opened.
+ * </p>
+ * <p>
+ * Deleting all the emails up to an identifier only records this identifier in a small file, while deleting a single
+ * email appends a tombstone record. The segments which don't contain any email anymore are then removed, and the segments mostly made of deleted emails are compacted
+ * in the background, by appending their remaining emails to the current segment.
+ * </p>
+ * <p>
+ * Any email can be exported as a standalone {@code .eml} file on demand.
+ * </p>
+ */
+public final class SegmentMailStore implements MailStore {
+
+	private static final Logger log = LoggerFactory.getLogger(SegmentMailStore.class);
+
+	/**
+	 * "FMSG", starts each record.
+	 */
+	private static final int MAGIC = 0x464D5347;
+	/**
+	 * Magic number, content length, identifier, CRC-32C of the content.
+	 */
+	private static final int HEADER_SIZE = 4 + 4 + 8 + 4;
+
+	/**
+	 * Length of the records marking a deleted email, which don't have any content.
+	 */
+	private static final int TOMBSTONE = -1;
+
+	private static final String SEGMENT_SUFFIX = ".seg";
+	private static final String WATERMARK_FILE = "deleted-up-to";
+	private static final int COPY_BUFFER_SIZE = 64 * 1024;
+
+	/**
+	 * Segments with less live data than this ratio are compacted.
+	 */
+	private static final double COMPACTION_RATIO = 0.5;
+	private static final long COMPACTION_PERIOD_SECONDS = 30;
+
+	private final Path directory;
+	private final long segmentSize;
+
+	private final ConcurrentNavigableMap<Long, Location> index = new ConcurrentSkipListMap<>();
+	private final ConcurrentNavigableMap<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+	/**
+	 * The tombstone of each email deleted individually, as long as the segment of the deleted record exists.
+	 */
+	private final Map<Long, Tombstone> tombstones = new ConcurrentHashMap<>();
+	private final ScheduledExecutorService compactor;
+
+	/**
+	 * Guards appends, rolls and deletions. Not a monitor, so the virtual threads writing emails release their carrier
+	 * thread while waiting for it or for the disk.
+	 */
+	private final Lock lock = new ReentrantLock();
+	private Segment active;
+	private volatile long deletedUpTo = -1;
+
+	/**
+	 * Opens the store, creating its directory if needed, and rebuilds the index from the existing segments.
+	 *
+	 * @param directory the directory containing the segments.
+	 * @param segmentSize the size of each segment file, in bytes (a single bigger email gets its own segment).
+	 * @throws IOException if the directory or the segments can't be read.
+	 */
+	public SegmentMailStore(Path directory, long segmentSize) throws IOException {
+		this.directory = Files.createDirectories(directory);
+		this.segmentSize = segmentSize;
+
+		Path watermark = directory.resolve(WATERMARK_FILE);
+		if (Files.exists(watermark)) {
+			deletedUpTo = Long.parseLong(Files.readString(watermark, StandardCharsets.US_ASCII).trim());
+		}
+
+		NavigableMap<Integer, Path> files = new TreeMap<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+			for (Path file : stream) {
+				int number = segmentNumber(file);
+				if (number < 0 || files.putIfAbsent(number, file) != null) {
+					log.warn("Ignoring {}, which isn't a segment of the store", file);
+				}
+			}
+		}
+		for (Map.Entry<Integer, Path> file : files.entrySet()) {
+			Segment segment = new Segment(file.getKey(), file.getValue());
+			segments.put(file.getKey(), segment);
+			recover(segment, file.getKey().equals(files.lastKey()));
+		}
+
+		if (segments.isEmpty()) {
+			active = createSegment(1);
+		} else {
+			active = segments.lastEntry().getValue();
+			preallocate(active);
+		}
+		log.info("Opened {} segments containing {} emails in {}", segments.size(), index.size(), directory);
+
+		compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread thread = new Thread(r, "fakesmtp-compactor");
+			thread.setDaemon(true);
+			return thread;
+		});
+		compactor.scheduleWithFixedDelay(this::compact, COMPACTION_PERIOD_SECONDS, COMPACTION_PERIOD_SECONDS, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * @return the number of a segment file, such as {@code 0000000042.seg}, or {@code -1} for another file name.
+	 */
+	private static int segmentNumber(Path file) {
+		String name = file.getFileName().toString();
+		try {
+			int number = Integer.parseInt(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+			return number >= 0 ? number : -1;
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	@Override
+	public Set<Capability> capabilities() {
+		return StoreType.SEGMENTS.capabilities();
+	}
+
+	/**
+	 * Appends an email to the current segment.
+	 *
+	 * @param id the unique identifier of the email.
+	 * @param message the raw content of the email.
+	 * @return a handle on the content of the appended email.
+	 * @throws IOException if the email couldn't be appended.
+	 */
+	@Override
+	public MailContent put(long id, MessageBuffer message) throws IOException {
+		long size = message.size();
+		if (size > Integer.MAX_VALUE - HEADER_SIZE) {
+			throw new IOException("Email too large for a segment: " + size + " bytes");
+		}
+		int length = (int) size;
+
+		lock.lock();
+		try {
+			if (active.end > 0 && active.end + HEADER_SIZE + length > segmentSize) {
+				roll();
+			}
+			Segment segment = active;
+			long offset = segment.end;
+
+			// Content first, header last: the record only becomes valid once completely written
+			CRC32C crc = new CRC32C();
+			try (InputStream in = message.openStream()) {
+				long position = offset + HEADER_SIZE;
+				byte[] chunk = new byte[COPY_BUFFER_SIZE];
+				int read;
+				while ((read = in.read(chunk)) != -1) {
+					crc.update(chunk, 0, read);
+					position += writeFully(segment.channel, ByteBuffer.wrap(chunk, 0, read), position);
+				}
+			}
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+					.putInt(MAGIC).putInt(length).putLong(id).putInt((int) crc.getValue())
+					.flip();
+			writeFully(segment.channel, header, offset);
+
+			segment.end = offset + HEADER_SIZE + length;
+			segment.liveBytes.addAndGet(HEADER_SIZE + length);
+			index.put(id, new Location(segment, offset, length));
+		} finally {
+			lock.unlock();
+		}
+		return new SegmentContent(id, length);
+	}
+
+	@Override
+	public InputStream stream(long id) throws IOException {
+		// The segment may be removed by a compaction between the lookup and the opening: look up again in this case
+		for (int attempt = 0; ; attempt++) {
+			Location location = index.get(id);
+			if (location == null) {
+				throw new NoSuchFileException("Email " + id + " was deleted");
+			}
+			try {
+				return MailContent.ofFile(location.segment.path, location.offset + HEADER_SIZE, location.length).openStream();
+			} catch (NoSuchFileException e) {
+				if (attempt > 0) {
+					throw e;
+				}
+			}
+		}
+	}
+
+	@Override
+	public @Nullable MailContent get(long id) {
+		Location location = index.get(id);
+		return location == null ? null : new SegmentContent(id, location.length);
+	}
+
+	@Override
+	public NavigableSet<Long> list() {
+		return Collections.unmodifiableNavigableSet(index.navigableKeySet());
+	}
+
+	/**
+	 * Flushes the current segment to the disk.
+	 */
+	public void sync() {
+		try {
+			active.channel.force(false);
+		} catch (IOException e) {
+			log.error("Impossible to sync segment {}", active.path, e);
+		}
+	}
+
+	/**
+	 * Flushes the current segment to the disk, which contains all the recently appended emails.
+	 *
+	 * @param ids ignored.
+	 */
+	@Override
+	public void sync(Collection<Long> ids) {
+		sync();
+	}
+
+	/**
+	 * Deletes an email, by appending a tombstone record to the current segment.
+	 *
+	 * @param id the unique identifier of the email.
+	 * @return whether the email was in this store.
+	 */
+	@Override
+	public boolean delete(long id) {
+		lock.lock();
+		try {
+			Location location = index.remove(id);
+			if (location == null) {
+				return false;
+			}
+			location.segment.liveBytes.addAndGet(-(HEADER_SIZE + location.length));
+			appendTombstone(id, location.segment);
+		} finally {
+			lock.unlock();
+		}
+		return true;
+	}
+
+	/**
+	 * Deletes all the emails saved up to the identifier passed in parameter.
+	 * <p>
+	 * Emails saved concurrently with a greater identifier are kept.
+	 * </p>
+	 *
+	 * @param maxId the identifier of the last email to delete (inclusive).
+	 */
+	@Override
+	public void deleteUpTo(long maxId) {
+		lock.lock();
+		try {
+			if (maxId <= deletedUpTo) {
+				return;
+			}
+			try {
+				Path temp = directory.resolve(WATERMARK_FILE + ".tmp");
+				Files.writeString(temp, Long.toString(maxId), StandardCharsets.US_ASCII);
+				Files.move(temp, directory.resolve(WATERMARK_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			} catch (IOException e) {
+				log.error("Impossible to delete emails", e);
+				return;
+			}
+			deletedUpTo = maxId;
+			tombstones.keySet().removeIf(id -> id <= maxId);
+
+			Map<Long, Location> deleted = index.headMap(maxId, true);
+			for (Map.Entry<Long, Location> entry : deleted.entrySet()) {
+				Location location = entry.getValue();
+				if (index.remove(entry.getKey(), location)) {
+					location.segment.liveBytes.addAndGet(-(HEADER_SIZE + location.length));
+				}
+			}
+			if (active.end > 0) {
+				roll();
+			}
+			removeEmptySegments();
+		} finally {
+			lock.unlock();
+		}
+		compactor.execute(this::compact);
+	}
+
+	/**
+	 * @return the number of emails in the store.
+	 */
+	public int size() {
+		return index.size();
+	}
+
+	/**
+	 * Rewrites the sealed segments mostly made of deleted emails: their remaining emails are appended
+	 * to the current segment, then the segments are removed.
+	 */
+	void compact() {
+		for (Segment segment : segments.values()) {
+			if (segment == active || segment.end == 0
+					|| segment.liveBytes.get() >= segment.end * COMPACTION_RATIO) {
+				continue;
+			}
+			try {
+				compact(segment);
+			} catch (IOException e) {
+				log.error("Impossible to compact segment {}", segment.path, e);
+			}
+		}
+	}
+
+	private void compact(Segment segment) throws IOException {
+		log.debug("Compacting segment {}", segment.path);
+		// The lock is only held while copying a single record, so the SMTP sessions can append in between
+		for (Map.Entry<Long, Location> entry : index.entrySet()) {
+			Location location = entry.getValue();
+			if (location.segment != segment) {
+				continue;
+			}
+			lock.lock();
+			try {
+				// Deleted meanwhile: copying it after its tombstone would bring it back after a restart
+				if (index.get(entry.getKey()) != location) {
+					continue;
+				}
+				long recordSize = HEADER_SIZE + (long) location.length;
+				if (active.end > 0 && active.end + recordSize > segmentSize) {
+					roll();
+				}
+				Segment target = active;
+				long offset = target.end;
+				long copied = 0;
+				while (copied < recordSize) {
+					copied += segment.channel.transferTo(location.offset + copied, recordSize - copied,
+							target.channel.position(offset + copied));
+				}
+				target.end = offset + recordSize;
+				if (index.replace(entry.getKey(), location, new Location(target, offset, location.length))) {
+					target.liveBytes.addAndGet(recordSize);
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+		lock.lock();
+		try {
+			segment.liveBytes.set(0);
+			removeEmptySegments();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Reads the records of a segment to rebuild the index.
+	 *
+	 * @param segment the segment to read.
+	 * @param last whether it is the last segment, whose records are checked against their CRC.
+	 * @throws IOException if the segment can't be read.
+	 */
+	private void recover(Segment segment, boolean last) throws IOException {
+		long fileSize = segment.channel.size();
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		long position = 0;
+		while (position + HEADER_SIZE <= fileSize) {
+			header.clear();
+			readFully(segment.channel, header, position);
+			header.flip();
+			if (header.getInt() != MAGIC) {
+				break;
+			}
+			int length = header.getInt();
+			long id = header.getLong();
+			int crc = header.getInt();
+			if (length == TOMBSTONE) {
+				Location deleted = index.remove(id);
+				if (deleted != null) {
+					deleted.segment.liveBytes.addAndGet(-(HEADER_SIZE + deleted.length));
+					tombstones.put(id, new Tombstone(segment, deleted.segment));
+				}
+				position += HEADER_SIZE;
+				continue;
+			}
+			if (length < 0 || position + HEADER_SIZE + length > fileSize
+					|| (last && crc != crcOf(segment.channel, position + HEADER_SIZE, length))) {
+				log.warn("Ignoring the truncated end of segment {}, from position {}", segment.path, position);
+				break;
+			}
+			if (id > deletedUpTo) {
+				// A record copied by a compaction interrupted before removing the compacted segment
+				Location previous = index.put(id, new Location(segment, position, length));
+				if (previous != null) {
+					previous.segment.liveBytes.addAndGet(-(HEADER_SIZE + previous.length));
+				}
+				segment.liveBytes.addAndGet(HEADER_SIZE + length);
+			}
+			position += HEADER_SIZE + length;
+		}
+		segment.end = position;
+	}
+
+	/**
+	 * Seals the current segment and starts a new one.
+	 */
+	private void roll() {
+		try {
+			active.channel.force(false);
+			active.channel.truncate(active.end);
+			active = createSegment(segments.lastKey() + 1);
+		} catch (IOException e) {
+			// Keep appending to the current segment, which simply grows
+			log.error("Impossible to create a new segment in {}", directory, e);
+		}
+	}
+
+	/**
+	 * Appends a tombstone record to the current segment.
+	 *
+	 * @param id the unique identifier of the deleted email.
+	 * @param deletedFrom the segment containing the record of the deleted email.
+	 */
+	private void appendTombstone(long id, Segment deletedFrom) {
+		if (active.end > 0 && active.end + HEADER_SIZE > segmentSize) {
+			roll();
+		}
+		Segment segment = active;
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE)
+				.putInt(MAGIC).putInt(TOMBSTONE).putLong(id).putInt(0)
+				.flip();
+		try {
+			writeFully(segment.channel, header, segment.end);
+			segment.end += HEADER_SIZE;
+			tombstones.put(id, new Tombstone(segment, deletedFrom));
+		} catch (IOException e) {
+			log.error("Impossible to delete email {}, it will be back after a restart", id, e);
+		}
+	}
+
+	private void removeEmptySegments() {
+		List<Segment> empty = new ArrayList<>();
+		for (Segment segment : segments.values()) {
+			if (segment != active && segment.liveBytes.get() == 0) {
+				empty.add(segment);
+			}
+		}
+		if (empty.isEmpty()) {
+			return;
+		}
+
+		// The tombstones of the records being removed aren't needed anymore
+		tombstones.values().removeIf(tombstone -> empty.contains(tombstone.deletedFrom()));
+		// The other deleted emails are still in other segments: keep their tombstones
+		for (Map.Entry<Long, Tombstone> tombstone : tombstones.entrySet()) {
+			if (empty.contains(tombstone.getValue().segment())) {
+				appendTombstone(tombstone.getKey(), tombstone.getValue().deletedFrom());
+			}
+		}
+		// The copied records and tombstones must be on the disk before their originals are removed
+		try {
+			active.channel.force(false);
+		} catch (IOException e) {
+			log.error("Impossible to sync segment {}, the empty segments are kept", active.path, e);
+			return;
+		}
+
+		for (Segment segment : empty) {
+			segments.remove(segment.number);
+			try {
+				segment.channel.close();
+				Files.deleteIfExists(segment.path);
+			} catch (IOException e) {
+				log.error("Impossible to delete segment {}", segment.path, e);
+			}
+		}
+	}
+
+	private Segment createSegment(int number) throws IOException {
+		Path file = directory.resolve("%010d%s".formatted(number, SEGMENT_SUFFIX));
+		Segment segment = new Segment(number, file);
+		preallocate(segment);
+		segments.put(number, segment);
+		return segment;
+	}
+
+	/**
+	 * Extends a segment to its whole size upfront, so appending to it doesn't need to grow the file each time.
+	 */
+	private void preallocate(Segment segment) throws IOException {
+		if (segment.channel.size() < segmentSize) {
+			writeFully(segment.channel, ByteBuffer.allocate(1), segmentSize - 1);
+		}
+	}
+
+	private static int crcOf(FileChannel channel, long position, int length) throws IOException {
+		CRC32C crc = new CRC32C();
+		ByteBuffer buffer = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+		long end = position + length;
+		while (position < end) {
+			buffer.clear().limit((int) Math.min(buffer.capacity(), end - position));
+			int read = channel.read(buffer, position);
+			if (read < 0) {
+				break;
+			}
+			buffer.flip();
+			crc.update(buffer);
+			position += read;
+		}
+		return (int) crc.getValue();
+	}
+
+	private static int writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		int written = 0;
+		while (buffer.hasRemaining()) {
+			written += channel.write(buffer, position + written);
+		}
+		return written;
+	}
+
+	private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("Unexpected end of segment");
+			}
+		}
+	}
+
+	/**
+	 * A segment file, opened for the whole life of the store.
+	 */
+	private static final class Segment {
+		private final int number;
+		private final Path path;
+		private final FileChannel channel;
+		/**
+		 * Size of the records appended so far, guarded by the store lock.
+		 */
+		private volatile long end;
+		/**
+		 * Size of the records of emails which were not deleted or moved.
+		 */
+		private final AtomicLong liveBytes = new AtomicLong();
+
+		Segment(int number, Path path) throws IOException {
+			this.number = number;
+			this.path = path;
+			this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		}
+	}
+
+	/**
+	 * The position of a record.
+	 *
+	 * @param segment the segment containing the record.
+	 * @param offset the position of the record header in the segment.
+	 * @param length the size of the email content.
+	 */
+	private record Location(Segment segment, long offset, int length) {
+	}
+
+	/**
+	 * A tombstone record, needed until the record of the deleted email is removed with its segment.
+	 *
+	 * @param segment the segment containing the tombstone.
+	 * @param deletedFrom the segment containing the record of the deleted email.
+	 */
+	private record Tombstone(Segment segment, Segment deletedFrom) {
+	}
+
+	/**
+	 * A handle on an email of this store, which keeps working when the email is moved by a compaction.
+	 */
+	private final class SegmentContent extends MailContent {
+		private final long id;
+		private final long length;
+
+		SegmentContent(long id, long length) {
+			this.id = id;
+			this.length = length;
+		}
+
+		@Override
+		public long length() {
+			return length;
+		}
+
+		@Override
+		public InputStream openStream() throws IOException {
+			return SegmentMailStore.this.stream(id);
+		}
+	}
+}
@@ -0,0 +1,93 @@
+package com.nilhcem.fakesmtp.store;
+
+import com.nilhcem.fakesmtp.core.Configuration;
+import com.nilhcem.fakesmtp.core.Configuration.Settings;
+import com.nilhcem.fakesmtp.model.UIModel;
+import com.nilhcem.fakesmtp.store.MailStore.Capability;
+import com.nilhcem.fakesmtp.store.MemoryMailStore.EvictionPolicy;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * The available {@link MailStore} implementations, which can be selected from the command line.
+ */
+public enum StoreType {
+	/**
+	 * Each email is saved in its own {@code .eml} file.
+	 *
+	 * @see FileMailStore
+	 */
+	FILES(Capability.PERSISTENT, Capability.FILE_PER_EMAIL, Capability.SYNC),
+	/**
+	 * A bounded number of emails is only kept in memory, to avoid the overhead of the persistence.
+	 *
+	 * @see MemoryMailStore
+	 */
+	MEMORY,
+	/**
+	 * Emails are appended to large segment files, and exported as {@code .eml} files on demand.
+	 *
+	 * @see SegmentMailStore
+	 */
+	SEGMENTS(Capability.PERSISTENT, Capability.SYNC);
+
+	private static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+	private static final String SEGMENTS_DIR = "segments";
+	private static final int DEFAULT_MEMORY_MAX_COUNT = 10_000;
+	private static final long DEFAULT_MEMORY_MAX_BYTES = 256L * 1024 * 1024;
+
+	private final Set<Capability> capabilities;
+
+	StoreType(Capability... capabilities) {
+		this.capabilities = capabilities.length == 0
+				? Set.of()
+				: Set.copyOf(EnumSet.of(capabilities[0], capabilities));
+	}
+
+	/**
+	 * Returns the capabilities of the stores of this type, which are known before opening them.
+	 *
+	 * @return the capabilities.
+	 */
+	public Set<Capability> capabilities() {
+		return capabilities;
+	}
+
+	/**
+	 * @param capability a feature.
+	 * @return whether the stores of this type support the feature.
+	 */
+	public boolean has(Capability capability) {
+		return capabilities.contains(capability);
+	}
+
+	/**
+	 * Opens a new store of this type, in the current save directory.
+	 *
+	 * @return the store.
+	 * @throws IOException if the store can't be opened.
+	 */
+	public MailStore open() throws IOException {
+		return switch (this) {
+			case FILES -> new FileMailStore();
+			case MEMORY -> {
+				long maxBytes = Configuration.getInstance().getLong(Settings.EMAILS_MEMORY_MAX_BYTES, DEFAULT_MEMORY_MAX_BYTES);
+				boolean offHeap = Boolean.parseBoolean(Configuration.getInstance().get(Settings.EMAILS_MEMORY_OFF_HEAP).trim());
+				yield new MemoryMailStore(
+						Configuration.getInstance().getInt(Settings.EMAILS_MEMORY_MAX_COUNT, DEFAULT_MEMORY_MAX_COUNT),
+						maxBytes, evictionPolicy(), offHeap ? new OffHeapArena(maxBytes) : null);
+			}
+			case SEGMENTS -> new SegmentMailStore(Path.of(UIModel.INSTANCE.getSavePath(), SEGMENTS_DIR),
+					Configuration.getInstance().getInt(Settings.EMAILS_SEGMENT_SIZE, DEFAULT_SEGMENT_SIZE));
+		};
+	}
+
+	private static EvictionPolicy evictionPolicy() {
+		String value = Configuration.getInstance().get(Settings.EMAILS_MEMORY_EVICTION).trim();
+		return value.isEmpty() ? EvictionPolicy.FIFO : EvictionPolicy.valueOf(value.toUpperCase(Locale.ROOT));
+	}
+}
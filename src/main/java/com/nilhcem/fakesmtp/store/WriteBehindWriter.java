@@ -0,0 +1,153 @@
+package com.nilhcem.fakesmtp.store;
+
+import com.nilhcem.fakesmtp.metrics.SmtpMetrics;
+import com.nilhcem.fakesmtp.model.MailContent;
+import com.nilhcem.fakesmtp.server.MessageBuffer;
+import org.jspecify.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Writes emails in the background, so the SMTP sessions don't wait for the disk.
+ * <p>
+ * Emails are put in a bounded queue (a full queue blocks the SMTP sessions until there is room again),
+ * which a single writer thread drains in batches. In {@link Durability#FSYNC} mode, the emails of a batch
+ * are flushed to the disk together once they were all written (group commit), so the cost of a flush
+ * is shared by all the emails of the batch.
+ * </p>
+ */
+public final class WriteBehindWriter {
+
+	private static final Logger log = LoggerFactory.getLogger(WriteBehindWriter.class);
+
+	private final MailStore store;
+	private final Durability durability;
+	private final BlockingQueue<Job> queue;
+	private final int maxBatchSize;
+
+	/**
+	 * Creates the writer and starts its thread.
+	 *
+	 * @param store the store the emails are written to.
+	 * @param durability when the submitted emails are acknowledged.
+	 * @param capacity the maximum number of emails waiting to be written, which is also the maximum size of a batch.
+	 */
+	public WriteBehindWriter(MailStore store, Durability durability, int capacity) {
+		this.store = store;
+		this.durability = durability;
+		this.queue = new ArrayBlockingQueue<>(capacity);
+		this.maxBatchSize = capacity;
+
+		Thread thread = new Thread(this::run, "fakesmtp-writer");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Queues an email to be written.
+	 *
+	 * @param id the unique identifier of the email.
+	 * @param message the raw content of the email, which will be closed once written.
+	 * @param onWritten called by the writer thread once the email was written, with a handle on its content
+	 *                  ({@code null} if it couldn't be saved).
+	 * @return a future completed when the email is acknowledged, depending on the durability level.
+	 * @throws InterruptedException if interrupted while waiting for room in the queue.
+	 */
+	public CompletableFuture<Void> submit(long id, MessageBuffer message, Consumer<@Nullable MailContent> onWritten) throws InterruptedException {
+		Job job = new Job(id, message, onWritten);
+		queue.put(job);
+		return switch (durability) {
+			case ENQUEUE -> CompletableFuture.completedFuture(null);
+			case WRITE -> job.written;
+			case FSYNC -> job.synced;
+		};
+	}
+
+	/**
+	 * Waits until all the emails queued before this call are written (and flushed, in {@code FSYNC} mode).
+	 *
+	 * @throws InterruptedException if interrupted while waiting.
+	 */
+	public void flush() throws InterruptedException {
+		Job marker = new Job(0, null, path -> { });
+		queue.put(marker);
+		marker.synced.join();
+	}
+
+	private void run() {
+		List<Job> batch = new ArrayList<>(maxBatchSize);
+		List<Long> written = new ArrayList<>(maxBatchSize);
+		while (true) {
+			try {
+				batch.add(queue.take());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			queue.drainTo(batch, maxBatchSize - 1);
+
+			for (Job job : batch) {
+				if (write(job)) {
+					written.add(job.id);
+				}
+			}
+			if (durability == Durability.FSYNC) {
+				store.sync(written);
+			}
+			batch.forEach(job -> job.synced.complete(null));
+			batch.clear();
+			written.clear();
+		}
+	}
+
+	/**
+	 * Writes the email of a job, and closes its buffer.
+	 *
+	 * @return whether the email was written.
+	 */
+	private boolean write(Job job) {
+		MessageBuffer message = job.message;
+		if (message == null) {
+			job.written.complete(null);
+			return false;
+		}
+
+		MailContent content = null;
+		try (message) {
+			content = store.put(job.id, message);
+		} catch (IOException | RuntimeException e) {
+			// If we can't save the email, we display the error in the SMTP logs
+			LoggerFactory.getLogger(org.subethamail.smtp.server.Session.class).error("Error: Can't save email: {}", e.toString());
+			SmtpMetrics.INSTANCE.failed();
+		}
+		job.written.complete(null);
+		try {
+			job.onWritten.accept(content);
+		} catch (RuntimeException e) {
+			log.error("", e);
+		}
+		return content != null;
+	}
+
+	private static final class Job {
+		private final long id;
+		private final @Nullable MessageBuffer message;
+		private final Consumer<@Nullable MailContent> onWritten;
+		private final CompletableFuture<Void> written = new CompletableFuture<>();
+		private final CompletableFuture<Void> synced = new CompletableFuture<>();
+
+		Job(long id, @Nullable MessageBuffer message, Consumer<@Nullable MailContent> onWritten) {
+			this.id = id;
+			this.message = message;
+			this.onWritten = onWritten;
+		}
+	}
+}
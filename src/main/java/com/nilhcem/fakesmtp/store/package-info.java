@@ -0,0 +1,7 @@
+/**
+ * Provides the persistence of the received emails.
+ */
+@NullMarked
+package com.nilhcem.fakesmtp.store;
+
+import org.jspecify.annotations.NullMarked;
@@ -0,0 +1,63 @@
+package com.nilhcem.fakesmtp.core.server;
+
+import com.nilhcem.fakesmtp.server.HeaderIndex;
+import com.nilhcem.fakesmtp.server.HeaderIndex.Header;
+import com.nilhcem.fakesmtp.server.HeaderIndexer;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class HeaderIndexerTest {
+	private static final String EMAIL = """
+			Received: from localhost\r
+			From: "Me" <me@example.org>\r
+			subject: =?UTF-8?Q?caf=C3=A9?=\r
+			  is ready\r
+			Message-ID: <42@example.org>\r
+			\r
+			Subject: not a header\r
+			""";
+
+	@Test
+	void indexesHeadersInSmallChunks() {
+		byte[] bytes = EMAIL.getBytes(StandardCharsets.UTF_8);
+		HeaderIndexer indexer = new HeaderIndexer();
+		for (int i = 0; i < bytes.length; i += 3) {
+			indexer.update(bytes, i, Math.min(3, bytes.length - i));
+		}
+		HeaderIndex index = indexer.toIndex();
+
+		assertThat(indexer.isComplete()).isTrue();
+		assertThat(index.get(Header.FROM)).isEqualTo("\"Me\" <me@example.org>");
+		assertThat(index.get(Header.SUBJECT)).isEqualTo("=?UTF-8?Q?caf=C3=A9?=  is ready");
+		assertThat(index.decoded(Header.SUBJECT)).isEqualTo("café  is ready");
+		assertThat(index.get(Header.TO)).isEmpty();
+		assertThat(EMAIL.substring((int) index.bodyOffset())).isEqualTo("Subject: not a header\r\n");
+	}
+
+	@Test
+	void keepsFieldPositions() {
+		byte[] bytes = EMAIL.getBytes(StandardCharsets.UTF_8);
+		HeaderIndexer indexer = new HeaderIndexer();
+		indexer.update(bytes, 0, bytes.length);
+
+		HeaderIndex.Field subject = indexer.toIndex().field(Header.SUBJECT);
+		assertThat(subject).isNotNull();
+		assertThat(EMAIL.substring((int) subject.offset(), (int) subject.offset() + subject.length()))
+				.isEqualTo("subject: =?UTF-8?Q?caf=C3=A9?=\r\n  is ready\r\n");
+	}
+
+	@Test
+	void indexesTheFieldReachingTheMaximumSize() {
+		int max = 1024 * 1024;
+		String filler = "X-Filler: " + "a".repeat(max - 30 - 12) + "\r\n";
+		byte[] bytes = (filler + "Subject: hello" + "x".repeat(100) + "\r\n\r\nbody\r\n").getBytes(StandardCharsets.US_ASCII);
+		HeaderIndexer indexer = new HeaderIndexer();
+		indexer.update(bytes, 0, bytes.length);
+
+		assertThat(indexer.isComplete()).isTrue();
+		assertThat(indexer.toIndex().get(Header.SUBJECT)).isEqualTo("hello" + "x".repeat(16));
+	}
+}
@@ -0,0 +1,31 @@
+package com.nilhcem.fakesmtp.core.server;
+
+import com.nilhcem.fakesmtp.server.Listener;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ListenerTest {
+
+	@Test
+	void parsesPortAndAddresses() {
+		assertThat(Listener.parse("2525")).isEqualTo(new Listener(null, 2525));
+		assertThat(Listener.parse("127.0.0.1:25")).isEqualTo(new Listener("127.0.0.1", 25));
+		assertThat(Listener.parse("[::1]:25")).isEqualTo(new Listener("::1", 25));
+		assertThat(Listener.parse("[::1]:25").toString()).isEqualTo("[::1]:25");
+	}
+
+	@Test
+	void parsesSettings() {
+		assertThat(Listener.parse("587/tls,require-auth")).isEqualTo(new Listener(null, 587, true, false, true));
+		assertThat(Listener.parse("localhost:465/require-tls")).isEqualTo(new Listener("localhost", 465, true, true, false));
+	}
+
+	@Test
+	void rejectsInvalidListeners() {
+		assertThatThrownBy(() -> Listener.parse("::1:25")).isInstanceOf(IllegalArgumentException.class);
+		assertThatThrownBy(() -> Listener.parse("localhost:smtp")).isInstanceOf(IllegalArgumentException.class);
+		assertThatThrownBy(() -> Listener.parse("25/ssl")).isInstanceOf(IllegalArgumentException.class);
+	}
+}
@@ -49,7 +49,7 @@ class MailServerTest {
 					.isNotEmptyFile();
 
 			// Delete
-			UIModel.INSTANCE.getListMailsMap().put(0, String.valueOf(model.filePath()));
+			UIModel.INSTANCE.getCatalog().append(model);
 			saver.deleteEmails();
 			assertThat(model.filePath()).doesNotExist();
 		};
@@ -0,0 +1,92 @@
+package com.nilhcem.fakesmtp.core.server;
+
+import com.nilhcem.fakesmtp.server.HeaderIndexer;
+import com.nilhcem.fakesmtp.server.MessageBuffer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MessageBufferTest {
+	private static final byte[] CONTENT = "Subject: Hello\r\n\r\nété\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	void smallMessageStaysOnHeap() throws IOException {
+		try (MessageBuffer buffer = new MessageBuffer(1024)) {
+			buffer.write(CONTENT);
+
+			assertThat(buffer.isSpilled()).isFalse();
+			assertThat(buffer.size()).isEqualTo(CONTENT.length);
+			assertThat(buffer.toByteArray()).isEqualTo(CONTENT);
+		}
+	}
+
+	@Test
+	void largeMessageIsSpilledToDisk() throws IOException {
+		try (MessageBuffer buffer = new MessageBuffer(8)) {
+			buffer.write(CONTENT, 0, 4);
+			assertThat(buffer.isSpilled()).isFalse();
+			buffer.write(CONTENT, 4, CONTENT.length - 4);
+
+			assertThat(buffer.isSpilled()).isTrue();
+			assertThat(buffer.size()).isEqualTo(CONTENT.length);
+			try (InputStream in = buffer.openStream()) {
+				assertThat(in.readAllBytes()).isEqualTo(CONTENT);
+			}
+		}
+	}
+
+	@Test
+	void singleBytesAreBufferedThenSpilled() throws IOException {
+		try (MessageBuffer buffer = new MessageBuffer(8)) {
+			for (byte b : CONTENT) {
+				buffer.write(b);
+			}
+
+			assertThat(buffer.isSpilled()).isTrue();
+			assertThat(buffer.size()).isEqualTo(CONTENT.length);
+			assertThat(buffer.toByteArray()).isEqualTo(CONTENT);
+		}
+	}
+
+	@Test
+	void moveToKeepsRawBytes() throws IOException {
+		Path onHeap = tempDir.resolve("heap.eml");
+		Path spilled = tempDir.resolve("spilled.eml");
+
+		try (MessageBuffer buffer = new MessageBuffer(1024)) {
+			buffer.write(CONTENT);
+			buffer.moveTo(onHeap);
+		}
+		try (MessageBuffer buffer = new MessageBuffer(0)) {
+			buffer.write(CONTENT);
+			buffer.moveTo(spilled);
+		}
+
+		assertThat(Files.readAllBytes(onHeap)).isEqualTo(CONTENT);
+		assertThat(Files.readAllBytes(spilled)).isEqualTo(CONTENT);
+	}
+
+	@Test
+	void oversizedMessageIsReadButNotKept() throws IOException {
+		ByteArrayInputStream in = new ByteArrayInputStream(CONTENT);
+		try (MessageBuffer buffer = new MessageBuffer(1024)) {
+			assertThat(buffer.readFrom(in, new HeaderIndexer(), CONTENT.length - 1)).isFalse();
+			assertThat(in.available()).isZero();
+		}
+		try (MessageBuffer buffer = new MessageBuffer(1024)) {
+			assertThat(buffer.readFrom(new ByteArrayInputStream(CONTENT), new HeaderIndexer(), CONTENT.length)).isTrue();
+			assertThat(buffer.toByteArray()).isEqualTo(CONTENT);
+		}
+	}
+}
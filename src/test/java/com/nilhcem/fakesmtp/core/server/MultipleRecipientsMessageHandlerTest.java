@@ -0,0 +1,30 @@
+package com.nilhcem.fakesmtp.core.server;
+
+import com.nilhcem.fakesmtp.event.EventBus;
+import com.nilhcem.fakesmtp.server.MailSaver;
+import com.nilhcem.fakesmtp.server.MultipleRecipientsMessageHandler;
+import org.junit.jupiter.api.Test;
+import org.subethamail.smtp.RejectException;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.catchThrowableOfType;
+
+class MultipleRecipientsMessageHandlerTest {
+
+	@Test
+	void rejectsOversizedData() {
+		MultipleRecipientsMessageHandler handler = new MultipleRecipientsMessageHandler(new MailSaver(new EventBus(2)), 16);
+		handler.from("a@example.com");
+		handler.recipient("b@example.com");
+		byte[] data = "Subject: more than sixteen bytes\r\n\r\nbody\r\n".getBytes(StandardCharsets.US_ASCII);
+
+		RejectException rejected = catchThrowableOfType(RejectException.class,
+				() -> handler.data(new ByteArrayInputStream(data)));
+
+		assertThat(rejected).isNotNull();
+		assertThat(rejected.getCode()).isEqualTo(552);
+	}
+}
@@ -0,0 +1,169 @@
+package com.nilhcem.fakesmtp.core.server;
+
+import com.nilhcem.fakesmtp.event.EventBus;
+import com.nilhcem.fakesmtp.server.HeaderIndex;
+import com.nilhcem.fakesmtp.server.MailSaver;
+import com.nilhcem.fakesmtp.server.MessageBuffer;
+import com.nilhcem.fakesmtp.server.MultipleRecipientsMessageHandler;
+import com.nilhcem.fakesmtp.server.NioSmtpServer;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class NioSmtpServerTest {
+
+	private final MailSaver saver = new MailSaver(new EventBus(2));
+	private final List<String> received = new CopyOnWriteArrayList<>();
+
+	@Test
+	void receivesEmailsWithDotUnstuffing() throws IOException {
+		NioSmtpServer server = start(0);
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+			OutputStream out = socket.getOutputStream();
+			assertThat(in.readLine()).startsWith("220 ");
+
+			send(out, "EHLO client");
+			assertThat(readReply(in)).contains("250-SIZE", "250 Ok");
+			send(out, "MAIL FROM:<from@example.com>");
+			assertThat(in.readLine()).isEqualTo("250 Ok");
+			send(out, "RCPT TO:<to@example.com>");
+			assertThat(in.readLine()).isEqualTo("250 Ok");
+			send(out, "DATA");
+			assertThat(in.readLine()).startsWith("354 ");
+			send(out, "Subject: dots\r\n\r\n..leading dot\r\n.\r\nQUIT");
+			assertThat(in.readLine()).isEqualTo("250 Ok");
+			assertThat(in.readLine()).startsWith("221 ");
+		} finally {
+			server.stop();
+		}
+		assertThat(received).containsExactly("Subject: dots\r\n\r\n.leading dot\r\n");
+	}
+
+	@Test
+	void handlesCommandsSentTogether() throws IOException {
+		NioSmtpServer server = start(0);
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+			OutputStream out = socket.getOutputStream();
+			assertThat(in.readLine()).startsWith("220 ");
+
+			send(out, "HELO client\r\nMAIL FROM:<a@example.com>\r\nRCPT TO:<b@example.com>\r\nDATA");
+			assertThat(in.readLine()).startsWith("250 ");
+			assertThat(in.readLine()).isEqualTo("250 Ok");
+			assertThat(in.readLine()).isEqualTo("250 Ok");
+			assertThat(in.readLine()).startsWith("354 ");
+			// The next transaction follows the end of the data, in the same packet
+			send(out, "first\r\n.\r\nMAIL FROM:<a@example.com>\r\nRCPT TO:<b@example.com>\r\nDATA\r\nsecond\r\n.\r\nQUIT");
+			assertThat(in.readLine()).isEqualTo("250 Ok");
+			assertThat(in.readLine()).isEqualTo("250 Ok");
+			assertThat(in.readLine()).isEqualTo("250 Ok");
+			assertThat(in.readLine()).startsWith("354 ");
+			assertThat(in.readLine()).isEqualTo("250 Ok");
+			assertThat(in.readLine()).startsWith("221 ");
+		} finally {
+			server.stop();
+		}
+		assertThat(received).containsExactly("first\r\n", "second\r\n");
+	}
+
+	@Test
+	void receivesChunksAsTheyAre() throws IOException {
+		NioSmtpServer server = start(0);
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+			OutputStream out = socket.getOutputStream();
+			assertThat(in.readLine()).startsWith("220 ");
+
+			send(out, "EHLO client");
+			assertThat(readReply(in)).contains("250-PIPELINING", "250-CHUNKING");
+			// The dots of the chunks are not unstuffed, and a line made of a dot doesn't end them
+			send(out, "MAIL FROM:<a@example.com>\r\nRCPT TO:<b@example.com>\r\nBDAT 8\r\n..a\r\n.\r\nBDAT 5 LAST\r\nend\r\nQUIT");
+			assertThat(in.readLine()).isEqualTo("250 Ok");
+			assertThat(in.readLine()).isEqualTo("250 Ok");
+			assertThat(in.readLine()).isEqualTo("250 2.0.0 8 octets received");
+			assertThat(in.readLine()).isEqualTo("250 Ok");
+			assertThat(in.readLine()).startsWith("221 ");
+		} finally {
+			server.stop();
+		}
+		assertThat(received).containsExactly("..a\r\n.\r\nend\r\n");
+	}
+
+	@Test
+	void rejectsOversizedEmails() throws IOException {
+		NioSmtpServer server = start(16);
+		try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+			BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+			OutputStream out = socket.getOutputStream();
+			assertThat(in.readLine()).startsWith("220 ");
+
+			send(out, "HELO client\r\nMAIL FROM:<a@example.com> SIZE=17");
+			assertThat(in.readLine()).startsWith("250 ");
+			assertThat(in.readLine()).startsWith("552 ");
+			send(out, "MAIL FROM:<a@example.com>\r\nRCPT TO:<b@example.com>\r\nDATA");
+			assertThat(in.readLine()).isEqualTo("250 Ok");
+			assertThat(in.readLine()).isEqualTo("250 Ok");
+			assertThat(in.readLine()).startsWith("354 ");
+			send(out, "more than sixteen bytes\r\n.");
+			assertThat(in.readLine()).startsWith("552 ");
+		} finally {
+			server.stop();
+		}
+		assertThat(received).isEmpty();
+	}
+
+	private NioSmtpServer start(int maxMessageSize) {
+		NioSmtpServer server = new NioSmtpServer(saver, CapturingHandler::new,
+				new NioSmtpServer.Options(2, 50, 10, 60_000, maxMessageSize, 10, false), null);
+		server.start(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+		return server;
+	}
+
+	private static void send(OutputStream out, String lines) throws IOException {
+		out.write((lines + "\r\n").getBytes(StandardCharsets.US_ASCII));
+		out.flush();
+	}
+
+	private static List<String> readReply(BufferedReader in) throws IOException {
+		List<String> lines = new ArrayList<>();
+		String line;
+		do {
+			line = in.readLine();
+			lines.add(line);
+		} while (line != null && line.charAt(3) == '-');
+		return lines;
+	}
+
+	/**
+	 * Keeps the received emails instead of saving them.
+	 */
+	private class CapturingHandler extends MultipleRecipientsMessageHandler {
+
+		CapturingHandler() {
+			super(saver);
+		}
+
+		@Override
+		public void data(MessageBuffer message, HeaderIndex headers) {
+			try (message) {
+				received.add(new String(message.toByteArray(), StandardCharsets.US_ASCII));
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,253 @@
+package com.nilhcem.fakesmtp.event;
+
+import com.nilhcem.fakesmtp.event.Event.Type;
+import com.nilhcem.fakesmtp.event.EventBus.Subscription;
+import com.nilhcem.fakesmtp.model.AddressDictionary;
+import com.nilhcem.fakesmtp.model.EmailModel;
+import com.nilhcem.fakesmtp.model.MailContent;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class EventBusTest {
+
+	@Test
+	void eachSubscriptionReceivesAllEventsInOrder() throws InterruptedException {
+		EventBus bus = new EventBus(8, TimeUnit.MINUTES.toMillis(1));
+		List<String> fast = new ArrayList<>();
+		List<String> slow = new ArrayList<>();
+		CountDownLatch done = new CountDownLatch(2);
+		try (Subscription s1 = bus.subscribe("fast", OverflowPolicy.BLOCK, (event, endOfBatch) -> {
+			fast.add(event.getType() == Type.CLEARED ? "cleared" : event.getMessage());
+			if (fast.size() == 101) {
+				done.countDown();
+			}
+		}); Subscription s2 = bus.subscribe("slow", OverflowPolicy.BLOCK, (event, endOfBatch) -> {
+			sleep();
+			slow.add(event.getType() == Type.CLEARED ? "cleared" : event.getMessage());
+			if (slow.size() == 101) {
+				done.countDown();
+			}
+		})) {
+			// The ring is much smaller than the number of events: publishers wait for the slow subscription
+			for (int i = 0; i < 100; i++) {
+				bus.publishLog(i, "log " + i);
+			}
+			bus.publishCleared(0);
+
+			assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+		}
+		assertThat(fast).hasSize(101);
+		assertThat(fast.get(99)).isEqualTo("log 99");
+		assertThat(fast.get(100)).isEqualTo("cleared");
+		assertThat(slow).isEqualTo(fast);
+	}
+
+	@Test
+	void eventsAreOverwrittenWithoutSubscription() throws InterruptedException {
+		EventBus bus = new EventBus(4);
+		for (int i = 0; i < 10; i++) {
+			bus.publishLog(i, "ignored");
+		}
+
+		List<Long> timestamps = new ArrayList<>();
+		CountDownLatch done = new CountDownLatch(1);
+		try (Subscription subscription = bus.subscribe("late", OverflowPolicy.BLOCK, (event, endOfBatch) -> {
+			timestamps.add(event.getTimestamp());
+			done.countDown();
+		})) {
+			bus.publishLog(42, "received");
+			assertThat(done.await(10, TimeUnit.SECONDS)).isTrue();
+		}
+		assertThat(timestamps).containsExactly(42L);
+	}
+
+	@Test
+	void newestEventsAreDroppedWithoutBlocking() throws InterruptedException {
+		EventBus bus = new EventBus(4);
+		CountDownLatch release = new CountDownLatch(1);
+		List<String> received = new ArrayList<>();
+		try (Subscription subscription = bus.subscribe("frozen", OverflowPolicy.DROP_NEWEST, (event, endOfBatch) -> {
+			await(release);
+			received.add(event.getMessage());
+		})) {
+			for (int i = 0; i < 20; i++) {
+				bus.publishLog(i, "log " + i);
+			}
+			assertThat(subscription.getDropped()).isEqualTo(16);
+
+			release.countDown();
+			waitUntil(() -> subscription.getLag() == 0);
+		}
+		assertThat(received).containsExactly("log 0", "log 1", "log 2", "log 3");
+	}
+
+	@Test
+	void oldestEventsAreSkippedWithoutBlocking() throws InterruptedException {
+		EventBus bus = new EventBus(4);
+		CountDownLatch release = new CountDownLatch(1);
+		List<String> received = new ArrayList<>();
+		try (Subscription subscription = bus.subscribe("frozen", OverflowPolicy.DROP_OLDEST, (event, endOfBatch) -> {
+			await(release);
+			received.add(event.getMessage());
+		})) {
+			for (int i = 0; i < 20; i++) {
+				bus.publishLog(i, "log " + i);
+			}
+
+			release.countDown();
+			waitUntil(() -> subscription.getLag() == 0);
+			assertThat(received.size() + subscription.getDropped()).isEqualTo(20);
+		}
+		assertThat(received.get(received.size() - 1)).isEqualTo("log 19");
+	}
+
+	@Test
+	void offeredLogsNeverWaitForBlockingSubscriptions() throws InterruptedException {
+		EventBus bus = new EventBus(4, TimeUnit.MINUTES.toMillis(1));
+		CountDownLatch release = new CountDownLatch(1);
+		List<Object[]> arguments = new ArrayList<>();
+		try (Subscription subscription = bus.subscribe("frozen", OverflowPolicy.BLOCK, (event, endOfBatch) -> {
+			await(release);
+			arguments.add(event.getArguments());
+		})) {
+			for (int i = 0; i < 20; i++) {
+				bus.offerLog(i, "log {}", new Object[] {i});
+			}
+			assertThat(subscription.getDropped()).isEqualTo(16);
+
+			release.countDown();
+			waitUntil(() -> subscription.getLag() == 0);
+		}
+		assertThat(arguments).hasSize(4);
+		assertThat(arguments.get(3)).containsExactly(3);
+	}
+
+	@Test
+	void onlyTheLastLogsAreCoalesced() throws InterruptedException {
+		EventBus bus = new EventBus(16);
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		List<String> received = new ArrayList<>();
+		try (Subscription subscription = bus.subscribe("latest", OverflowPolicy.COALESCE, (event, endOfBatch) -> {
+			started.countDown();
+			await(release);
+			received.add(event.getType() == Type.MAIL_RECEIVED ? event.getEmail().subject() : event.getMessage());
+		})) {
+			bus.publishLog(0, "first");
+			// The next events are available at once
+			await(started);
+			bus.publishLog(1, "log a");
+			bus.publishMail(email(1, "mail 1"));
+			bus.publishLog(2, "log b");
+			bus.publishMail(email(2, "mail 2"));
+			bus.publishLog(3, "log c");
+
+			release.countDown();
+			waitUntil(() -> subscription.getLag() == 0 && received.size() == 4);
+			assertThat(subscription.getDropped()).isEqualTo(2);
+		}
+		assertThat(received).containsExactly("first", "mail 1", "mail 2", "log c");
+	}
+
+	@Test
+	void clearsAndEvictionsAreNeverOverwritten() throws InterruptedException {
+		EventBus bus = new EventBus(4);
+		CountDownLatch started = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		List<String> received = new ArrayList<>();
+		try (Subscription subscription = bus.subscribe("frozen", OverflowPolicy.DROP_OLDEST, (event, endOfBatch) -> {
+			started.countDown();
+			await(release);
+			received.add(switch (event.getType()) {
+				case CLEARED -> "cleared " + event.getId();
+				case EVICTED -> "evicted " + event.getId();
+				default -> event.getMessage();
+			});
+		})) {
+			bus.publishLog(0, "first");
+			await(started);
+			bus.publishEvicted(7);
+			bus.publishCleared(42);
+			// The ring wraps around many times after the clear
+			for (int i = 0; i < 20; i++) {
+				bus.publishLog(i, "log " + i);
+			}
+
+			release.countDown();
+			waitUntil(() -> received.contains("cleared 42"));
+			assertThat(subscription.getDropped()).isEqualTo(16);
+		}
+		assertThat(received).containsExactly("first", "evicted 7", "log 16", "log 17", "log 18", "log 19", "cleared 42");
+	}
+
+	@Test
+	void concurrentPublishersNeverTearEvents() throws InterruptedException {
+		EventBus bus = new EventBus(4);
+		AtomicLong received = new AtomicLong();
+		AtomicLong torn = new AtomicLong();
+		try (Subscription subscription = bus.subscribe("checker", OverflowPolicy.DROP_OLDEST, (event, endOfBatch) -> {
+			received.incrementAndGet();
+			if (!("log " + event.getTimestamp()).equals(event.getMessage())) {
+				torn.incrementAndGet();
+			}
+		})) {
+			// The ring wraps around while other publishers are still filling their slots
+			List<Thread> publishers = new ArrayList<>();
+			for (int t = 0; t < 4; t++) {
+				int first = t * 10_000;
+				Thread publisher = new Thread(() -> {
+					for (int i = first; i < first + 10_000; i++) {
+						bus.publishLog(i, "log " + i);
+					}
+				});
+				publishers.add(publisher);
+				publisher.start();
+			}
+			for (Thread publisher : publishers) {
+				publisher.join();
+			}
+
+			waitUntil(() -> subscription.getLag() == 0);
+			assertThat(received.get() + subscription.getDropped()).isEqualTo(40_000);
+		}
+		assertThat(torn.get()).isZero();
+	}
+
+	private static EmailModel email(long id, String subject) {
+		return new EmailModel(id, LocalDateTime.now(), new AddressDictionary(), -1, new int[0], subject,
+				MailContent.ofBytes(new byte[0]), null);
+	}
+
+	private static void waitUntil(BooleanSupplier condition) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+		while (!condition.getAsBoolean() && System.nanoTime() < deadline) {
+			Thread.sleep(1);
+		}
+		assertThat(condition.getAsBoolean()).isTrue();
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void sleep() {
+		try {
+			Thread.sleep(1);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
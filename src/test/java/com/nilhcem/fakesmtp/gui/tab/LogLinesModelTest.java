@@ -0,0 +1,80 @@
+package com.nilhcem.fakesmtp.gui.tab;
+
+import org.junit.jupiter.api.Test;
+
+import javax.swing.event.ListDataEvent;
+import javax.swing.event.ListDataListener;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LogLinesModelTest {
+
+	private final List<String> events = new ArrayList<>();
+
+	@Test
+	void oldestLinesAreRemovedOnceFull() {
+		LogLinesModel model = newModel(3);
+		model.addAll(lines(0, 2));
+		model.addAll(lines(2, 4));
+
+		assertThat(patterns(model)).containsExactly("1", "2", "3");
+		assertThat(events).containsExactly("added 0-1", "removed 0-0", "added 1-2");
+	}
+
+	@Test
+	void onlyTheLastLinesOfALargeBatchAreKept() {
+		LogLinesModel model = newModel(3);
+		model.addAll(lines(0, 2));
+		model.addAll(lines(2, 7));
+
+		assertThat(patterns(model)).containsExactly("4", "5", "6");
+		assertThat(events).containsExactly("added 0-1", "removed 0-1", "added 0-2");
+
+		// The ring wrapped: the next line still replaces the oldest one
+		model.addAll(lines(7, 8));
+		assertThat(patterns(model)).containsExactly("5", "6", "7");
+	}
+
+	@Test
+	void clearRemovesAllTheLines() {
+		LogLinesModel model = newModel(3);
+		model.addAll(lines(0, 5));
+		model.clear();
+		model.addAll(lines(5, 6));
+
+		assertThat(patterns(model)).containsExactly("5");
+		assertThat(events).containsExactly("added 0-2", "removed 0-2", "added 0-0");
+	}
+
+	private LogLinesModel newModel(int capacity) {
+		LogLinesModel model = new LogLinesModel(capacity);
+		model.addListDataListener(new ListDataListener() {
+			@Override
+			public void intervalAdded(ListDataEvent e) {
+				events.add("added " + e.getIndex0() + "-" + e.getIndex1());
+			}
+
+			@Override
+			public void intervalRemoved(ListDataEvent e) {
+				events.add("removed " + e.getIndex0() + "-" + e.getIndex1());
+			}
+
+			@Override
+			public void contentsChanged(ListDataEvent e) {
+				events.add("changed " + e.getIndex0() + "-" + e.getIndex1());
+			}
+		});
+		return model;
+	}
+
+	private static List<LogLine> lines(int from, int to) {
+		return IntStream.range(from, to).mapToObj(i -> new LogLine(i, Integer.toString(i), null)).toList();
+	}
+
+	private static List<String> patterns(LogLinesModel model) {
+		return IntStream.range(0, model.getSize()).mapToObj(i -> model.getElementAt(i).pattern()).toList();
+	}
+}
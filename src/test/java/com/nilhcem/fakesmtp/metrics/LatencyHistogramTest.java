@@ -0,0 +1,38 @@
+package com.nilhcem.fakesmtp.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class LatencyHistogramTest {
+
+	@Test
+	void percentilesAreKnownWithinTheBucketPrecision() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		for (long value = 1; value <= 1000; value++) {
+			histogram.record(value * 1000);
+		}
+
+		assertThat(histogram.getCount()).isEqualTo(1000L);
+		assertThat(histogram.getMax()).isEqualTo(1_000_000L);
+		assertThat(histogram.getMean()).isEqualTo(500_500.0);
+		assertThat(histogram.getPercentile(50)).isBetween(500_000L, 500_000L * 107 / 100);
+		assertThat(histogram.getPercentile(99)).isBetween(990_000L, 1_000_000L);
+		assertThat(histogram.getPercentile(100)).isEqualTo(1_000_000L);
+	}
+
+	@Test
+	void smallAndExtremeValuesAreRecorded() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertThat(histogram.getPercentile(99)).isZero();
+
+		histogram.record(-5);
+		histogram.record(3);
+		histogram.record(Long.MAX_VALUE);
+
+		assertThat(histogram.getCount()).isEqualTo(3L);
+		assertThat(histogram.getPercentile(10)).isZero();
+		assertThat(histogram.getPercentile(50)).isEqualTo(3L);
+		assertThat(histogram.getPercentile(100)).isEqualTo(Long.MAX_VALUE);
+	}
+}
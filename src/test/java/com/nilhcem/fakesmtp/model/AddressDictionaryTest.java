@@ -0,0 +1,55 @@
+package com.nilhcem.fakesmtp.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class AddressDictionaryTest {
+
+	@Test
+	void addressesAreInternedOnce() {
+		AddressDictionary addresses = new AddressDictionary();
+		int from = addresses.intern("from@example.com");
+		int[] recipients = addresses.intern(List.of("to@example.com", "from@example.com"));
+
+		assertThat(recipients[1]).isEqualTo(from);
+		assertThat(addresses.size()).isEqualTo(2);
+		assertThat(addresses.get(recipients[0])).isEqualTo("to@example.com");
+		assertThat(addresses.find("from@example.com")).isEqualTo(from);
+		assertThat(addresses.find("unknown@example.com")).isEqualTo(AddressDictionary.UNKNOWN);
+		assertThatThrownBy(() -> addresses.get(2)).isInstanceOf(IllegalArgumentException.class);
+	}
+
+	@Test
+	void concurrentInterningGivesASingleId() throws Exception {
+		AddressDictionary addresses = new AddressDictionary();
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Future<int[]>> results = new ArrayList<>();
+			for (int t = 0; t < 4; t++) {
+				results.add(executor.submit(() -> {
+					int[] ids = new int[1000];
+					for (int i = 0; i < ids.length; i++) {
+						ids[i] = addresses.intern("user" + i + "@example.com");
+					}
+					return ids;
+				}));
+			}
+			int[] first = results.get(0).get();
+			for (Future<int[]> result : results) {
+				assertThat(result.get()).isEqualTo(first);
+			}
+			assertThat(addresses.size()).isEqualTo(1000);
+			assertThat(addresses.get(first[999])).isEqualTo("user999@example.com");
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
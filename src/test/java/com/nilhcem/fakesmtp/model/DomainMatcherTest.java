@@ -0,0 +1,32 @@
+package com.nilhcem.fakesmtp.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DomainMatcherTest {
+
+	@Test
+	void domainsMatchTheirSubdomains() {
+		DomainMatcher matcher = new DomainMatcher(List.of("example.com", "Example.ORG."));
+
+		assertThat(matcher.matches("user@example.com")).isTrue();
+		assertThat(matcher.matches("user@mail.EXAMPLE.com")).isTrue();
+		assertThat(matcher.matches("user@example.org")).isTrue();
+		assertThat(matcher.matches("user@evilexample.com")).isFalse();
+		assertThat(matcher.matches("user@example.com.evil.net")).isFalse();
+		assertThat(matcher.matches("user@com")).isFalse();
+	}
+
+	@Test
+	void prefixedDomainsAndAddressesMatchExactly() {
+		DomainMatcher matcher = new DomainMatcher(List.of("@example.com", "john@example.org"));
+
+		assertThat(matcher.matches("user@example.com")).isTrue();
+		assertThat(matcher.matches("user@mail.example.com")).isFalse();
+		assertThat(matcher.matches("John@example.org")).isTrue();
+		assertThat(matcher.matches("jane@example.org")).isFalse();
+	}
+}
@@ -0,0 +1,75 @@
+package com.nilhcem.fakesmtp.model;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MailCatalogTest {
+
+	private final AddressDictionary addresses = new AddressDictionary();
+
+	@Test
+	void rowsKeepTheirColumns() {
+		MailCatalog catalog = new MailCatalog(addresses);
+		LocalDateTime date = LocalDateTime.of(2024, 1, 2, 3, 4, 5);
+		catalog.append(email(1, date, "a@example.com", List.of("b@example.com", "c@example.com"), "body"));
+		catalog.append(email(2, date, "b@example.com", List.of("a@example.com"), "longer body"));
+
+		assertThat(catalog.size()).isEqualTo(2);
+		assertThat(catalog.id(1)).isEqualTo(2);
+		assertThat(catalog.receivedDate(0)).isEqualTo(date);
+		assertThat(catalog.length(1)).isEqualTo(11);
+		assertThat(catalog.from(0)).isEqualTo("a@example.com");
+		assertThat(catalog.recipients(0)).containsExactly("b@example.com", "c@example.com");
+		assertThat(catalog.recipients(1)).containsExactly("a@example.com");
+		assertThat(catalog.recipientIds(1)).containsExactly(catalog.fromId(0));
+	}
+
+	@Test
+	void catalogGrowsAndClears() {
+		MailCatalog catalog = new MailCatalog(addresses);
+		for (int i = 0; i < 3000; i++) {
+			catalog.append(email(i, LocalDateTime.now(), "sender" + (i % 3) + "@example.com", List.of("to@example.com"), ""));
+		}
+
+		assertThat(catalog.size()).isEqualTo(3000);
+		int[] rows = catalog.rowsFrom("sender1@example.com");
+		assertThat(rows).hasSize(1000);
+		assertThat(rows[1]).isEqualTo(4);
+		assertThat(catalog.recipients(2999)).containsExactly("to@example.com");
+
+		catalog.clear();
+		assertThat(catalog.size()).isZero();
+		assertThatThrownBy(() -> catalog.id(0)).isInstanceOf(IndexOutOfBoundsException.class);
+	}
+
+	@Test
+	void removedRowsAreCompacted() {
+		MailCatalog catalog = new MailCatalog(addresses);
+		LocalDateTime date = LocalDateTime.now();
+		catalog.append(email(3, date, "a@example.com", List.of("b@example.com", "c@example.com"), ""));
+		catalog.append(email(1, date, "b@example.com", List.of("c@example.com"), ""));
+		catalog.append(email(4, date, "c@example.com", List.of("a@example.com", "b@example.com"), ""));
+		catalog.append(email(2, date, "a@example.com", List.of("d@example.com"), ""));
+
+		assertThat(catalog.removeIf(id -> id <= 2)).containsExactly(1, 3);
+		assertThat(catalog.size()).isEqualTo(2);
+		assertThat(catalog.id(0)).isEqualTo(3);
+		assertThat(catalog.recipients(0)).containsExactly("b@example.com", "c@example.com");
+		assertThat(catalog.id(1)).isEqualTo(4);
+		assertThat(catalog.from(1)).isEqualTo("c@example.com");
+		assertThat(catalog.recipients(1)).containsExactly("a@example.com", "b@example.com");
+
+		catalog.append(email(5, date, "d@example.com", List.of("a@example.com"), ""));
+		assertThat(catalog.recipients(2)).containsExactly("a@example.com");
+	}
+
+	private EmailModel email(long id, LocalDateTime date, String from, List<String> recipients, String body) {
+		return new EmailModel(id, date, addresses, addresses.intern(from), addresses.intern(recipients), "", MailContent.ofBytes(body.getBytes(StandardCharsets.UTF_8)), null);
+	}
+}
@@ -0,0 +1,83 @@
+package com.nilhcem.fakesmtp.store;
+
+import com.nilhcem.fakesmtp.model.MailContent;
+import com.nilhcem.fakesmtp.server.MessageBuffer;
+import com.nilhcem.fakesmtp.store.MemoryMailStore.EvictionPolicy;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class MemoryMailStoreTest {
+
+	@Test
+	void oldestEmailsAreEvictedFirst() throws IOException {
+		MemoryMailStore store = new MemoryMailStore(3, Long.MAX_VALUE, EvictionPolicy.FIFO);
+		for (long id = 1; id <= 5; id++) {
+			store.put(id, buffer("email " + id));
+		}
+		store.get(3);
+
+		assertThat(store.list()).containsExactly(3L, 4L, 5L);
+		assertThat(store.getEvictedCount()).isEqualTo(2);
+		assertThat(store.getEvictedBytes()).isEqualTo(14);
+	}
+
+	@Test
+	void leastRecentlyReadEmailsAreEvictedFirst() throws IOException {
+		MemoryMailStore store = new MemoryMailStore(3, Long.MAX_VALUE, EvictionPolicy.LRU);
+		List<Long> evicted = new ArrayList<>();
+		store.setEvictionListener(evicted::add);
+		store.put(1, buffer("email 1"));
+		store.put(2, buffer("email 2"));
+		store.put(3, buffer("email 3"));
+		store.get(1);
+		store.put(4, buffer("email 4"));
+
+		assertThat(store.list()).containsExactly(1L, 3L, 4L);
+		assertThat(store.getEvictedCount()).isEqualTo(1);
+		assertThat(evicted).containsExactly(2L);
+	}
+
+	@Test
+	void totalSizeIsCapped() throws IOException {
+		MemoryMailStore store = new MemoryMailStore(100, 20, EvictionPolicy.FIFO);
+		store.put(1, buffer("0123456789"));
+		store.put(2, buffer("0123456789"));
+		store.put(3, buffer("01234"));
+
+		assertThat(store.list()).containsExactly(2L, 3L);
+		assertThat(store.getBytes()).isEqualTo(15);
+
+		store.deleteUpTo(2);
+		assertThat(store.list()).containsExactly(3L);
+		assertThat(store.getBytes()).isEqualTo(5);
+	}
+
+	@Test
+	void offHeapEmailsAreEvictedWhenTheArenaIsFull() throws IOException {
+		// 4 blocks of 16 bytes
+		OffHeapArena arena = new OffHeapArena(64, 16, 32);
+		MemoryMailStore store = new MemoryMailStore(100, Long.MAX_VALUE, EvictionPolicy.FIFO, arena);
+		MailContent first = store.put(1, buffer("first email, 2 blocks"));
+		store.put(2, buffer("second email, 2 blocks"));
+		MailContent third = store.put(3, buffer("third"));
+
+		assertThat(store.list()).containsExactly(2L, 3L);
+		assertThat(store.getEvictedCount()).isEqualTo(1);
+		assertThat(third.asString()).isEqualTo("third");
+		assertThatThrownBy(first::openStream).isInstanceOf(IOException.class);
+		assertThat(arena.getFreeBytes()).isEqualTo(16);
+	}
+
+	private static MessageBuffer buffer(String content) throws IOException {
+		MessageBuffer buffer = new MessageBuffer(1024);
+		buffer.write(content.getBytes(StandardCharsets.UTF_8));
+		return buffer;
+	}
+}
@@ -0,0 +1,133 @@
+package com.nilhcem.fakesmtp.store;
+
+import com.nilhcem.fakesmtp.model.MailContent;
+import com.nilhcem.fakesmtp.server.MessageBuffer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class SegmentMailStoreTest {
+	private static final long SEGMENT_SIZE = 1024;
+
+	@TempDir
+	Path tempDir;
+
+	@Test
+	void appendedEmailsCanBeReadAndExported() throws IOException {
+		SegmentMailStore store = new SegmentMailStore(tempDir, SEGMENT_SIZE);
+		MailContent content = store.put(1, buffer("Subject: first\r\n\r\nHello\r\n"));
+		store.put(2, buffer("Subject: second\r\n\r\nWorld\r\n"));
+
+		assertThat(content.asString()).isEqualTo("Subject: first\r\n\r\nHello\r\n");
+		Path exported = tempDir.resolve("2.eml");
+		store.export(2, exported);
+		assertThat(Files.readString(exported)).isEqualTo("Subject: second\r\n\r\nWorld\r\n");
+	}
+
+	@Test
+	void indexIsRebuiltWhenReopened() throws IOException {
+		SegmentMailStore store = new SegmentMailStore(tempDir, SEGMENT_SIZE);
+		for (int i = 1; i <= 20; i++) {
+			store.put(i, buffer("Subject: email " + i + "\r\n\r\n" + "x".repeat(100)));
+		}
+		store.sync();
+
+		SegmentMailStore reopened = new SegmentMailStore(tempDir, SEGMENT_SIZE);
+		assertThat(reopened.size()).isEqualTo(20);
+		try (InputStream in = reopened.stream(17)) {
+			assertThat(new String(in.readAllBytes(), StandardCharsets.UTF_8)).startsWith("Subject: email 17\r\n");
+		}
+	}
+
+	@Test
+	void strayFilesAreIgnoredWhenReopened() throws IOException {
+		SegmentMailStore store = new SegmentMailStore(tempDir, SEGMENT_SIZE);
+		store.put(1, buffer("Subject: kept\r\n\r\n"));
+		store.sync();
+		Files.writeString(tempDir.resolve("backup.seg"), "not a segment");
+
+		SegmentMailStore reopened = new SegmentMailStore(tempDir, SEGMENT_SIZE);
+		assertThat(reopened.size()).isEqualTo(1);
+		assertThat(reopened.get(1)).isNotNull();
+	}
+
+	@Test
+	void truncatedLastEmailIsIgnored() throws IOException {
+		SegmentMailStore store = new SegmentMailStore(tempDir, SEGMENT_SIZE);
+		store.put(1, buffer("Subject: complete\r\n\r\n"));
+		store.put(2, buffer("Subject: truncated\r\n\r\n"));
+		store.sync();
+
+		// Simulate a crash while the content of the last email was being written
+		Path segment;
+		try (var files = Files.list(tempDir)) {
+			segment = files.filter(f -> f.toString().endsWith(".seg")).findFirst().orElseThrow();
+		}
+		try (RandomAccessFile file = new RandomAccessFile(segment.toFile(), "rw")) {
+			long length = file.length();
+			byte[] bytes = new byte[(int) length];
+			file.readFully(bytes);
+			int last = new String(bytes, StandardCharsets.ISO_8859_1).indexOf("truncated");
+			file.seek(last);
+			file.write(new byte[4]);
+		}
+
+		SegmentMailStore reopened = new SegmentMailStore(tempDir, SEGMENT_SIZE);
+		assertThat(reopened.size()).isEqualTo(1);
+		assertThat(reopened.get(1)).isNotNull();
+		assertThat(reopened.get(2)).isNull();
+	}
+
+	@Test
+	void deletedEmailsStayDeletedWhenReopened() throws IOException {
+		SegmentMailStore store = new SegmentMailStore(tempDir, SEGMENT_SIZE);
+		for (int i = 1; i <= 10; i++) {
+			store.put(i, buffer("Subject: email " + i + "\r\n\r\n" + "x".repeat(200)));
+		}
+		store.deleteUpTo(6);
+		assertThat(store.delete(8)).isTrue();
+
+		assertThat(store.list()).containsExactly(7L, 9L, 10L);
+		assertThatThrownBy(() -> store.stream(3)).isInstanceOf(NoSuchFileException.class);
+		assertThat(new SegmentMailStore(tempDir, SEGMENT_SIZE).list()).containsExactly(7L, 9L, 10L);
+	}
+
+	@Test
+	void compactionMovesTheRemainingEmails() throws IOException {
+		SegmentMailStore store = new SegmentMailStore(tempDir, SEGMENT_SIZE);
+		// 4 emails per segment
+		for (int i = 1; i <= 12; i++) {
+			store.put(i, buffer("Subject: email " + i + "\r\n\r\n" + "x".repeat(200)));
+		}
+		store.delete(1);
+		store.delete(2);
+		store.delete(3);
+		store.delete(6);
+
+		store.compact();
+		assertThat(store.list()).containsExactly(4L, 5L, 7L, 8L, 9L, 10L, 11L, 12L);
+		try (InputStream in = store.stream(4)) {
+			assertThat(new String(in.readAllBytes(), StandardCharsets.UTF_8)).startsWith("Subject: email 4\r\n");
+		}
+		try (var files = Files.list(tempDir)) {
+			assertThat(files.filter(f -> f.toString().endsWith(".seg")).count()).isEqualTo(3);
+		}
+		assertThat(new SegmentMailStore(tempDir, SEGMENT_SIZE).list()).containsExactly(4L, 5L, 7L, 8L, 9L, 10L, 11L, 12L);
+	}
+
+	private static MessageBuffer buffer(String content) throws IOException {
+		MessageBuffer buffer = new MessageBuffer(1024 * 1024);
+		buffer.write(content.getBytes(StandardCharsets.UTF_8));
+		return buffer;
+	}
+}